@@ -0,0 +1,67 @@
+package uk.ac.ed.inf.aqmaps.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import uk.ac.ed.inf.aqmaps.mapdetails.Node;
+import uk.ac.ed.inf.aqmaps.mapdetails.NoFlyZoneIndex;
+import uk.ac.ed.inf.aqmaps.mapdetails.Sensor;
+import uk.ac.ed.inf.aqmaps.tourfinder.TourFinder;
+import uk.ac.ed.inf.aqmaps.tourfinder.TourFinderSettings;
+import uk.ac.ed.inf.aqmaps.tourfinder.VisibilityGraph;
+
+/**
+ * Ordering the nodes into a tour with the EXACT optimizer. A TourFinder keeps
+ * its exact tour once it has been found, so a new one is built before every
+ * call, outside the timing. With 33 sensors there are too many nodes for
+ * Held-Karp and branch and bound runs until it is proven optimal or its time
+ * limit runs out.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ExactTourBenchmark {
+
+    @Param({ "10", "33" })
+    public int sensors;
+
+    @Param({ "4", "12" })
+    public int nfzs;
+
+    @Param({ "4", "12" })
+    public int vertices;
+
+    private List<Sensor> sensorList;
+    private VisibilityGraph graph;
+    private TourFinderSettings settings;
+    private TourFinder tourFinder;
+
+    @Setup
+    public void setup() {
+        sensorList = Fixtures.sensors(sensors);
+        graph = new VisibilityGraph(new NoFlyZoneIndex(Fixtures.noFlyZones(nfzs, vertices)));
+        settings = new TourFinderSettings();
+        settings.setOptimizer(TourFinderSettings.Optimizer.EXACT);
+    }
+
+    @Setup(Level.Invocation)
+    public void newTourFinder() {
+        tourFinder = new TourFinder(Fixtures.startingPosition(), sensorList, graph, 0, settings);
+    }
+
+    @Benchmark
+    public List<Node> findTour() {
+        return tourFinder.findTour(0);
+    }
+
+}
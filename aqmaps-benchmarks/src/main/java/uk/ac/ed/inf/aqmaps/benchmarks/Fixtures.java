@@ -0,0 +1,119 @@
+package uk.ac.ed.inf.aqmaps.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.google.gson.Gson;
+
+import uk.ac.ed.inf.aqmaps.Constants;
+import uk.ac.ed.inf.aqmaps.mapdetails.Coordinate;
+import uk.ac.ed.inf.aqmaps.mapdetails.HttpRequests;
+import uk.ac.ed.inf.aqmaps.mapdetails.NoFlyZone;
+import uk.ac.ed.inf.aqmaps.mapdetails.Sensor;
+import uk.ac.ed.inf.aqmaps.mapdetails.StartingPosition;
+
+/**
+ * Loads the fixture maps bundled in src/main/resources/fixtures.
+ *
+ * sensors-N.json holds N sensors (in the webserver's format, with their
+ * coordinates added) placed away from every NFZ layout. nfz-C-V.geojson holds C
+ * no-fly zones, each a polygon with V vertices, in the same GeoJSON as the
+ * webserver. Any sensor file can be combined with any NFZ file.
+ */
+public class Fixtures {
+
+    // Starting position, outside every NFZ layout
+    public static final Coordinate START = new Coordinate(55.9438, -3.1884);
+
+    /**
+     * A sensor as stored in the fixture files
+     */
+    private static class SensorFixture {
+        private String location;
+        private double battery;
+        private String reading;
+        private double lng;
+        private double lat;
+    }
+
+    /**
+     * @param count 10, 33 or 100
+     * @return the Sensors with their coordinates set
+     */
+    public static List<Sensor> sensors(int count) {
+
+        var fixtures = new Gson().fromJson(read("sensors-" + count + ".json"), SensorFixture[].class);
+        var sensors = new ArrayList<Sensor>();
+        for (var f : fixtures) {
+            var sensor = new Sensor(f.location, f.battery, f.reading);
+            sensor.setCoordinate(new Coordinate(f.lat, f.lng));
+            sensors.add(sensor);
+        }
+        return sensors;
+
+    }
+
+    /**
+     * @param count    4 or 12
+     * @param vertices 4 or 12
+     * @return the NoFlyZones
+     */
+    public static List<NoFlyZone> noFlyZones(int count, int vertices) {
+        return HttpRequests.parseNoFlyZones(read("nfz-" + count + "-" + vertices + ".geojson"));
+    }
+
+    public static StartingPosition startingPosition() {
+        return new StartingPosition(START);
+    }
+
+    /**
+     * @param count
+     * @param seed
+     * @return count random segments of length MOVE_SIZE inside the confinement
+     *         area, as {start, end} pairs
+     */
+    public static Coordinate[][] segments(int count, int seed) {
+
+        var area = Constants.CONFINEMENT_AREA;
+        var minLat = area[2].getLatitude();
+        var maxLat = area[0].getLatitude();
+        var minLng = area[0].getLongitude();
+        var maxLng = area[1].getLongitude();
+
+        var random = new Random(seed);
+        var segments = new Coordinate[count][];
+        for (var i = 0; i < count; i++) {
+            var start = new Coordinate(minLat + random.nextDouble() * (maxLat - minLat),
+                    minLng + random.nextDouble() * (maxLng - minLng));
+            segments[i] = new Coordinate[] { start, start.move(random.nextInt(36) * 10, Constants.MOVE_SIZE) };
+        }
+        return segments;
+
+    }
+
+    private static String read(String name) {
+
+        var stream = Fixtures.class.getResourceAsStream("/fixtures/" + name);
+        if (stream == null) {
+            throw new IllegalArgumentException("No fixture " + name);
+        }
+        try (var reader = new InputStreamReader(stream, StandardCharsets.UTF_8)) {
+            var text = new StringBuilder();
+            var buffer = new char[8192];
+            int n;
+            while ((n = reader.read(buffer)) != -1) {
+                text.append(buffer, 0, n);
+            }
+            return text.toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+    }
+
+}
@@ -0,0 +1,91 @@
+package uk.ac.ed.inf.aqmaps.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import uk.ac.ed.inf.aqmaps.mapdetails.Coordinate;
+import uk.ac.ed.inf.aqmaps.mapdetails.NoFlyZone;
+import uk.ac.ed.inf.aqmaps.mapdetails.NoFlyZoneIndex;
+
+/**
+ * Segment tests against the NFZs, as made for every candidate move and every
+ * pair of nodes. Each invocation tests SEGMENTS random move-sized segments, so
+ * the scores are per segment.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GeometryBenchmark {
+
+    private static final int SEGMENTS = 1024;
+
+    @Param({ "4", "12" })
+    public int nfzs;
+
+    @Param({ "4", "12" })
+    public int vertices;
+
+    private List<NoFlyZone> NFZs;
+    private NoFlyZoneIndex index;
+    private Coordinate[][] segments;
+    // An edge of the first NFZ
+    private Coordinate edgeStart;
+    private Coordinate edgeEnd;
+
+    @Setup
+    public void setup() {
+        NFZs = Fixtures.noFlyZones(nfzs, vertices);
+        index = new NoFlyZoneIndex(NFZs);
+        segments = Fixtures.segments(SEGMENTS, 1);
+        var zone = NFZs.get(0).getVertices();
+        edgeStart = zone.get(0).getCoordinate();
+        edgeEnd = zone.get(1).getCoordinate();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SEGMENTS)
+    public int linesIntersect() {
+        var count = 0;
+        for (var s : segments) {
+            if (Coordinate.linesIntersect(s[0], s[1], edgeStart, edgeEnd)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SEGMENTS)
+    public int intersectsNoFlyZones() {
+        var count = 0;
+        for (var s : segments) {
+            if (NoFlyZone.intersectsNoFlyZones(s[0], s[1], NFZs)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SEGMENTS)
+    public int noFlyZoneIndex() {
+        var count = 0;
+        for (var s : segments) {
+            if (index.intersects(s[0], s[1])) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,57 @@
+package uk.ac.ed.inf.aqmaps.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import uk.ac.ed.inf.aqmaps.mapdetails.Node;
+import uk.ac.ed.inf.aqmaps.mapdetails.NoFlyZoneIndex;
+import uk.ac.ed.inf.aqmaps.movegenerator.MoveGenerator;
+import uk.ac.ed.inf.aqmaps.tourfinder.TourFinder;
+import uk.ac.ed.inf.aqmaps.tourfinder.TourFinderSettings;
+
+/**
+ * Generating the moves for a full tour of the sensors.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MoveGeneratorBenchmark {
+
+    @Param({ "10", "33", "100" })
+    public int sensors;
+
+    @Param({ "4", "12" })
+    public int nfzs;
+
+    @Param({ "4", "12" })
+    public int vertices;
+
+    @Param({ "BEAM", "A_STAR" })
+    public MoveGenerator.Search search;
+
+    private NoFlyZoneIndex index;
+    private List<Node> tour;
+
+    @Setup
+    public void setup() {
+        index = new NoFlyZoneIndex(Fixtures.noFlyZones(nfzs, vertices));
+        var settings = new TourFinderSettings();
+        settings.setOptimizer(TourFinderSettings.Optimizer.MATRIX);
+        tour = new TourFinder(Fixtures.startingPosition(), Fixtures.sensors(sensors), index, 0, settings).findTour();
+    }
+
+    @Benchmark
+    public MoveGenerator generateMoves() {
+        return new MoveGenerator(tour, index, false, search);
+    }
+
+}
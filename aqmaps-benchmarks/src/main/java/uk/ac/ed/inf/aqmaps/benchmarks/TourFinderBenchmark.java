@@ -0,0 +1,72 @@
+package uk.ac.ed.inf.aqmaps.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import uk.ac.ed.inf.aqmaps.mapdetails.Node;
+import uk.ac.ed.inf.aqmaps.mapdetails.NoFlyZoneIndex;
+import uk.ac.ed.inf.aqmaps.mapdetails.Sensor;
+import uk.ac.ed.inf.aqmaps.tourfinder.TourFinder;
+import uk.ac.ed.inf.aqmaps.tourfinder.TourFinderSettings;
+import uk.ac.ed.inf.aqmaps.tourfinder.VisibilityGraph;
+
+/**
+ * Computing the shortest paths between all the nodes (construction of a
+ * TourFinder) and ordering them into a tour.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TourFinderBenchmark {
+
+    @Param({ "10", "33", "100" })
+    public int sensors;
+
+    @Param({ "4", "12" })
+    public int nfzs;
+
+    @Param({ "4", "12" })
+    public int vertices;
+
+    // EXACT keeps its tour once found, so it is in ExactTourBenchmark instead
+    @Param({ "JGRAPHT", "MATRIX", "NEIGHBOR_LIST" })
+    public TourFinderSettings.Optimizer optimizer;
+
+    @Param({ "false", "true" })
+    public boolean shortestPathTrees;
+
+    private List<Sensor> sensorList;
+    private VisibilityGraph graph;
+    private TourFinderSettings settings;
+    private TourFinder tourFinder;
+
+    @Setup
+    public void setup() {
+        sensorList = Fixtures.sensors(sensors);
+        graph = new VisibilityGraph(new NoFlyZoneIndex(Fixtures.noFlyZones(nfzs, vertices)));
+        settings = new TourFinderSettings();
+        settings.setOptimizer(optimizer);
+        settings.setShortestPathTrees(shortestPathTrees);
+        tourFinder = new TourFinder(Fixtures.startingPosition(), sensorList, graph, 0, settings);
+    }
+
+    @Benchmark
+    public TourFinder shortestPaths() {
+        return new TourFinder(Fixtures.startingPosition(), sensorList, graph, 0, settings);
+    }
+
+    @Benchmark
+    public List<Node> findTour() {
+        return tourFinder.findTour(0);
+    }
+
+}
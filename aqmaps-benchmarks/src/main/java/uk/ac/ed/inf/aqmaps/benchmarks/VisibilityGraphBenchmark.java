@@ -0,0 +1,79 @@
+package uk.ac.ed.inf.aqmaps.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import uk.ac.ed.inf.aqmaps.mapdetails.NoFlyZoneIndex;
+import uk.ac.ed.inf.aqmaps.mapdetails.Sensor;
+import uk.ac.ed.inf.aqmaps.tourfinder.VisibilityGraph;
+
+/**
+ * Building the visibility graph of the NFZ vertices, and finding paths round the
+ * NFZs for pairs of sensors that can't see each other.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VisibilityGraphBenchmark {
+
+    @Param({ "4", "12" })
+    public int nfzs;
+
+    @Param({ "4", "12" })
+    public int vertices;
+
+    @Param({ "BRUTE_FORCE", "SWEEP" })
+    public VisibilityGraph.Builder builder;
+
+    private NoFlyZoneIndex index;
+    private VisibilityGraph graph;
+    // Pairs of sensors whose straight line crosses a NFZ
+    private List<Sensor[]> blocked;
+
+    @Setup
+    public void setup() {
+
+        index = new NoFlyZoneIndex(Fixtures.noFlyZones(nfzs, vertices));
+        graph = new VisibilityGraph(index, builder);
+
+        var sensors = Fixtures.sensors(33);
+        blocked = new ArrayList<Sensor[]>();
+        for (var i = 0; i < sensors.size(); i++) {
+            for (var j = i + 1; j < sensors.size(); j++) {
+                var s1 = sensors.get(i);
+                var s2 = sensors.get(j);
+                if (index.intersects(s1.getCoordinate(), s2.getCoordinate())) {
+                    blocked.add(new Sensor[] { s1, s2 });
+                }
+            }
+        }
+
+    }
+
+    @Benchmark
+    public VisibilityGraph build() {
+        return new VisibilityGraph(index, builder);
+    }
+
+    /**
+     * Time for every blocked pair of the 33 sensor fixture
+     */
+    @Benchmark
+    public void bestPaths(Blackhole blackhole) {
+        for (var pair : blocked) {
+            blackhole.consume(graph.bestPath(pair[0], pair[1]));
+        }
+    }
+
+}
@@ -1,10 +1,19 @@
 package uk.ac.ed.inf.aqmaps;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
 import uk.ac.ed.inf.aqmaps.mapdetails.Coordinate;
 import uk.ac.ed.inf.aqmaps.mapdetails.HttpRequests;
+import uk.ac.ed.inf.aqmaps.mapdetails.MapCache;
+import uk.ac.ed.inf.aqmaps.mapdetails.NoFlyZone;
+import uk.ac.ed.inf.aqmaps.mapdetails.NoFlyZoneIndex;
+import uk.ac.ed.inf.aqmaps.mapdetails.Sensor;
 import uk.ac.ed.inf.aqmaps.mapdetails.StartingPosition;
-import uk.ac.ed.inf.aqmaps.movegenerator.MoveGenerator;
-import uk.ac.ed.inf.aqmaps.tourfinder.TourFinder;
+import uk.ac.ed.inf.aqmaps.movegenerator.Move;
+import uk.ac.ed.inf.aqmaps.tourfinder.PathCache;
 
 public class App {
 
@@ -19,38 +28,90 @@ public class App {
         var seed = Integer.parseInt(args[5]);
         var port = Integer.parseInt(args[6]);
 
-        // Get Sensors, NFZs and StartingPosition
-        var sensors = HttpRequests.sensorRequest(year, month, day, port);
-        var NFZs = HttpRequests.noFlyZonesRequest(port);
-        var startingPosition = new StartingPosition(new Coordinate(startingLatitude, startingLongitude));
+        // Optional flags after the required arguments
+        Options options;
+        try {
+            options = Options.parse(args, 7);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+            return;
+        }
 
-        // Find the shortest tour
-        var tourFinder = new TourFinder(startingPosition, sensors, NFZs, seed);
-        var shortestTour = tourFinder.findTour();
+        // Get Sensors, NFZs and StartingPosition, fetching the Sensors and NFZs at the
+        // same time
+        List<Sensor> sensors;
+        List<NoFlyZone> NFZs;
+        MapCache cache = null;
+        PathCache pathCache;
+        var metrics = new Metrics();
+        try {
+            if (options.isUseCache()) {
+                cache = new MapCache(Paths.get(Constants.CACHE_DIRECTORY), Constants.CACHE_TTL);
+                HttpRequests.setCache(cache);
+            }
+            pathCache = options.openPathCache();
+            var start = Metrics.start();
+            var sensorsRequest = HttpRequests.sensorRequestAsync(year, month, day, port);
+            var NFZsRequest = HttpRequests.noFlyZonesRequestAsync(port);
+            sensors = HttpRequests.await(sensorsRequest);
+            NFZs = HttpRequests.await(NFZsRequest);
+            metrics.stop(Metrics.Phase.HTTP_FETCH, start);
+            if (cache != null) {
+                cache.close();
+            }
+        } catch (IOException e) {
+            System.out.println("Fatal error: " + e.getMessage());
+            System.exit(1); // Exit the application
+            return;
+        }
+        var noFlyZoneIndex = new NoFlyZoneIndex(NFZs);
+        var startingPosition = new StartingPosition(new Coordinate(startingLatitude, startingLongitude));
 
-        // Generate Moves
-        var moveGen = new MoveGenerator(shortestTour, NFZs);
-        var moves = moveGen.getMoves();
+        // Find the tour and moves, keeping the flight with the fewest moves over all
+        // the seeds
+        var seeds = new ArrayList<Integer>();
+        for (var i = 0; i < options.getNumSeeds(); i++) {
+            seeds.add(seed + i);
+        }
+        var visibilityGraph = options.createVisibilityGraph(noFlyZoneIndex, metrics);
+        var planner = new Planner(startingPosition, sensors, visibilityGraph, options.getSettings(),
+                options.getSearch(), metrics);
+        List<Move> moves;
+        try {
+            moves = planner.plan(seeds, Runtime.getRuntime().availableProcessors());
+        } catch (IllegalStateException e) {
+            System.out.println("Fatal error: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
 
-        // If number of moves is too large, remove a sensor and compute a new tour
-        while (moves.size() > Constants.MOVE_LIMIT) {
-            tourFinder.removeMostIsolated();
-            // reset visited boolean on sensors
-            for (var sensor : sensors) {
-                sensor.setVisited(false);
+        // Save the paths found for the next run
+        if (pathCache != null) {
+            try {
+                pathCache.close();
+            } catch (IOException e) {
+                System.out.println("Failed to write to file.");
+                e.printStackTrace();
             }
-            shortestTour = tourFinder.findTour();
-            moveGen = new MoveGenerator(shortestTour, NFZs);
-            moves = moveGen.getMoves();
         }
 
-        // write Move log
-        var filename = "flightpath-" + day + "-" + month + "-" + year + ".txt";
-        FileWrite.writeMoves(moves, filename);
+        // write Move log and GeoJson
+        try {
+            var start = Metrics.start();
+            FileWrite.writeFlight(moves, sensors, day, month, year, options.getOutput());
+            metrics.stop(Metrics.Phase.OUTPUT, start);
+        } catch (IOException e) {
+            System.out.println("Failed to write to file.");
+            e.printStackTrace();
+            System.exit(1);
+        }
 
-        // write GeoJson
-        filename = "readings-" + day + "-" + month + "-" + year + ".geojson";
-        FileWrite.createMap(moves, sensors, filename);
+        // write a summary of where the time went
+        if (options.isWriteMetrics()) {
+            var filename = "metrics-" + day + "-" + month + "-" + year + ".json";
+            metrics.write(options.getOutput().resolve(filename).toString());
+        }
 
     }
     
@@ -0,0 +1,263 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+
+import uk.ac.ed.inf.aqmaps.mapdetails.Coordinate;
+import uk.ac.ed.inf.aqmaps.mapdetails.HttpRequests;
+import uk.ac.ed.inf.aqmaps.mapdetails.MapCache;
+import uk.ac.ed.inf.aqmaps.mapdetails.NoFlyZoneIndex;
+import uk.ac.ed.inf.aqmaps.mapdetails.StartingPosition;
+import uk.ac.ed.inf.aqmaps.tourfinder.PathCache;
+import uk.ac.ed.inf.aqmaps.tourfinder.VisibilityGraph;
+
+/**
+ * Plans the flights for many dates in one run.
+ *
+ * Usage is either
+ *
+ * BatchApp first-date last-date latitude longitude seed port [flags]
+ *
+ * with the dates written as yyyy-mm-dd, to plan every date from first-date to
+ * last-date from the same starting position and seed, or
+ *
+ * BatchApp --jobs=file port [flags]
+ *
+ * where each line of the file holds the first six arguments of App (day month
+ * year latitude longitude seed). Each date can only be listed once, as its files
+ * are named after the date alone. The flags are the same as for App (including
+ * --output=DIR to write the files somewhere other than the current directory),
+ * plus --threads=N to set how many dates are planned at once. Unknown flags and
+ * repeated dates are reported before anything is planned.
+ *
+ * A date fails if its Sensors can't be requested, its flight can't be planned
+ * or its files can't be written. The exit code is 1 if any date failed. With
+ * --parallel, the cores are shared between the dates planned at once.
+ *
+ * The NFZs are only requested once, and every date shares the same
+ * NoFlyZoneIndex and VisibilityGraph. Each date writes its own flightpath and
+ * readings files. With --metrics, the timings and counters of the whole batch
+ * are written to metrics-batch.json.
+ */
+public class BatchApp {
+
+    /**
+     * A date to plan the flight for, with its starting position and seed
+     */
+    private static class Job {
+
+        private String day;
+        private String month;
+        private String year;
+        private Coordinate start;
+        private int seed;
+
+        Job(int day, int month, int year, Coordinate start, int seed) {
+            this.day = String.format("%02d", day);
+            this.month = String.format("%02d", month);
+            this.year = Integer.toString(year);
+            this.start = start;
+            this.seed = seed;
+        }
+
+        @Override
+        public String toString() {
+            return day + "-" + month + "-" + year;
+        }
+
+    }
+
+    public static void main(String[] args) throws IOException {
+        try {
+            if (run(args) > 0) {
+                System.exit(1);
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Plans the dates given by args, as described above
+     *
+     * @param args
+     * @return the number of dates that failed
+     * @throws IOException if a cache couldn't be saved
+     */
+    static int run(String[] args) throws IOException {
+
+        // Parse input
+        List<Job> jobs;
+        int port;
+        Options options;
+        if (args[0].startsWith("--jobs=")) {
+            jobs = readJobs(args[0].substring("--jobs=".length()));
+            port = Integer.parseInt(args[1]);
+            options = Options.parse(args, 2);
+        } else {
+            var start = new Coordinate(Double.parseDouble(args[2]), Double.parseDouble(args[3]));
+            jobs = dateRange(LocalDate.parse(args[0]), LocalDate.parse(args[1]), start, Integer.parseInt(args[4]));
+            port = Integer.parseInt(args[5]);
+            options = Options.parse(args, 6);
+        }
+
+        // Get the NFZs once and build everything that only depends on them
+        VisibilityGraph visibilityGraph;
+        MapCache cache = null;
+        PathCache pathCache;
+        var metrics = new Metrics();
+        try {
+            if (options.isUseCache()) {
+                cache = new MapCache(Paths.get(Constants.CACHE_DIRECTORY), Constants.CACHE_TTL);
+                HttpRequests.setCache(cache);
+            }
+            var start = Metrics.start();
+            var NFZs = HttpRequests.noFlyZonesRequest(port);
+            metrics.stop(Metrics.Phase.HTTP_FETCH, start);
+            visibilityGraph = options.createVisibilityGraph(new NoFlyZoneIndex(NFZs), metrics);
+            pathCache = options.openPathCache();
+        } catch (IOException e) {
+            System.out.println("Fatal error: " + e.getMessage());
+            return jobs.size();
+        }
+
+        // Plan the dates on a pool of threads. Each date plans its seeds one at a
+        // time, as the pool already keeps the threads busy, and its shortest paths
+        // on its share of the cores.
+        var threads = Math.max(1, options.getThreads());
+        var settings = options.getSettings();
+        settings.setParallelism(Math.max(1, settings.getParallelism() / threads));
+        var executor = Executors.newFixedThreadPool(threads);
+        var tasks = new ArrayList<Callable<Void>>();
+        for (var job : jobs) {
+            tasks.add(() -> {
+                plan(job, port, visibilityGraph, options, metrics);
+                return null;
+            });
+        }
+
+        var failed = 0;
+        try {
+            var futures = executor.invokeAll(tasks);
+            for (var i = 0; i < jobs.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException e) {
+                    failed++;
+                    System.out.println("Failed to plan " + jobs.get(i) + ": " + e.getCause().getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed = jobs.size();
+        } finally {
+            executor.shutdown();
+            if (cache != null) {
+                cache.close();
+            }
+            if (pathCache != null) {
+                pathCache.close();
+            }
+        }
+
+        System.out.println("Planned " + (jobs.size() - failed) + " of " + jobs.size() + " dates.");
+
+        // write a summary of where the time went over all the dates
+        if (options.isWriteMetrics()) {
+            metrics.write(options.getOutput().resolve("metrics-batch.json").toString());
+        }
+        return failed;
+
+    }
+
+    /**
+     * Requests the Sensors for the job's date, plans the flight and writes the
+     * files
+     *
+     * @param job
+     * @param port
+     * @param visibilityGraph shared by every job
+     * @param options
+     * @param metrics         the metrics of the whole batch
+     * @throws IOException if the Sensors couldn't be requested or the files
+     *                     couldn't be written
+     */
+    private static void plan(Job job, int port, VisibilityGraph visibilityGraph, Options options,
+            Metrics metrics) throws IOException {
+
+        var start = Metrics.start();
+        var sensors = HttpRequests.sensorRequest(job.year, job.month, job.day, port);
+        metrics.stop(Metrics.Phase.HTTP_FETCH, start);
+        var startingPosition = new StartingPosition(job.start);
+
+        var seeds = new ArrayList<Integer>();
+        for (var i = 0; i < options.getNumSeeds(); i++) {
+            seeds.add(job.seed + i);
+        }
+        var planner = new Planner(startingPosition, sensors, visibilityGraph, options.getSettings(),
+                options.getSearch(), metrics);
+        var moves = planner.plan(seeds, 1);
+
+        start = Metrics.start();
+        FileWrite.writeFlight(moves, sensors, job.day, job.month, job.year, options.getOutput());
+        metrics.stop(Metrics.Phase.OUTPUT, start);
+
+    }
+
+    /**
+     * @param first
+     * @param last
+     * @param start
+     * @param seed
+     * @return a Job for every date from first to last inclusive
+     */
+    private static List<Job> dateRange(LocalDate first, LocalDate last, Coordinate start, int seed) {
+
+        var jobs = new ArrayList<Job>();
+        for (var date = first; !date.isAfter(last); date = date.plusDays(1)) {
+            jobs.add(new Job(date.getDayOfMonth(), date.getMonthValue(), date.getYear(), start, seed));
+        }
+        return jobs;
+
+    }
+
+    /**
+     * Reads the jobs from a file, one per line, ignoring blank lines
+     *
+     * @param filename
+     * @return list of Jobs
+     * @throws IOException
+     * @throws IllegalArgumentException if two jobs have the same date, as they
+     *                                  would write the same files
+     */
+    private static List<Job> readJobs(String filename) throws IOException {
+
+        var jobs = new ArrayList<Job>();
+        var dates = new HashSet<String>();
+        for (var line : Files.readAllLines(Paths.get(filename))) {
+            if (line.isBlank()) {
+                continue;
+            }
+            var fields = line.trim().split("\\s+");
+            var start = new Coordinate(Double.parseDouble(fields[3]), Double.parseDouble(fields[4]));
+            jobs.add(new Job(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]), Integer.parseInt(fields[2]),
+                    start, Integer.parseInt(fields[5])));
+            var date = jobs.get(jobs.size() - 1).toString();
+            if (!dates.add(date)) {
+                throw new IllegalArgumentException(filename + " lists " + date + " more than once");
+            }
+        }
+        return jobs;
+
+    }
+
+}
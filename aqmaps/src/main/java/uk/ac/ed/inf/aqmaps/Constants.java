@@ -21,10 +21,34 @@ public class Constants {
     public static final int MOVE_LIMIT = 150;
     //Number of iterations to run two-opt heuristic when finding a tour
     public static final int TWO_OPT_ITERATIONS = 100;
+    //Most nodes the exact optimizer solves with Held-Karp (its table takes 80 MB at 20 nodes)
+    public static final int HELD_KARP_MAX_NODES = 20;
+    //How long the exact optimizer runs branch and bound for on larger tours in milliseconds
+    public static final long BRANCH_AND_BOUND_TIME_LIMIT = 1000;
     //Initial Beam width when searching for a sequence of moves from one node to the next
     public static final int INITIAL_BEAM_WIDTH = 7;
+    //Most layers beam search tries before giving up on reaching the next node (a longer leg can't fit in a flight)
+    public static final int MAX_BEAM_LAYERS = MOVE_LIMIT;
     //Server address
     public static final String SERVER = "http://localhost";
+    //Seconds to wait for the server to respond to a request
+    public static final int REQUEST_TIMEOUT = 10;
+    //Seconds a PlanningServer plan may take before it is answered with an error
+    public static final int PLAN_TIMEOUT = 60;
+    //Maximum number of W3W lookups in flight at once
+    public static final int MAX_CONCURRENT_REQUESTS = 16;
+    //Directory of the W3W and NFZ cache
+    public static final String CACHE_DIRECTORY = ".aqmaps-cache";
+    //How long cached W3W locations and NFZs are used for (one week) in milliseconds
+    public static final long CACHE_TTL = 7L * 24 * 60 * 60 * 1000;
+    //File the distances between NFZ vertices are saved in
+    public static final String DISTANCE_ORACLE_FILE = CACHE_DIRECTORY + "/nfz-distances.bin";
+    //File the paths between blocked pairs of sensors are saved in
+    public static final String PATH_CACHE_FILE = CACHE_DIRECTORY + "/paths.bin";
+    //Most paths kept in the path cache
+    public static final int PATH_CACHE_SIZE = 100000;
+    //Number of plan requests PlanningServer queues before turning new ones away
+    public static final int MAX_QUEUED_PLANS = 64;
     
     //Coordinates of the confinement area
     public static final Coordinate[] CONFINEMENT_AREA = {
@@ -2,12 +2,13 @@ package uk.ac.ed.inf.aqmaps;
 
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
 
-import com.mapbox.geojson.Feature;
-import com.mapbox.geojson.FeatureCollection;
-
 import uk.ac.ed.inf.aqmaps.mapdetails.Sensor;
 import uk.ac.ed.inf.aqmaps.movegenerator.Move;
 
@@ -17,63 +18,89 @@ import uk.ac.ed.inf.aqmaps.movegenerator.Move;
 
 public class FileWrite {
 
+    /**
+     * Writes the Move log and GeoJson of the flight for the given date to the
+     * current directory
+     * 
+     * @param moves
+     * @param sensors
+     * @param day     two digits
+     * @param month   two digits
+     * @param year
+     * @throws IOException
+     */
+    public static void writeFlight(List<Move> moves, List<Sensor> sensors, String day, String month, String year)
+            throws IOException {
+        writeFlight(moves, sensors, day, month, year, Paths.get(""));
+    }
+
+    /**
+     * Writes the Move log and GeoJson of the flight for the given date
+     * 
+     * @param moves
+     * @param sensors
+     * @param day       two digits
+     * @param month     two digits
+     * @param year
+     * @param directory where the files are written
+     * @throws IOException
+     */
+    public static void writeFlight(List<Move> moves, List<Sensor> sensors, String day, String month, String year,
+            Path directory) throws IOException {
+
+        // write Move log
+        var filename = "flightpath-" + day + "-" + month + "-" + year + ".txt";
+        writeMoves(moves, directory.resolve(filename).toString());
+
+        // write GeoJson
+        filename = "readings-" + day + "-" + month + "-" + year + ".geojson";
+        createMap(moves, sensors, directory.resolve(filename).toString());
+
+    }
+
     /**
      * Writes a list of moves to a text file.
      * 
      * @param moves
      * @param filename
+     * @throws IOException
      */
-    public static void writeMoves(List<Move> moves, String filename) {
-
-        try {
-            var fw = new FileWriter(filename);
-            for (var i = 0; i < moves.size(); i++) {
-                fw.write(i + 1 + "," + moves.get(i).toString() + "\n");
-            }
-            fw.close();
-        } catch (IOException e) {
-            System.out.println("Failed to write to file.");
-            e.printStackTrace();
+    public static void writeMoves(List<Move> moves, String filename) throws IOException {
+
+        try (var fw = new FileWriter(filename)) {
+            writeMoves(moves, fw);
         }
 
     }
 
     /**
-     * Writes the Sensors and Moves to a GeoJson file
+     * Writes a list of moves in the same format as the text file
      * 
      * @param moves
-     * @param sensors
-     * @param filename
+     * @param out
+     * @throws IOException
      */
-    public static void createMap(List<Move> moves, List<Sensor> sensors, String filename) {
+    public static void writeMoves(List<Move> moves, Writer out) throws IOException {
 
-        var features = new ArrayList<Feature>();
-        for (var sensor : sensors) {
-            features.add(sensor.toGeoJson());
+        for (var i = 0; i < moves.size(); i++) {
+            out.write(i + 1 + "," + moves.get(i).toString() + "\n");
         }
 
-        features.add(Move.toGeoJson(moves));
-        var fc = FeatureCollection.fromFeatures(features);
-        FileWrite.writeGeoJson(fc, filename);
-
     }
 
-
     /**
-     * Writes a featureCollection to a GeoJson file.
+     * Writes the Sensors and Moves to a GeoJson file, streaming it through a
+     * buffered writer
      * 
-     * @param featureCollection
+     * @param moves
+     * @param sensors
      * @param filename
+     * @throws IOException
      */
-    private static void writeGeoJson(FeatureCollection featureCollection, String filename) {
-
-        try {
-            var fw = new FileWriter(filename);
-            fw.write(featureCollection.toJson());
-            fw.close();
-        } catch (IOException e) {
-            System.out.println("Failed to write to file.");
-            e.printStackTrace();
+    public static void createMap(List<Move> moves, List<Sensor> sensors, String filename) throws IOException {
+
+        try (var writer = Files.newBufferedWriter(Paths.get(filename), StandardCharsets.UTF_8)) {
+            GeoJsonWriter.write(moves, sensors, writer);
         }
 
     }
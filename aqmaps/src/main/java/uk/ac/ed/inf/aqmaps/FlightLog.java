@@ -0,0 +1,331 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import uk.ac.ed.inf.aqmaps.mapdetails.Coordinate;
+import uk.ac.ed.inf.aqmaps.movegenerator.Move;
+import uk.ac.ed.inf.aqmaps.movegenerator.MoveKernel;
+
+/**
+ * Reads and writes flight logs in a compact binary format, and converts them to
+ * and from the text format written by FileWrite.writeMoves.
+ *
+ * The file starts with a header: the magic number, the format version, the
+ * number of moves, a table of the W3W locations read during the flight (each
+ * stored once) and the starting position. Each move is then a flags byte, which
+ * also holds the angle divided by 10, followed by the index of the location
+ * read after the move (0 for no reading) as a varint.
+ *
+ * Positions are delta encoded: a move starts where the previous one ended, and
+ * ends a standard move at its angle from its start, so normally neither needs to
+ * be stored. Any position that doesn't follow this is stored in full, along
+ * with any angle that isn't a multiple of 10 from 0 to 350, so converting
+ * between the formats is lossless.
+ */
+public class FlightLog {
+
+    private static final int MAGIC = 0x41514C47;
+    private static final byte VERSION = 1;
+
+    // Low bits of the flags byte holding the angle / 10
+    private static final int ANGLE_MASK = 0x3F;
+    // Angle value meaning the angle follows as an int
+    private static final int EXPLICIT_ANGLE = 0x3F;
+    // The start of the move follows (it isn't the end of the previous move)
+    private static final int EXPLICIT_START = 0x40;
+    // The end of the move follows (it isn't a standard move from the start)
+    private static final int EXPLICIT_END = 0x80;
+
+    // Location of a move without a reading
+    private static final String NO_READING = "null";
+
+    /**
+     * Writes moves to a binary flight log, through a memory mapped buffer
+     *
+     * @param moves
+     * @param path
+     * @throws IOException
+     */
+    public static void write(List<Move> moves, Path path) throws IOException {
+
+        // Intern the locations
+        var table = new ArrayList<byte[]>();
+        var indices = new HashMap<String, Integer>();
+        for (var move : moves) {
+            var location = move.getW3Wlocation();
+            if (!location.equals(NO_READING) && !indices.containsKey(location)) {
+                indices.put(location, table.size() + 1);
+                table.add(location.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        // Work out the exact size so the whole file can be mapped at once
+        long size = 4 + 1 + 4 + 4;
+        for (var bytes : table) {
+            size += varintSize(bytes.length) + bytes.length;
+        }
+        size += 16;
+
+        Coordinate previous = moves.isEmpty() ? new Coordinate(0, 0) : moves.get(0).getStartingPosition();
+        var position = previous;
+        for (var move : moves) {
+            var flags = flags(move, position);
+            size += 1;
+            size += (flags & ANGLE_MASK) == EXPLICIT_ANGLE ? 4 : 0;
+            size += (flags & EXPLICIT_START) != 0 ? 16 : 0;
+            size += (flags & EXPLICIT_END) != 0 ? 16 : 0;
+            size += varintSize(indices.getOrDefault(move.getW3Wlocation(), 0));
+            position = move.getEndingPosition();
+        }
+
+        try (var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+            buffer.putInt(MAGIC);
+            buffer.put(VERSION);
+            buffer.putInt(moves.size());
+            buffer.putInt(table.size());
+            for (var bytes : table) {
+                putVarint(buffer, bytes.length);
+                buffer.put(bytes);
+            }
+            putCoordinate(buffer, previous);
+
+            position = previous;
+            for (var move : moves) {
+                var flags = flags(move, position);
+                buffer.put((byte) flags);
+                if ((flags & ANGLE_MASK) == EXPLICIT_ANGLE) {
+                    buffer.putInt(move.getAngle());
+                }
+                if ((flags & EXPLICIT_START) != 0) {
+                    putCoordinate(buffer, move.getStartingPosition());
+                }
+                if ((flags & EXPLICIT_END) != 0) {
+                    putCoordinate(buffer, move.getEndingPosition());
+                }
+                putVarint(buffer, indices.getOrDefault(move.getW3Wlocation(), 0));
+                position = move.getEndingPosition();
+            }
+
+            buffer.force();
+
+        }
+
+    }
+
+    /**
+     * Reads the moves from a binary flight log, through a memory mapped buffer
+     *
+     * @param path
+     * @return list of Moves
+     * @throws IOException if the file isn't a flight log or is damaged
+     */
+    public static List<Move> read(Path path) throws IOException {
+
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.remaining() < 9 || buffer.getInt() != MAGIC || buffer.get() != VERSION) {
+                throw new IOException("Not a flight log: " + path);
+            }
+
+            // Each move takes at least its flags byte and a one byte index
+            var numMoves = checkCount(buffer, buffer.getInt(), 2, path);
+            var tableSize = checkCount(buffer, buffer.getInt(), 1, path);
+            var table = new String[tableSize + 1];
+            table[0] = NO_READING;
+            for (var i = 1; i <= tableSize; i++) {
+                var bytes = new byte[checkCount(buffer, getVarint(buffer), 1, path)];
+                buffer.get(bytes);
+                table[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            var position = getCoordinate(buffer);
+            var moves = new ArrayList<Move>(numMoves);
+            for (var i = 0; i < numMoves; i++) {
+
+                var flags = buffer.get() & 0xFF;
+                var angle = (flags & ANGLE_MASK) == EXPLICIT_ANGLE ? buffer.getInt() : (flags & ANGLE_MASK) * 10;
+                var start = (flags & EXPLICIT_START) != 0 ? getCoordinate(buffer) : position;
+                var end = (flags & EXPLICIT_END) != 0 ? getCoordinate(buffer) : standardEnd(start, angle);
+
+                var index = getVarint(buffer);
+                if (index < 0 || index >= table.length) {
+                    throw new IOException("Damaged flight log " + path);
+                }
+                var move = new Move(angle, start, end);
+                move.setW3Wlocation(table[index]);
+                moves.add(move);
+                position = end;
+            }
+
+            return moves;
+
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Damaged flight log " + path, e);
+        }
+
+    }
+
+    /**
+     * Checks a number of items read from a flight log
+     *
+     * @param buffer   the rest of the flight log
+     * @param count    the number of items
+     * @param itemSize the least number of bytes each item takes
+     * @param path
+     * @return count
+     * @throws IOException if the number is negative or there aren't enough bytes
+     *                     left for that many items
+     */
+    private static int checkCount(ByteBuffer buffer, int count, int itemSize, Path path) throws IOException {
+        if (count < 0 || (long) count * itemSize > buffer.remaining()) {
+            throw new IOException("Damaged flight log " + path);
+        }
+        return count;
+    }
+
+    /**
+     * Reads moves from the text format written by FileWrite.writeMoves, which
+     * uses the default charset
+     *
+     * @param path
+     * @return list of Moves
+     * @throws IOException
+     */
+    public static List<Move> readText(Path path) throws IOException {
+
+        var moves = new ArrayList<Move>();
+        for (var line : Files.readAllLines(path, Charset.defaultCharset())) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            var fields = line.split(",");
+            var start = new Coordinate(Double.parseDouble(fields[2]), Double.parseDouble(fields[1]));
+            var end = new Coordinate(Double.parseDouble(fields[5]), Double.parseDouble(fields[4]));
+            var move = new Move(Integer.parseInt(fields[3]), start, end);
+            move.setW3Wlocation(fields[6]);
+            moves.add(move);
+        }
+        return moves;
+
+    }
+
+    /**
+     * Converts a text flight log to a binary one, or back. Usage: FlightLog
+     * to-binary|to-text input output
+     *
+     * @param args
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+
+        if (args.length < 3) {
+            System.out.println("Usage: FlightLog to-binary|to-text input output");
+            return;
+        }
+        var input = Paths.get(args[1]);
+        var output = args[2];
+        if (args[0].equals("to-binary")) {
+            write(readText(input), Paths.get(output));
+        } else if (args[0].equals("to-text")) {
+            FileWrite.writeMoves(read(input), output);
+        } else {
+            System.out.println("Usage: FlightLog to-binary|to-text input output");
+        }
+
+    }
+
+    /**
+     * @return the flags byte for move, given where the previous move ended
+     */
+    private static int flags(Move move, Coordinate position) {
+
+        var angle = move.getAngle();
+        var flags = angle >= 0 && angle < 360 && angle % 10 == 0 ? angle / 10 : EXPLICIT_ANGLE;
+
+        if (!same(move.getStartingPosition(), position)) {
+            flags |= EXPLICIT_START;
+        }
+        if ((flags & ANGLE_MASK) == EXPLICIT_ANGLE
+                || !same(move.getEndingPosition(), standardEnd(move.getStartingPosition(), angle))) {
+            flags |= EXPLICIT_END;
+        }
+        return flags;
+
+    }
+
+    /**
+     * @return where a standard move at angle from start ends. angle must be a
+     *         multiple of 10 from 0 to 350.
+     */
+    private static Coordinate standardEnd(Coordinate start, int angle) {
+        return new Coordinate(MoveKernel.endLatitude(start.getLatitude(), angle),
+                MoveKernel.endLongitude(start.getLongitude(), angle));
+    }
+
+    /**
+     * @return true if the Coordinates have exactly the same bits, so that
+     *         replacing one with the other is lossless
+     */
+    private static boolean same(Coordinate c1, Coordinate c2) {
+        return Double.doubleToLongBits(c1.getLatitude()) == Double.doubleToLongBits(c2.getLatitude())
+                && Double.doubleToLongBits(c1.getLongitude()) == Double.doubleToLongBits(c2.getLongitude());
+    }
+
+    private static void putCoordinate(ByteBuffer buffer, Coordinate c) {
+        buffer.putDouble(c.getLongitude());
+        buffer.putDouble(c.getLatitude());
+    }
+
+    private static Coordinate getCoordinate(ByteBuffer buffer) {
+        var lng = buffer.getDouble();
+        var lat = buffer.getDouble();
+        return new Coordinate(lat, lng);
+    }
+
+    private static int varintSize(int value) {
+        var size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    private static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static int getVarint(ByteBuffer buffer) {
+        var value = 0;
+        for (var shift = 0;; shift += 7) {
+            var b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,109 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+import com.google.gson.stream.JsonWriter;
+import com.mapbox.geojson.utils.GeoJsonUtils;
+
+import uk.ac.ed.inf.aqmaps.mapdetails.Coordinate;
+import uk.ac.ed.inf.aqmaps.mapdetails.Sensor;
+import uk.ac.ed.inf.aqmaps.movegenerator.Move;
+
+/**
+ * Writes the readings map straight to a Writer, without building the Mapbox
+ * FeatureCollection or the whole JSON String first, so memory use doesn't grow
+ * with the length of the flight.
+ *
+ * The output is byte for byte the same as FeatureCollection.toJson() on the
+ * Features from Sensor.toGeoJson() and Move.toGeoJson(): the same field order,
+ * coordinates rounded to 7 decimal places by GeoJsonUtils.trim, and Gson's
+ * number formatting and HTML safe string escaping.
+ */
+public class GeoJsonWriter {
+
+    /**
+     * Writes a FeatureCollection of the Sensors followed by a LineString of the
+     * moves
+     *
+     * @param moves   at least one Move
+     * @param sensors
+     * @param out     left open, but flushed
+     * @throws IOException
+     */
+    public static void write(List<Move> moves, List<Sensor> sensors, Writer out) throws IOException {
+
+        var json = new JsonWriter(out);
+        // Match the settings Gson.toJson uses
+        json.setLenient(true);
+        json.setHtmlSafe(true);
+        json.setSerializeNulls(false);
+
+        json.beginObject();
+        json.name("type").value("FeatureCollection");
+        json.name("features").beginArray();
+
+        for (var sensor : sensors) {
+            writeSensor(json, sensor);
+        }
+        writeMoves(json, moves);
+
+        json.endArray();
+        json.endObject();
+        json.flush();
+
+    }
+
+    private static void writeSensor(JsonWriter json, Sensor sensor) throws IOException {
+
+        json.beginObject();
+        json.name("type").value("Feature");
+
+        json.name("geometry").beginObject();
+        json.name("type").value("Point");
+        json.name("coordinates");
+        writeCoordinate(json, sensor.getCoordinate());
+        json.endObject();
+
+        var rgbString = sensor.getRgbString();
+        json.name("properties").beginObject();
+        json.name("location").value(sensor.getLocation());
+        json.name("rgb-string").value(rgbString);
+        json.name("marker-color").value(rgbString);
+        json.name("marker-symbol").value(sensor.getMarkerSymbol());
+        json.endObject();
+
+        json.endObject();
+
+    }
+
+    private static void writeMoves(JsonWriter json, List<Move> moves) throws IOException {
+
+        json.beginObject();
+        json.name("type").value("Feature");
+
+        json.name("geometry").beginObject();
+        json.name("type").value("LineString");
+        json.name("coordinates").beginArray();
+        writeCoordinate(json, moves.get(0).getStartingPosition());
+        for (var move : moves) {
+            writeCoordinate(json, move.getEndingPosition());
+        }
+        json.endArray();
+        json.endObject();
+
+        json.name("properties").beginObject().endObject();
+
+        json.endObject();
+
+    }
+
+    private static void writeCoordinate(JsonWriter json, Coordinate coordinate) throws IOException {
+        json.beginArray();
+        json.value(GeoJsonUtils.trim(coordinate.getLongitude()));
+        json.value(GeoJsonUtils.trim(coordinate.getLatitude()));
+        json.endArray();
+    }
+
+}
@@ -0,0 +1,181 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Counters and phase timers for a planning run.
+ *
+ * A new Metrics is made for each run and passed to the classes doing the work,
+ * so runs in the same JVM are counted separately. Everything is recorded in
+ * LongAdders, so the threads of one run can record without contending. Phase
+ * times are summed over every thread that ran the phase, so phases run in
+ * parallel can add up to more than the wall clock time. Hot loops count into a
+ * local variable and add it once.
+ */
+public class Metrics {
+
+    /**
+     * Timed phases of a run
+     */
+    public enum Phase {
+        HTTP_FETCH("httpFetch"),
+        VISIBILITY_GRAPH("visibilityGraph"),
+        SHORTEST_PATHS("shortestPaths"),
+        TOUR_OPTIMIZATION("tourOptimization"),
+        MOVE_GENERATION("moveGeneration"),
+        OUTPUT("output");
+
+        private String key;
+
+        Phase(String key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * Counted events
+     */
+    public enum Counter {
+        LINES_INTERSECT("linesIntersect"),
+        VISIBILITY_GRAPHS_BUILT("visibilityGraphsBuilt"),
+        BEAM_NODES_EXPANDED("beamNodesExpanded"),
+        A_STAR_STATES_EXPANDED("aStarStatesExpanded"),
+        REMOVE_MOST_ISOLATED("removeMostIsolated"),
+        PATH_CACHE_HITS("pathCacheHits"),
+        PATH_CACHE_MISSES("pathCacheMisses");
+
+        private String key;
+
+        Counter(String key) {
+            this.key = key;
+        }
+    }
+
+    private LongAdder[] nanos = adders(Phase.values().length);
+    private LongAdder[] calls = adders(Phase.values().length);
+    private LongAdder[] counts = adders(Counter.values().length);
+
+    private static LongAdder[] adders(int n) {
+        var adders = new LongAdder[n];
+        for (var i = 0; i < n; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    /**
+     * @return the time to pass to stop when the phase ends
+     */
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records one run of a phase
+     *
+     * @param phase
+     * @param start the value returned by start() when the phase began
+     */
+    public void stop(Phase phase, long start) {
+        nanos[phase.ordinal()].add(System.nanoTime() - start);
+        calls[phase.ordinal()].increment();
+    }
+
+    public void increment(Counter counter) {
+        counts[counter.ordinal()].increment();
+    }
+
+    public void add(Counter counter, long amount) {
+        counts[counter.ordinal()].add(amount);
+    }
+
+    /**
+     * @param phase
+     * @return the total time spent in the phase in nanoseconds
+     */
+    public long getNanos(Phase phase) {
+        return nanos[phase.ordinal()].sum();
+    }
+
+    /**
+     * @param phase
+     * @return the number of times the phase was run
+     */
+    public long getCalls(Phase phase) {
+        return calls[phase.ordinal()].sum();
+    }
+
+    public long getCount(Counter counter) {
+        return counts[counter.ordinal()].sum();
+    }
+
+    /**
+     * Sets every counter and timer back to zero
+     */
+    public void reset() {
+        for (var i = 0; i < nanos.length; i++) {
+            nanos[i].reset();
+            calls[i].reset();
+        }
+        for (var adder : counts) {
+            adder.reset();
+        }
+    }
+
+    /**
+     * Writes a JSON summary of the phases (milliseconds and number of runs) and
+     * counters
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void write(Writer out) throws IOException {
+
+        var json = new JsonWriter(out);
+        json.setIndent("  ");
+        json.beginObject();
+
+        json.name("phases").beginObject();
+        for (var phase : Phase.values()) {
+            json.name(phase.key).beginObject();
+            json.name("ms").value(getNanos(phase) / 1e6);
+            json.name("calls").value(getCalls(phase));
+            json.endObject();
+        }
+        json.endObject();
+
+        json.name("counters").beginObject();
+        for (var counter : Counter.values()) {
+            json.name(counter.key).value(getCount(counter));
+        }
+        json.endObject();
+
+        json.endObject();
+        json.flush();
+
+    }
+
+    /**
+     * Writes the JSON summary to a file
+     *
+     * @param filename
+     */
+    public void write(String filename) {
+
+        try (var writer = Files.newBufferedWriter(Paths.get(filename), StandardCharsets.UTF_8)) {
+            write(writer);
+        } catch (IOException e) {
+            System.out.println("Failed to write to file.");
+            e.printStackTrace();
+        }
+
+    }
+
+}
@@ -0,0 +1,194 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import uk.ac.ed.inf.aqmaps.mapdetails.NoFlyZoneIndex;
+import uk.ac.ed.inf.aqmaps.movegenerator.MoveGenerator;
+import uk.ac.ed.inf.aqmaps.tourfinder.DistanceOracle;
+import uk.ac.ed.inf.aqmaps.tourfinder.PathCache;
+import uk.ac.ed.inf.aqmaps.tourfinder.TourFinderSettings;
+import uk.ac.ed.inf.aqmaps.tourfinder.VisibilityGraph;
+
+/**
+ * The optional flags given after the required arguments of App and BatchApp
+ */
+public class Options {
+
+    // The flags parse accepts, shown when it is given one it doesn't know
+    public static final String USAGE = "Flags: --parallel --matrix --neighbor-list --exact --moves --seeds=N "
+            + "--a-star --cache --threads=N --output=DIR --metrics --sweep --path-trees --oracle --path-cache";
+
+    private TourFinderSettings settings;
+    // Number of consecutive seeds to try, starting at the given seed
+    private int numSeeds;
+    private MoveGenerator.Search search;
+    // Whether to cache W3W locations and NFZs between runs
+    private boolean useCache;
+    // Number of flights planned at once by BatchApp
+    private int threads;
+    // Directory App and BatchApp write the flights and metrics to
+    private Path output;
+    // Whether to write a JSON summary of the run's timings and counters
+    private boolean writeMetrics;
+    // Whether to route round the NFZs with a saved DistanceOracle
+    private boolean useDistanceOracle;
+    // Whether to keep the paths between blocked pairs between runs
+    private boolean usePathCache;
+
+    public Options() {
+        this.settings = new TourFinderSettings();
+        this.numSeeds = 1;
+        this.search = MoveGenerator.Search.BEAM;
+        this.useCache = false;
+        this.threads = Runtime.getRuntime().availableProcessors();
+        this.output = Paths.get("");
+        this.writeMetrics = false;
+        this.useDistanceOracle = false;
+        this.usePathCache = false;
+    }
+
+    /**
+     * Reads the flags in args, starting at index from
+     *
+     * @param args
+     * @param from
+     * @return the Options
+     * @throws IllegalArgumentException if a flag isn't one of USAGE, so that a
+     *                                  mistyped flag doesn't quietly run the
+     *                                  defaults
+     */
+    public static Options parse(String[] args, int from) {
+
+        var options = new Options();
+        for (var i = from; i < args.length; i++) {
+            if (args[i].equals("--parallel")) {
+                options.settings.setParallel(true);
+            } else if (args[i].equals("--matrix")) {
+                options.settings.setOptimizer(TourFinderSettings.Optimizer.MATRIX);
+            } else if (args[i].equals("--neighbor-list")) {
+                options.settings.setOptimizer(TourFinderSettings.Optimizer.NEIGHBOR_LIST);
+            } else if (args[i].equals("--exact")) {
+                options.settings.setOptimizer(TourFinderSettings.Optimizer.EXACT);
+            } else if (args[i].equals("--moves")) {
+                options.settings.setObjective(TourFinderSettings.Objective.MOVES);
+            } else if (args[i].startsWith("--seeds=")) {
+                options.numSeeds = Integer.parseInt(args[i].substring("--seeds=".length()));
+            } else if (args[i].equals("--a-star")) {
+                options.search = MoveGenerator.Search.A_STAR;
+            } else if (args[i].equals("--cache")) {
+                options.useCache = true;
+            } else if (args[i].startsWith("--threads=")) {
+                options.threads = Integer.parseInt(args[i].substring("--threads=".length()));
+            } else if (args[i].startsWith("--output=")) {
+                options.output = Paths.get(args[i].substring("--output=".length()));
+            } else if (args[i].equals("--metrics")) {
+                options.writeMetrics = true;
+            } else if (args[i].equals("--sweep")) {
+                options.settings.setVisibilityGraphBuilder(VisibilityGraph.Builder.SWEEP);
+            } else if (args[i].equals("--path-trees")) {
+                options.settings.setShortestPathTrees(true);
+            } else if (args[i].equals("--oracle")) {
+                options.useDistanceOracle = true;
+            } else if (args[i].equals("--path-cache")) {
+                options.usePathCache = true;
+            } else {
+                throw new IllegalArgumentException("Unknown flag " + args[i] + "\n" + USAGE);
+            }
+        }
+        return options;
+
+    }
+
+    public TourFinderSettings getSettings() {
+        return settings;
+    }
+
+    public int getNumSeeds() {
+        return numSeeds;
+    }
+
+    public MoveGenerator.Search getSearch() {
+        return search;
+    }
+
+    public boolean isUseCache() {
+        return useCache;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public Path getOutput() {
+        return output;
+    }
+
+    public boolean isWriteMetrics() {
+        return writeMetrics;
+    }
+
+    public boolean isUseDistanceOracle() {
+        return useDistanceOracle;
+    }
+
+    public boolean isUsePathCache() {
+        return usePathCache;
+    }
+
+    /**
+     * Opens the PathCache in PATH_CACHE_FILE if --path-cache was given, and sets
+     * it in the settings
+     *
+     * @return the PathCache, which must be closed to save it, or null
+     * @throws IOException
+     */
+    public PathCache openPathCache() throws IOException {
+
+        if (!usePathCache) {
+            return null;
+        }
+        var pathCache = new PathCache(Paths.get(Constants.PATH_CACHE_FILE), Constants.PATH_CACHE_SIZE);
+        settings.setPathCache(pathCache);
+        return pathCache;
+
+    }
+
+    /**
+     * Builds the VisibilityGraph the flags ask for. With --oracle, its
+     * DistanceOracle is loaded from DISTANCE_ORACLE_FILE, or built and saved there
+     * if the file is missing or for other NFZs. If there are too many NFZ
+     * vertices for the DistanceOracle, the graph is searched instead.
+     *
+     * @param noFlyZoneIndex
+     * @return the VisibilityGraph
+     */
+    public VisibilityGraph createVisibilityGraph(NoFlyZoneIndex noFlyZoneIndex) {
+        return createVisibilityGraph(noFlyZoneIndex, new Metrics());
+    }
+
+    /**
+     * Same as createVisibilityGraph(noFlyZoneIndex), timing the build in metrics
+     *
+     * @param noFlyZoneIndex
+     * @param metrics
+     * @return the VisibilityGraph
+     */
+    public VisibilityGraph createVisibilityGraph(NoFlyZoneIndex noFlyZoneIndex, Metrics metrics) {
+
+        var visibilityGraph = new VisibilityGraph(noFlyZoneIndex, settings.getVisibilityGraphBuilder(), metrics);
+        if (useDistanceOracle) {
+            var file = Paths.get(Constants.DISTANCE_ORACLE_FILE);
+            try {
+                visibilityGraph.setDistanceOracle(DistanceOracle.loadOrBuild(file, visibilityGraph));
+            } catch (IllegalArgumentException e) {
+                // The graph is searched instead
+                System.out.println(e.getMessage());
+            }
+        }
+        return visibilityGraph;
+
+    }
+
+}
@@ -0,0 +1,210 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import uk.ac.ed.inf.aqmaps.mapdetails.NoFlyZoneIndex;
+import uk.ac.ed.inf.aqmaps.mapdetails.Node;
+import uk.ac.ed.inf.aqmaps.mapdetails.Sensor;
+import uk.ac.ed.inf.aqmaps.mapdetails.StartingPosition;
+import uk.ac.ed.inf.aqmaps.movegenerator.Move;
+import uk.ac.ed.inf.aqmaps.movegenerator.MoveGenerator;
+import uk.ac.ed.inf.aqmaps.tourfinder.TourFinder;
+import uk.ac.ed.inf.aqmaps.tourfinder.TourFinderSettings;
+import uk.ac.ed.inf.aqmaps.tourfinder.VisibilityGraph;
+
+/**
+ * Plans a flight: finds a tour, generates its moves, and removes sensors until
+ * the moves fit within the move limit.
+ */
+public class Planner {
+
+    private StartingPosition startingPosition;
+    private List<Sensor> sensors;
+    private NoFlyZoneIndex noFlyZoneIndex;
+    private VisibilityGraph visibilityGraph;
+    private TourFinderSettings settings;
+    private MoveGenerator.Search search;
+    private Metrics metrics;
+    // Longest a plan may take in milliseconds, or 0 for no limit
+    private long timeLimit;
+
+    public Planner(StartingPosition startingPosition, List<Sensor> sensors, NoFlyZoneIndex noFlyZoneIndex,
+            TourFinderSettings settings) {
+        this(startingPosition, sensors, noFlyZoneIndex, settings, MoveGenerator.Search.BEAM);
+    }
+
+    public Planner(StartingPosition startingPosition, List<Sensor> sensors, NoFlyZoneIndex noFlyZoneIndex,
+            TourFinderSettings settings, MoveGenerator.Search search) {
+        this(startingPosition, sensors, new VisibilityGraph(noFlyZoneIndex, settings.getVisibilityGraphBuilder()),
+                settings, search);
+    }
+
+    /**
+     * @param startingPosition
+     * @param sensors
+     * @param visibilityGraph  a prebuilt VisibilityGraph, which can be shared by
+     *                         Planners for different dates
+     * @param settings
+     * @param search
+     */
+    public Planner(StartingPosition startingPosition, List<Sensor> sensors, VisibilityGraph visibilityGraph,
+            TourFinderSettings settings, MoveGenerator.Search search) {
+        this(startingPosition, sensors, visibilityGraph, settings, search, new Metrics());
+    }
+
+    /**
+     * @param startingPosition
+     * @param sensors
+     * @param visibilityGraph  a prebuilt VisibilityGraph, which can be shared by
+     *                         Planners for different dates
+     * @param settings
+     * @param search
+     * @param metrics          where the plans are timed and counted, so plans
+     *                         running at the same time for different requests
+     *                         can each have their own
+     */
+    public Planner(StartingPosition startingPosition, List<Sensor> sensors, VisibilityGraph visibilityGraph,
+            TourFinderSettings settings, MoveGenerator.Search search, Metrics metrics) {
+        this.startingPosition = startingPosition;
+        this.sensors = sensors;
+        this.noFlyZoneIndex = visibilityGraph.getNoFlyZoneIndex();
+        this.visibilityGraph = visibilityGraph;
+        this.settings = settings;
+        this.search = search;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param timeLimit longest a plan may take in milliseconds, or 0 for no limit.
+     *                  The flights being planned when it runs out are interrupted
+     *                  and stop at the end of their current leg.
+     */
+    public void setTimeLimit(long timeLimit) {
+        this.timeLimit = timeLimit;
+    }
+
+    /**
+     * Plans a flight using a single seed. The visited field of the Sensors is set
+     * to whether the flight reads them.
+     *
+     * @param seed
+     * @return the moves of the flight
+     */
+    public List<Move> plan(int seed) {
+        var seeds = new ArrayList<Integer>();
+        seeds.add(seed);
+        return plan(seeds, 1);
+    }
+
+    /**
+     * Plans a flight with every seed and keeps the one with the fewest moves.
+     *
+     * The shortest paths do not depend on the seed, and neither does which sensor
+     * is removed when a flight is too long, so all seeds share one TourFinder.
+     * Each round finds a tour and its moves for every seed on a pool of threads.
+     * If none of them fit within the move limit a sensor is removed and the next
+     * round starts. Ties are broken by the order of the seeds, so the result only
+     * depends on the seeds given. The visited field of the Sensors is set to
+     * whether the chosen flight reads them.
+     *
+     * @param seeds   seeds for the tour optimizer (at least one)
+     * @param threads number of flights to plan at once
+     * @return the moves of the chosen flight
+     * @throws IllegalStateException if a flight can't be planned or the time
+     *                               limit runs out
+     */
+    public List<Move> plan(List<Integer> seeds, int threads) {
+
+        var deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeLimit);
+
+        var tourFinder = new TourFinder(startingPosition, sensors, visibilityGraph, seeds.get(0), settings,
+                metrics);
+        // Sensors still in the tour
+        var remaining = sensors.size();
+
+        var executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, seeds.size())));
+        try {
+
+            while (true) {
+
+                // Plan every seed. The MoveGenerators leave the shared Sensors alone.
+                var tasks = new ArrayList<Callable<MoveGenerator>>();
+                for (var seed : seeds) {
+                    tasks.add(() -> {
+                        List<Node> tour = tourFinder.findTour(seed);
+                        return new MoveGenerator(tour, noFlyZoneIndex, false, search, metrics);
+                    });
+                }
+
+                List<Future<MoveGenerator>> futures;
+                if (timeLimit > 0) {
+                    futures = executor.invokeAll(tasks, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                } else {
+                    futures = executor.invokeAll(tasks);
+                }
+
+                MoveGenerator best = null;
+                for (var future : futures) {
+                    if (future.isCancelled()) {
+                        throw new IllegalStateException("Planning took longer than " + timeLimit + " ms");
+                    }
+                    var moveGen = future.get();
+                    if (best == null || moveGen.getMoves().size() < best.getMoves().size()) {
+                        best = moveGen;
+                    }
+                }
+
+                // If number of moves is too large, remove a sensor and try again
+                if (best.getMoves().size() <= Constants.MOVE_LIMIT) {
+                    markVisited(best.getReadSensors());
+                    return best.getMoves();
+                }
+
+                var event = new SensorRemovalEvent();
+                event.begin();
+                var removed = tourFinder.removeMostIsolated();
+                remaining--;
+                event.end();
+                if (event.shouldCommit()) {
+                    event.sensor = removed instanceof Sensor ? ((Sensor) removed).getLocation() : null;
+                    event.moves = best.getMoves().size();
+                    event.remainingSensors = remaining;
+                    event.commit();
+                }
+
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while planning", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Planning failed: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+
+    }
+
+    /**
+     * Sets the visited field of every Sensor to whether it is in readSensors
+     *
+     * @param readSensors
+     */
+    private void markVisited(List<Sensor> readSensors) {
+
+        for (var sensor : sensors) {
+            sensor.setVisited(false);
+        }
+        for (var sensor : readSensors) {
+            sensor.setVisited(true);
+        }
+
+    }
+
+}
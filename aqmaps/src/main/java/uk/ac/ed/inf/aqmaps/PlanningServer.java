@@ -0,0 +1,340 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.awt.geom.Path2D;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import uk.ac.ed.inf.aqmaps.mapdetails.Coordinate;
+import uk.ac.ed.inf.aqmaps.mapdetails.HttpRequests;
+import uk.ac.ed.inf.aqmaps.mapdetails.MapCache;
+import uk.ac.ed.inf.aqmaps.mapdetails.NoFlyZoneIndex;
+import uk.ac.ed.inf.aqmaps.mapdetails.StartingPosition;
+import uk.ac.ed.inf.aqmaps.tourfinder.PathCache;
+import uk.ac.ed.inf.aqmaps.tourfinder.VisibilityGraph;
+
+/**
+ * Plans flights over HTTP, so repeated plans don't pay for starting a new JVM.
+ *
+ * Usage is
+ *
+ * PlanningServer listen-port port [flags]
+ *
+ * where port is the webserver's port and the flags are the same as for App.
+ * --threads=N sets how many plans run at once.
+ *
+ * A plan is requested with
+ *
+ * GET /plan?date=yyyy-mm-dd&amp;lat=latitude&amp;lng=longitude&amp;seed=seed
+ *
+ * and the response is a JSON object holding the flightpath text and the
+ * readings GeoJSON, and with --metrics the timings and counters of that plan.
+ * The NFZs are requested once at startup, and their
+ * NoFlyZoneIndex and VisibilityGraph are shared by every plan. W3W locations
+ * are kept in a MapCache for as long as the server runs.
+ *
+ * Plans run on a fixed pool of threads with a bounded queue. When the queue is
+ * full, requests are answered with 503 straight away. Requests with a starting
+ * position outside the confinement area or inside a NFZ are answered with 400,
+ * and plans that take longer than PLAN_TIMEOUT seconds with 500.
+ */
+public class PlanningServer {
+
+    // The confinement area as a shape, only ever read so shared by every request
+    private static final Path2D CONFINEMENT_AREA = confinementArea();
+
+    private HttpServer server;
+    private ThreadPoolExecutor executor;
+    private VisibilityGraph visibilityGraph;
+    private Options options;
+    private int port;
+    // Longest a plan may take in milliseconds, read by the executor's threads
+    private volatile long planTimeLimit = Constants.PLAN_TIMEOUT * 1000L;
+
+    /**
+     * Binds the server. It starts taking requests once start is called.
+     *
+     * @param listenPort      port to listen on, or 0 for any free port
+     * @param port            the webserver's port
+     * @param visibilityGraph shared by every plan
+     * @param options
+     * @throws IOException if the port can't be bound
+     */
+    public PlanningServer(int listenPort, int port, VisibilityGraph visibilityGraph, Options options)
+            throws IOException {
+
+        this.port = port;
+        this.visibilityGraph = visibilityGraph;
+        this.options = options;
+
+        var threads = Math.max(1, options.getThreads());
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(Constants.MAX_QUEUED_PLANS));
+
+        // Requests are accepted on the server's own thread and handed to the executor
+        this.server = HttpServer.create(new InetSocketAddress(listenPort), 0);
+        this.server.createContext("/plan", this::handlePlan);
+
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops taking requests and waits for the running plans to finish
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Constants.REQUEST_TIMEOUT, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @param planTimeLimit longest a plan may take in milliseconds, PLAN_TIMEOUT
+     *                      seconds by default
+     */
+    public void setPlanTimeLimit(long planTimeLimit) {
+        this.planTimeLimit = planTimeLimit;
+    }
+
+    /**
+     * @return the port the server is listening on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Queues a plan request, or turns it away if the queue is full
+     *
+     * @param exchange
+     */
+    private void handlePlan(HttpExchange exchange) throws IOException {
+
+        if (!exchange.getRequestMethod().equals("GET")) {
+            respond(exchange, 405, "Only GET is supported");
+            return;
+        }
+
+        try {
+            executor.execute(() -> plan(exchange));
+        } catch (RejectedExecutionException e) {
+            respond(exchange, 503, "Too many plans queued");
+        }
+
+    }
+
+    /**
+     * Plans the flight for a request and sends it back
+     *
+     * @param exchange
+     */
+    private void plan(HttpExchange exchange) {
+
+        try {
+
+            // Parse the request
+            LocalDate date;
+            Coordinate start;
+            int seed;
+            try {
+                var query = parseQuery(exchange.getRequestURI().getRawQuery());
+                date = LocalDate.parse(query.get("date"));
+                start = new Coordinate(Double.parseDouble(query.get("lat")), Double.parseDouble(query.get("lng")));
+                seed = Integer.parseInt(query.get("seed"));
+            } catch (RuntimeException e) {
+                respond(exchange, 400, "Expected date=yyyy-mm-dd, lat, lng and seed");
+                return;
+            }
+            if (!insideConfinementArea(start) || visibilityGraph.getNoFlyZoneIndex().contains(start)) {
+                respond(exchange, 400, "The start must be inside the confinement area and outside the NFZs");
+                return;
+            }
+
+            var day = String.format("%02d", date.getDayOfMonth());
+            var month = String.format("%02d", date.getMonthValue());
+            var year = String.valueOf(date.getYear());
+
+            // Get the Sensors for the date. Each request is timed on its own, as
+            // other plans may be running at the same time.
+            var metrics = new Metrics();
+            var fetchStart = Metrics.start();
+            var sensors = HttpRequests.sensorRequest(year, month, day, port);
+            metrics.stop(Metrics.Phase.HTTP_FETCH, fetchStart);
+
+            // Plan the flight
+            var seeds = new ArrayList<Integer>();
+            for (var i = 0; i < options.getNumSeeds(); i++) {
+                seeds.add(seed + i);
+            }
+            var planner = new Planner(new StartingPosition(start), sensors, visibilityGraph, options.getSettings(),
+                    options.getSearch(), metrics);
+            planner.setTimeLimit(planTimeLimit);
+            var moves = planner.plan(seeds, 1);
+
+            // Write the Move log and GeoJson into the response
+            var outputStart = Metrics.start();
+            var flightpath = new StringWriter();
+            FileWrite.writeMoves(moves, flightpath);
+            var readings = new StringWriter();
+            GeoJsonWriter.write(moves, sensors, readings);
+
+            var body = new StringWriter();
+            var json = new JsonWriter(body);
+            json.beginObject();
+            json.name("date").value(date.toString());
+            json.name("moves").value(moves.size());
+            json.name("flightpath").value(flightpath.toString());
+            json.name("readings").jsonValue(readings.toString());
+            if (options.isWriteMetrics()) {
+                metrics.stop(Metrics.Phase.OUTPUT, outputStart);
+                var summary = new StringWriter();
+                metrics.write(summary);
+                json.name("metrics").jsonValue(summary.toString());
+            }
+            json.endObject();
+            json.flush();
+
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            send(exchange, 200, body.toString());
+
+        } catch (IOException e) {
+            respond(exchange, 502, e.getMessage());
+        } catch (RuntimeException e) {
+            respond(exchange, 500, "Planning failed: " + e.getMessage());
+        }
+
+    }
+
+    /**
+     * @param p a Coordinate
+     * @return true if p lies inside the confinement area
+     */
+    private static boolean insideConfinementArea(Coordinate p) {
+        return CONFINEMENT_AREA.contains(p.getLongitude(), p.getLatitude());
+    }
+
+    /**
+     * @return the polygon of Constants.CONFINEMENT_AREA, in longitude and latitude
+     */
+    private static Path2D confinementArea() {
+
+        var area = new Path2D.Double();
+        area.moveTo(Constants.CONFINEMENT_AREA[0].getLongitude(), Constants.CONFINEMENT_AREA[0].getLatitude());
+        for (var i = 1; i < Constants.CONFINEMENT_AREA.length; i++) {
+            area.lineTo(Constants.CONFINEMENT_AREA[i].getLongitude(), Constants.CONFINEMENT_AREA[i].getLatitude());
+        }
+        area.closePath();
+        return area;
+
+    }
+
+    /**
+     * @param query the raw query of a URI, or null
+     * @return the decoded parameters
+     */
+    private static Map<String, String> parseQuery(String query) {
+
+        var parameters = new HashMap<String, String>();
+        if (query == null) {
+            return parameters;
+        }
+        for (var pair : query.split("&")) {
+            var i = pair.indexOf('=');
+            if (i > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, i), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(i + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+
+    }
+
+    /**
+     * Sends a plain text response, ignoring clients that have gone away
+     */
+    private static void respond(HttpExchange exchange, int status, String message) {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        try {
+            send(exchange, status, message + "\n");
+        } catch (IOException e) {
+            // Nothing more can be done for this client
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        var bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (var out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+
+        var listenPort = Integer.parseInt(args[0]);
+        var port = Integer.parseInt(args[1]);
+        Options options;
+        try {
+            options = Options.parse(args, 2);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        // Keep the W3W locations and NFZs in a cache for the life of the server
+        var cache = new MapCache(Paths.get(Constants.CACHE_DIRECTORY), Constants.CACHE_TTL);
+        HttpRequests.setCache(cache);
+
+        // Build everything that only depends on the NFZs once
+        VisibilityGraph visibilityGraph;
+        PathCache pathCache;
+        try {
+            var NFZs = HttpRequests.noFlyZonesRequest(port);
+            visibilityGraph = options.createVisibilityGraph(new NoFlyZoneIndex(NFZs));
+            pathCache = options.openPathCache();
+        } catch (IOException e) {
+            System.out.println("Fatal error: " + e.getMessage());
+            System.exit(1); // Exit the application
+            return;
+        }
+
+        var server = new PlanningServer(listenPort, port, visibilityGraph, options);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            try {
+                cache.close();
+                if (pathCache != null) {
+                    pathCache.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }));
+        server.start();
+        System.out.println("Listening on port " + server.getPort());
+
+    }
+
+}
@@ -0,0 +1,28 @@
+package uk.ac.ed.inf.aqmaps;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for a Sensor being dropped because no flight fitted
+ * within the move limit
+ */
+@Name("uk.ac.ed.inf.aqmaps.SensorRemoval")
+@Label("Sensor Removal")
+@Description("A Sensor dropped from the tour because the best flight was over the move limit")
+@Category({ "AQMaps", "Planning" })
+class SensorRemovalEvent extends jdk.jfr.Event {
+
+    @Label("Sensor")
+    String sensor;
+
+    @Label("Moves")
+    @Description("Moves of the best flight before the Sensor was dropped")
+    int moves;
+
+    @Label("Remaining Sensors")
+    int remainingSensors;
+
+}
@@ -4,12 +4,16 @@ import java.io.IOException;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.lang.reflect.Type;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
 import java.net.http.HttpResponse.BodyHandlers;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
 
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
@@ -18,39 +22,89 @@ import com.mapbox.geojson.Polygon;
 
 import uk.ac.ed.inf.aqmaps.Constants;
 
+/**
+ * Requests the map details from the webserver.
+ *
+ * Every request goes through one shared HttpClient and is sent asynchronously,
+ * so the NFZs and all the W3W lookups can be fetched at the same time. A
+ * request that fails or times out completes its future exceptionally with an
+ * IOException. If a MapCache is set, W3W locations and NoFlyZones are taken
+ * from it where possible.
+ */
 public class HttpRequests {
 
+    // Shared by every request, HttpClient and Gson are both thread safe
+    private static final HttpClient CLIENT = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(Constants.REQUEST_TIMEOUT)).build();
+    private static final Gson GSON = new Gson();
+
+    // Used before making W3W and NFZ requests, or null for no caching
+    private static MapCache cache;
+
+    /**
+     * @param mapCache the cache to use for W3W locations and NoFlyZones, or null
+     *                 to always make requests
+     */
+    public static void setCache(MapCache mapCache) {
+        cache = mapCache;
+    }
+
     /**
      * Makes a request to the server
      * 
      * @param path
      * @param port
-     * @return Response
+     * @return future of the body of the response
      */
-    private static HttpResponse<String> httpRequest(String path, int port) {
+    private static CompletableFuture<String> httpRequest(String path, int port) {
 
         var url = Constants.SERVER + ":" + port + path;
 
-        // Create a new HttpClient with default settings.
-        var client = HttpClient.newHttpClient();
         // HttpClient assumes that it is a GET request by default.
-        var request = HttpRequest.newBuilder().uri(URI.create(url)).build();
-        // The response object is of class HttpResponse<String>
-        HttpResponse<String> response = null;
+        var request = HttpRequest.newBuilder().uri(URI.create(url))
+                .timeout(Duration.ofSeconds(Constants.REQUEST_TIMEOUT)).build();
+
+        return CLIENT.sendAsync(request, BodyHandlers.ofString()).handle((response, e) -> {
+
+            if (e != null) {
+                var cause = e instanceof CompletionException ? e.getCause() : e;
+                if (cause instanceof HttpTimeoutException) {
+                    throw new CompletionException(new IOException("Timed out waiting for " + url, cause));
+                }
+                throw new CompletionException(new IOException(
+                        "Unable to connect to " + Constants.SERVER + " at port " + port + ".", cause));
+            }
 
-        try {
-            response = client.send(request, BodyHandlers.ofString());
-        } catch (IOException | InterruptedException e) {
-            System.out.println("Fatal error: Unable to connect to " + Constants.SERVER + " at port " + port + ".");
-            System.exit(1); // Exit the application
-        }
+            if (response.statusCode() == 404) {
+                throw new CompletionException(new IOException("404 Not Found: " + url));
+            }
 
-        if (response.statusCode() == 404) {
-            System.out.println("404 Not Found: " + url);
-            System.exit(1);
-        }
+            return response.body();
+
+        });
+
+    }
 
-        return response;
+    /**
+     * Waits for a request to finish
+     * 
+     * @param future
+     * @return the result of the request
+     * @throws IOException if the request failed
+     */
+    public static <T> T await(CompletableFuture<T> future) throws IOException {
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the server", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
 
     }
 
@@ -63,34 +117,77 @@ public class HttpRequests {
      * @param day
      * @param port
      * @return list of Sensors
+     * @throws IOException if a request fails
+     */
+    public static List<Sensor> sensorRequest(String year, String month, String day, int port) throws IOException {
+        return await(sensorRequestAsync(year, month, day, port));
+    }
+
+    /**
+     * Same as sensorRequest, without waiting for the requests to finish. The W3W
+     * locations of the Sensors are looked up concurrently.
+     * 
+     * @param year
+     * @param month
+     * @param day
+     * @param port
+     * @return future of the list of Sensors
      */
-    public static List<Sensor> sensorRequest(String year, String month, String day, int port) {
+    public static CompletableFuture<List<Sensor>> sensorRequestAsync(String year, String month, String day,
+            int port) {
 
         var path = "/maps/" + year + "/" + month + "/" + day + "/air-quality-data.json";
 
-        var response = httpRequest(path, port);
+        return httpRequest(path, port).thenCompose(body -> {
 
-        Type listType = new TypeToken<ArrayList<Sensor>>() {}.getType();
-        ArrayList<Sensor> sensorList = new Gson().fromJson(response.body(), listType);
+            Type listType = new TypeToken<ArrayList<Sensor>>() {}.getType();
+            List<Sensor> sensorList = GSON.fromJson(body, listType);
 
-        // Update the coordinate field for the sensors
-        updateCoordinates(sensorList, port);
-        return sensorList;
+            // Update the coordinate field for the sensors
+            return updateCoordinates(sensorList, port).thenApply(v -> sensorList);
+
+        });
 
     }
 
     /**
-     * Updates the Coordinate fields for all the Sensors
+     * Updates the Coordinate fields for all the Sensors. The Sensors are split
+     * into MAX_CONCURRENT_REQUESTS lanes, each looking up its Sensors one after
+     * another, so at most that many lookups are in flight at once.
      * 
      * @param sensors
      * @param port
+     * @return future completing when every Coordinate has been set
      */
-    private static void updateCoordinates(List<Sensor> sensors, int port) {
+    private static CompletableFuture<Void> updateCoordinates(List<Sensor> sensors, int port) {
+
+        // Only look up the Sensors that aren't cached
+        if (cache != null) {
+            var uncached = new ArrayList<Sensor>();
+            for (var sensor : sensors) {
+                var coordinate = cache.getCoordinate(sensor.getLocation());
+                if (coordinate != null) {
+                    sensor.setCoordinate(coordinate);
+                } else {
+                    uncached.add(sensor);
+                }
+            }
+            sensors = uncached;
+        }
+
+        var lanes = new ArrayList<CompletableFuture<Void>>();
 
-        for (var sensor : sensors) {
-            updateCoordinate(sensor, port);
+        for (var lane = 0; lane < Math.min(Constants.MAX_CONCURRENT_REQUESTS, sensors.size()); lane++) {
+            CompletableFuture<Void> future = CompletableFuture.completedFuture(null);
+            for (var i = lane; i < sensors.size(); i += Constants.MAX_CONCURRENT_REQUESTS) {
+                var sensor = sensors.get(i);
+                future = future.thenCompose(v -> updateCoordinate(sensor, port));
+            }
+            lanes.add(future);
         }
 
+        return CompletableFuture.allOf(lanes.toArray(new CompletableFuture<?>[0]));
+
     }
 
     /**
@@ -100,22 +197,33 @@ public class HttpRequests {
      * 
      * @param sensor
      * @param port
+     * @return future completing when the Coordinate has been set
      */
-    private static void updateCoordinate(Sensor sensor, int port) {
+    private static CompletableFuture<Void> updateCoordinate(Sensor sensor, int port) {
 
         var words = sensor.getLocation().split("\\.");
 
         var path = "/words/" + words[0] + "/" + words[1] + "/" + words[2] + "/details.json";
 
-        var response = httpRequest(path, port);
+        return httpRequest(path, port).thenAccept(body -> {
+
+            // Use W3wDetails to get the lat and lng
+            var details = GSON.fromJson(body, W3wDetails.class);
 
-        // Use W3wDetails to get the lat and lng
-        var details = new Gson().fromJson(response.body(), W3wDetails.class);
+            var lat = details.coordinates.lat;
+            var lng = details.coordinates.lng;
 
-        var lat = details.coordinates.lat;
-        var lng = details.coordinates.lng;
+            sensor.setCoordinate(new Coordinate(lat, lng));
+
+            if (cache != null) {
+                try {
+                    cache.putCoordinate(sensor.getLocation(), sensor.getCoordinate());
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }
 
-        sensor.setCoordinate(new Coordinate(lat, lng));
+        });
 
     }
 
@@ -124,13 +232,52 @@ public class HttpRequests {
      * 
      * @param port
      * @return list of NoFlyZones
+     * @throws IOException if the request fails
+     */
+    public static List<NoFlyZone> noFlyZonesRequest(int port) throws IOException {
+        return await(noFlyZonesRequestAsync(port));
+    }
+
+    /**
+     * Same as noFlyZonesRequest, without waiting for the request to finish
+     * 
+     * @param port
+     * @return future of the list of NoFlyZones
      */
-    public static List<NoFlyZone> noFlyZonesRequest(int port) {
+    public static CompletableFuture<List<NoFlyZone>> noFlyZonesRequestAsync(int port) {
+
+        if (cache == null) {
+            return httpRequest("/buildings/no-fly-zones.geojson", port).thenApply(HttpRequests::parseNoFlyZones);
+        }
+
+        var cached = cache.getNoFlyZones();
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
 
-        var path = "/buildings/no-fly-zones.geojson";
-        var response = httpRequest(path, port);
+        // Only parse the GeoJSON if it has changed since it was cached
+        return httpRequest("/buildings/no-fly-zones.geojson", port).thenApply(geojson -> {
+            try {
+                var NFZs = cache.getNoFlyZones(geojson);
+                if (NFZs == null) {
+                    NFZs = parseNoFlyZones(geojson);
+                    cache.putNoFlyZones(geojson, NFZs);
+                }
+                return NFZs;
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+
+    }
+
+    /**
+     * @param geojson the NFZ buildings as a FeatureCollection of Polygons
+     * @return list of NoFlyZones
+     */
+    public static List<NoFlyZone> parseNoFlyZones(String geojson) {
 
-        var featureCollection = FeatureCollection.fromJson(response.body());
+        var featureCollection = FeatureCollection.fromJson(geojson);
         var buildings = featureCollection.features();
 
         var noFlyZones = new ArrayList<NoFlyZone>();
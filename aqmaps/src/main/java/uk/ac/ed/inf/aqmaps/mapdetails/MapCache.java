@@ -0,0 +1,338 @@
+package uk.ac.ed.inf.aqmaps.mapdetails;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps W3W locations and NoFlyZones in binary files so they don't have to be
+ * requested from the webserver on every run.
+ *
+ * W3W locations are appended to a file as they are looked up and are used until
+ * they are older than the time to live. The NoFlyZones are stored along with a
+ * hash of the GeoJSON they were parsed from. Within the time to live they are
+ * used without a request. After that the GeoJSON is requested again, and is
+ * only parsed if its hash has changed.
+ *
+ * A damaged file is ignored, so the cache starts empty instead of failing.
+ */
+public class MapCache {
+
+    // Identifies the files and their format version
+    private static final int W3W_MAGIC = 0x57335701;
+    private static final int NFZ_MAGIC = 0x4E465A01;
+
+    private Path w3wFile;
+    private Path nfzFile;
+    private long ttlMillis;
+
+    // W3W location to its Coordinate and when it was looked up
+    private ConcurrentHashMap<String, Entry> coordinates;
+    private DataOutputStream w3wOut;
+
+    // Cached NoFlyZones, or null if there are none
+    private List<NoFlyZone> NFZs;
+    private byte[] nfzHash;
+    private long nfzTime;
+
+    /**
+     * A cached W3W location
+     */
+    private static class Entry {
+        private Coordinate coordinate;
+        private long time;
+
+        Entry(Coordinate coordinate, long time) {
+            this.coordinate = coordinate;
+            this.time = time;
+        }
+    }
+
+    /**
+     * Opens the cache in directory, creating it if needed. Expired and damaged
+     * entries are dropped.
+     *
+     * @param directory
+     * @param ttlMillis how long entries are used for, in milliseconds
+     * @throws IOException
+     */
+    public MapCache(Path directory, long ttlMillis) throws IOException {
+
+        Files.createDirectories(directory);
+        this.w3wFile = directory.resolve("w3w.bin");
+        this.nfzFile = directory.resolve("no-fly-zones.bin");
+        this.ttlMillis = ttlMillis;
+        this.coordinates = new ConcurrentHashMap<String, Entry>();
+
+        loadCoordinates();
+        loadNoFlyZones();
+
+        // Rewrite the W3W file without the dropped entries, then append to it
+        writeCoordinates();
+        w3wOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(w3wFile,
+                StandardOpenOption.APPEND)));
+
+    }
+
+    private boolean isFresh(long time) {
+        return System.currentTimeMillis() - time < ttlMillis;
+    }
+
+    /**
+     * @param location a W3W location
+     * @return its Coordinate, or null if it is not cached or has expired
+     */
+    public Coordinate getCoordinate(String location) {
+
+        var entry = coordinates.get(location);
+        if (entry == null || !isFresh(entry.time)) {
+            return null;
+        }
+        return entry.coordinate;
+
+    }
+
+    /**
+     * Adds a W3W location to the cache and appends it to the file
+     *
+     * @param location
+     * @param coordinate
+     * @throws IOException
+     */
+    public synchronized void putCoordinate(String location, Coordinate coordinate) throws IOException {
+
+        var entry = new Entry(coordinate, System.currentTimeMillis());
+        coordinates.put(location, entry);
+        writeEntry(w3wOut, location, entry);
+        w3wOut.flush();
+
+    }
+
+    /**
+     * @return the cached NoFlyZones, or null if there are none or they have
+     *         expired
+     */
+    public synchronized List<NoFlyZone> getNoFlyZones() {
+        if (NFZs == null || !isFresh(nfzTime)) {
+            return null;
+        }
+        return NFZs;
+    }
+
+    /**
+     * @param geojson the NFZ GeoJSON returned by the webserver
+     * @return the cached NoFlyZones if they were parsed from the same GeoJSON,
+     *         otherwise null. On a match the NoFlyZones are fresh again.
+     * @throws IOException
+     */
+    public synchronized List<NoFlyZone> getNoFlyZones(String geojson) throws IOException {
+
+        if (NFZs == null || !Arrays.equals(nfzHash, hash(geojson))) {
+            return null;
+        }
+
+        nfzTime = System.currentTimeMillis();
+        writeNoFlyZones();
+        return NFZs;
+
+    }
+
+    /**
+     * Stores the NoFlyZones parsed from geojson
+     *
+     * @param geojson
+     * @param NFZs
+     * @throws IOException
+     */
+    public synchronized void putNoFlyZones(String geojson, List<NoFlyZone> NFZs) throws IOException {
+
+        this.NFZs = NFZs;
+        this.nfzHash = hash(geojson);
+        this.nfzTime = System.currentTimeMillis();
+        writeNoFlyZones();
+
+    }
+
+    /**
+     * Closes the W3W file
+     *
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+        w3wOut.close();
+    }
+
+    private void loadCoordinates() throws IOException {
+
+        if (!Files.exists(w3wFile)) {
+            return;
+        }
+
+        try (var in = open(w3wFile)) {
+
+            if (in.readInt() != W3W_MAGIC) {
+                return;
+            }
+
+            // Read until the end of the file. A partly written last entry is dropped.
+            while (true) {
+                var location = in.readUTF();
+                var time = in.readLong();
+                var lat = in.readDouble();
+                var lng = in.readDouble();
+                if (isFresh(time)) {
+                    coordinates.put(location, new Entry(new Coordinate(lat, lng), time));
+                }
+            }
+
+        } catch (EOFException e) {
+            // End of the entries
+        } catch (IOException e) {
+            // Damaged file, so start again
+            coordinates.clear();
+        }
+
+    }
+
+    private void writeCoordinates() throws IOException {
+
+        var temp = w3wFile.resolveSibling(w3wFile.getFileName() + ".tmp");
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(W3W_MAGIC);
+            for (var e : coordinates.entrySet()) {
+                writeEntry(out, e.getKey(), e.getValue());
+            }
+        }
+        Files.move(temp, w3wFile, StandardCopyOption.REPLACE_EXISTING);
+
+    }
+
+    private static void writeEntry(DataOutputStream out, String location, Entry entry) throws IOException {
+        out.writeUTF(location);
+        out.writeLong(entry.time);
+        out.writeDouble(entry.coordinate.getLatitude());
+        out.writeDouble(entry.coordinate.getLongitude());
+    }
+
+    private void loadNoFlyZones() throws IOException {
+
+        if (!Files.exists(nfzFile)) {
+            return;
+        }
+
+        try (var in = open(nfzFile)) {
+
+            if (in.readInt() != NFZ_MAGIC) {
+                return;
+            }
+
+            var time = in.readLong();
+            var hash = new byte[readCount(in, 1)];
+            in.readFully(hash);
+
+            // Each NFZ takes at least its number of vertices
+            var count = readCount(in, 4);
+            var result = new ArrayList<NoFlyZone>();
+            for (var i = 0; i < count; i++) {
+                var n = readCount(in, 16);
+                if (n < 3) {
+                    throw new IOException("NFZ with " + n + " vertices in " + nfzFile);
+                }
+                var vertices = new ArrayList<Coordinate>();
+                for (var j = 0; j < n; j++) {
+                    var lat = in.readDouble();
+                    var lng = in.readDouble();
+                    vertices.add(new Coordinate(lat, lng));
+                }
+                result.add(new NoFlyZone(vertices));
+            }
+
+            NFZs = result;
+            nfzHash = hash;
+            nfzTime = time;
+
+        } catch (IOException e) {
+            // Damaged file, so request the NFZs again
+        }
+
+    }
+
+    private void writeNoFlyZones() throws IOException {
+
+        var temp = nfzFile.resolveSibling(nfzFile.getFileName() + ".tmp");
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(NFZ_MAGIC);
+            out.writeLong(nfzTime);
+            out.writeInt(nfzHash.length);
+            out.write(nfzHash);
+            out.writeInt(NFZs.size());
+            for (var NFZ : NFZs) {
+                var vertices = NFZ.getVertices();
+                out.writeInt(vertices.size());
+                for (var vertex : vertices) {
+                    out.writeDouble(vertex.getCoordinate().getLatitude());
+                    out.writeDouble(vertex.getCoordinate().getLongitude());
+                }
+            }
+        }
+        Files.move(temp, nfzFile, StandardCopyOption.REPLACE_EXISTING);
+
+    }
+
+    /**
+     * Reads the whole of file into memory, so the bytes left can be checked
+     * against the lengths stored in it
+     *
+     * @param file
+     * @return a stream of the file's bytes
+     * @throws IOException
+     */
+    private static DataInputStream open(Path file) throws IOException {
+        return new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file)));
+    }
+
+    /**
+     * Reads a number of items stored in a file opened by open
+     *
+     * @param in
+     * @param itemSize the least number of bytes each item takes
+     * @return the number of items
+     * @throws IOException if the number is negative or there aren't enough bytes
+     *                     left for that many items
+     */
+    private static int readCount(DataInputStream in, int itemSize) throws IOException {
+        var count = in.readInt();
+        if (count < 0 || (long) count * itemSize > in.available()) {
+            throw new IOException("Damaged cache file");
+        }
+        return count;
+    }
+
+    /**
+     * @param text
+     * @return the SHA-256 hash of text
+     */
+    private static byte[] hash(String text) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
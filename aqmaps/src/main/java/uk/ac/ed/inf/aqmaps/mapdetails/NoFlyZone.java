@@ -5,6 +5,8 @@ import java.util.ArrayList;
 import java.util.List;
 import java.awt.geom.Path2D;
 
+import uk.ac.ed.inf.aqmaps.Metrics;
+
 /**
  * Represents a No Fly Zone
  */
@@ -44,22 +46,39 @@ public class NoFlyZone {
      * 
      */
     public boolean intersectedBy(Coordinate p1, Coordinate p2) {
+        return intersectedBy(p1, p2, null);
+    }
+
+    /**
+     * @param p1      a Coordinate
+     * @param p2      a Coordinate
+     * @param metrics where the edge tests are counted, or null
+     * @return true if the line segment joining p1 and p2 enters the NoFlyZone
+     */
+    public boolean intersectedBy(Coordinate p1, Coordinate p2, Metrics metrics) {
+
+        // Number of edge tests, added to the metrics once at the end
+        var tests = 0;
+        var intersects = false;
 
         // Iterate over all edges and check for intersection
-        for (var i = 0; i < vertices.size() - 1; i++) {
-            if (Coordinate.linesIntersect(p1, p2, vertices.get(i).getCoordinate(),
-                    vertices.get(i + 1).getCoordinate())) {
-                return true;
-            }
+        for (var i = 0; i < vertices.size() - 1 && !intersects; i++) {
+            tests++;
+            intersects = Coordinate.linesIntersect(p1, p2, vertices.get(i).getCoordinate(),
+                    vertices.get(i + 1).getCoordinate());
         }
 
         // Check edge joining the last vertex and first
-        if (Coordinate.linesIntersect(p1, p2, vertices.get(vertices.size() - 1).getCoordinate(),
-                vertices.get(0).getCoordinate())) {
-            return true;
+        if (!intersects) {
+            tests++;
+            intersects = Coordinate.linesIntersect(p1, p2, vertices.get(vertices.size() - 1).getCoordinate(),
+                    vertices.get(0).getCoordinate());
         }
 
-        return false;
+        if (metrics != null) {
+            metrics.add(Metrics.Counter.LINES_INTERSECT, tests);
+        }
+        return intersects;
     }
 
     /**
@@ -78,9 +97,22 @@ public class NoFlyZone {
      *         NoFlyZones
      */
     public static boolean intersectsNoFlyZones(Coordinate p1, Coordinate p2, List<NoFlyZone> NFZs) {
+        return intersectsNoFlyZones(p1, p2, NFZs, null);
+    }
+
+    /**
+     * @param p1      a Coordinate
+     * @param p2      a Coordinate
+     * @param NFZs    a list of NoFlyZones
+     * @param metrics where the edge tests are counted, or null
+     * @return true if the line segment joining p1 and p2 intersects any of the
+     *         NoFlyZones
+     */
+    public static boolean intersectsNoFlyZones(Coordinate p1, Coordinate p2, List<NoFlyZone> NFZs,
+            Metrics metrics) {
 
         for (var NFZ : NFZs) {
-            if (NFZ.intersectedBy(p1, p2)) {
+            if (NFZ.intersectedBy(p1, p2, metrics)) {
                 return true;
             }
         }
@@ -0,0 +1,394 @@
+package uk.ac.ed.inf.aqmaps.mapdetails;
+
+import java.awt.geom.Line2D;
+import java.util.ArrayList;
+import java.util.List;
+
+import uk.ac.ed.inf.aqmaps.Metrics;
+
+/**
+ * A uniform grid over the edges of the NoFlyZones, so that intersection and
+ * containment queries only test the edges and NoFlyZones near the query
+ * instead of every one on the map. The index is immutable once built and can be
+ * shared between threads.
+ */
+public class NoFlyZoneIndex {
+
+    // Upper bound on the number of columns and rows of the grid
+    private static final int MAX_CELLS_PER_AXIS = 1024;
+
+    private List<NoFlyZone> NFZs;
+
+    // Edges of every NFZ, stored as (longitude, latitude) endpoints
+    private double[] x1;
+    private double[] y1;
+    private double[] x2;
+    private double[] y2;
+    // The vertices joined by each edge
+    private NoFlyZoneVertex[] from;
+    private NoFlyZoneVertex[] to;
+
+    // Bounding box of each NFZ
+    private double[] minLng;
+    private double[] minLat;
+    private double[] maxLng;
+    private double[] maxLat;
+
+    // Grid bounds and cell sizes
+    private double minX;
+    private double minY;
+    private double maxX;
+    private double maxY;
+    private double cellWidth;
+    private double cellHeight;
+    private int cols;
+    private int rows;
+
+    // Slack added to cell ranges so edges touching a cell boundary are found
+    private double epsX;
+    private double epsY;
+
+    // Indices of the edges and NFZs overlapping each cell
+    private int[][] cellEdges;
+    private int[][] cellZones;
+
+    // Hash of the NFZ vertices
+    private long fingerprint;
+
+    public NoFlyZoneIndex(List<NoFlyZone> NFZs) {
+        this.NFZs = NFZs;
+        generateEdges();
+        generateGrid();
+        generateFingerprint();
+    }
+
+    public List<NoFlyZone> getNoFlyZones() {
+        return NFZs;
+    }
+
+    /**
+     * @return a 64-bit FNV-1a hash of the vertices of the NFZs, in order, for
+     *         checking that data saved for a map is for the same NFZs
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    private void generateFingerprint() {
+
+        var hash = 0xcbf29ce484222325L;
+        for (var NFZ : NFZs) {
+            hash = (hash ^ NFZ.getVertices().size()) * 0x100000001b3L;
+            for (var vertex : NFZ.getVertices()) {
+                hash = (hash ^ Double.doubleToLongBits(vertex.getCoordinate().getLatitude())) * 0x100000001b3L;
+                hash = (hash ^ Double.doubleToLongBits(vertex.getCoordinate().getLongitude())) * 0x100000001b3L;
+            }
+        }
+        fingerprint = hash;
+
+    }
+
+    /**
+     * Fills the edge arrays and the bounding box of each NFZ
+     */
+    private void generateEdges() {
+
+        var numEdges = 0;
+        for (var NFZ : NFZs) {
+            numEdges += NFZ.getVertices().size();
+        }
+
+        x1 = new double[numEdges];
+        y1 = new double[numEdges];
+        x2 = new double[numEdges];
+        y2 = new double[numEdges];
+        from = new NoFlyZoneVertex[numEdges];
+        to = new NoFlyZoneVertex[numEdges];
+
+        minLng = new double[NFZs.size()];
+        minLat = new double[NFZs.size()];
+        maxLng = new double[NFZs.size()];
+        maxLat = new double[NFZs.size()];
+
+        var e = 0;
+        for (var z = 0; z < NFZs.size(); z++) {
+
+            var vertices = NFZs.get(z).getVertices();
+
+            minLng[z] = Double.POSITIVE_INFINITY;
+            minLat[z] = Double.POSITIVE_INFINITY;
+            maxLng[z] = Double.NEGATIVE_INFINITY;
+            maxLat[z] = Double.NEGATIVE_INFINITY;
+
+            // Edges between adjacent vertices, including last vertex to first
+            for (var i = 0; i < vertices.size(); i++) {
+                var v1 = vertices.get(i);
+                var v2 = vertices.get((i + 1) % vertices.size());
+
+                from[e] = v1;
+                to[e] = v2;
+                x1[e] = v1.getCoordinate().getLongitude();
+                y1[e] = v1.getCoordinate().getLatitude();
+                x2[e] = v2.getCoordinate().getLongitude();
+                y2[e] = v2.getCoordinate().getLatitude();
+
+                minLng[z] = Math.min(minLng[z], x1[e]);
+                minLat[z] = Math.min(minLat[z], y1[e]);
+                maxLng[z] = Math.max(maxLng[z], x1[e]);
+                maxLat[z] = Math.max(maxLat[z], y1[e]);
+                e++;
+            }
+        }
+
+    }
+
+    /**
+     * Chooses the grid resolution so there is roughly one cell per edge, then
+     * adds every edge and NFZ to the cells its bounding box overlaps
+     */
+    private void generateGrid() {
+
+        minX = Double.POSITIVE_INFINITY;
+        minY = Double.POSITIVE_INFINITY;
+        maxX = Double.NEGATIVE_INFINITY;
+        maxY = Double.NEGATIVE_INFINITY;
+        for (var z = 0; z < NFZs.size(); z++) {
+            minX = Math.min(minX, minLng[z]);
+            minY = Math.min(minY, minLat[z]);
+            maxX = Math.max(maxX, maxLng[z]);
+            maxY = Math.max(maxY, maxLat[z]);
+        }
+
+        if (x1.length == 0) {
+            cols = 0;
+            rows = 0;
+            return;
+        }
+
+        // Avoid zero sized cells for degenerate maps
+        var width = Math.max(maxX - minX, 1e-12);
+        var height = Math.max(maxY - minY, 1e-12);
+        var cellSize = Math.sqrt(width * height / x1.length);
+
+        cols = (int) Math.min(MAX_CELLS_PER_AXIS, Math.max(1, Math.ceil(width / cellSize)));
+        rows = (int) Math.min(MAX_CELLS_PER_AXIS, Math.max(1, Math.ceil(height / cellSize)));
+        cellWidth = width / cols;
+        cellHeight = height / rows;
+        epsX = cellWidth * 1e-6;
+        epsY = cellHeight * 1e-6;
+
+        // Collect the contents of each cell in lists and then pack them into arrays
+        var edgeLists = new ArrayList<List<Integer>>();
+        var zoneLists = new ArrayList<List<Integer>>();
+        for (var c = 0; c < cols * rows; c++) {
+            edgeLists.add(new ArrayList<Integer>());
+            zoneLists.add(new ArrayList<Integer>());
+        }
+
+        for (var e = 0; e < x1.length; e++) {
+            addToCells(edgeLists, e, Math.min(x1[e], x2[e]), Math.min(y1[e], y2[e]), Math.max(x1[e], x2[e]),
+                    Math.max(y1[e], y2[e]));
+        }
+        for (var z = 0; z < NFZs.size(); z++) {
+            addToCells(zoneLists, z, minLng[z], minLat[z], maxLng[z], maxLat[z]);
+        }
+
+        cellEdges = toArrays(edgeLists);
+        cellZones = toArrays(zoneLists);
+
+    }
+
+    private void addToCells(List<List<Integer>> cells, int item, double lx, double ly, double hx, double hy) {
+
+        var c0 = column(lx - epsX);
+        var c1 = column(hx + epsX);
+        var r0 = row(ly - epsY);
+        var r1 = row(hy + epsY);
+
+        for (var c = c0; c <= c1; c++) {
+            for (var r = r0; r <= r1; r++) {
+                cells.get(r * cols + c).add(item);
+            }
+        }
+
+    }
+
+    private static int[][] toArrays(List<List<Integer>> lists) {
+
+        var arrays = new int[lists.size()][];
+        for (var i = 0; i < lists.size(); i++) {
+            var list = lists.get(i);
+            arrays[i] = new int[list.size()];
+            for (var j = 0; j < list.size(); j++) {
+                arrays[i][j] = list.get(j);
+            }
+        }
+        return arrays;
+
+    }
+
+    private int column(double x) {
+        var c = (int) Math.floor((x - minX) / cellWidth);
+        return Math.max(0, Math.min(cols - 1, c));
+    }
+
+    private int row(double y) {
+        var r = (int) Math.floor((y - minY) / cellHeight);
+        return Math.max(0, Math.min(rows - 1, r));
+    }
+
+    /**
+     * @param p1 a Coordinate
+     * @param p2 a Coordinate
+     * @return true if the line segment joining p1 and p2 intersects any of the
+     *         NoFlyZones
+     */
+    public boolean intersects(Coordinate p1, Coordinate p2) {
+        return intersects(p1, p2, null, null, null);
+    }
+
+    /**
+     * Same as intersects(p1, p2), counting the edge tests in metrics
+     */
+    public boolean intersects(Coordinate p1, Coordinate p2, Metrics metrics) {
+        return intersects(p1, p2, null, null, metrics);
+    }
+
+    /**
+     * Same as intersects(p1, p2), but ignores the NFZ edges that have either
+     * node1 or node2 as one of their vertices
+     *
+     * @param p1    a Coordinate
+     * @param p2    a Coordinate
+     * @param node1 a Node whose edges are ignored (may be null)
+     * @param node2 a Node whose edges are ignored (may be null)
+     * @return true if the line segment joining p1 and p2 intersects any of the
+     *         remaining NFZ edges
+     */
+    public boolean intersects(Coordinate p1, Coordinate p2, Node node1, Node node2) {
+        return intersects(p1, p2, node1, node2, null);
+    }
+
+    /**
+     * Same as intersects(p1, p2, node1, node2), counting the edge tests in
+     * metrics
+     *
+     * @param p1      a Coordinate
+     * @param p2      a Coordinate
+     * @param node1   a Node whose edges are ignored (may be null)
+     * @param node2   a Node whose edges are ignored (may be null)
+     * @param metrics where the edge tests are counted, or null
+     * @return true if the line segment joining p1 and p2 intersects any of the
+     *         remaining NFZ edges
+     */
+    public boolean intersects(Coordinate p1, Coordinate p2, Node node1, Node node2, Metrics metrics) {
+        return intersects(p1.getLongitude(), p1.getLatitude(), p2.getLongitude(), p2.getLatitude(), node1, node2,
+                metrics);
+    }
+
+    /**
+     * Same as intersects(p1, p2), taking the endpoints as (longitude, latitude)
+     * pairs
+     */
+    public boolean intersects(double sx1, double sy1, double sx2, double sy2) {
+        return intersects(sx1, sy1, sx2, sy2, null, null, null);
+    }
+
+    /**
+     * Same as intersects(sx1, sy1, sx2, sy2), counting the edge tests in metrics
+     */
+    public boolean intersects(double sx1, double sy1, double sx2, double sy2, Metrics metrics) {
+        return intersects(sx1, sy1, sx2, sy2, null, null, metrics);
+    }
+
+    private boolean intersects(double sx1, double sy1, double sx2, double sy2, Node node1, Node node2,
+            Metrics metrics) {
+
+        if (cols == 0) {
+            return false;
+        }
+
+        var segMinX = Math.min(sx1, sx2);
+        var segMaxX = Math.max(sx1, sx2);
+        var segMinY = Math.min(sy1, sy2);
+        var segMaxY = Math.max(sy1, sy2);
+
+        // Segment misses the grid entirely
+        if (segMaxX < minX - epsX || segMinX > maxX + epsX || segMaxY < minY - epsY || segMinY > maxY + epsY) {
+            return false;
+        }
+
+        var vertical = sx1 == sx2;
+        var slope = vertical ? 0 : (sy2 - sy1) / (sx2 - sx1);
+
+        // Walk the columns the segment spans, and within each column only the rows
+        // the segment passes through
+        var c0 = column(segMinX - epsX);
+        var c1 = column(segMaxX + epsX);
+
+        // Number of segment tests, added to the metrics once at the end
+        var tests = 0;
+
+        for (var c = c0; c <= c1; c++) {
+
+            double ya;
+            double yb;
+            if (vertical) {
+                ya = segMinY;
+                yb = segMaxY;
+            } else {
+                var xa = Math.max(minX + c * cellWidth - epsX, segMinX);
+                var xb = Math.min(minX + (c + 1) * cellWidth + epsX, segMaxX);
+                ya = sy1 + (xa - sx1) * slope;
+                yb = sy1 + (xb - sx1) * slope;
+            }
+
+            var r0 = row(Math.max(Math.min(ya, yb), segMinY) - epsY);
+            var r1 = row(Math.min(Math.max(ya, yb), segMaxY) + epsY);
+
+            for (var r = r0; r <= r1; r++) {
+                for (var e : cellEdges[r * cols + c]) {
+                    if (from[e] == node1 || to[e] == node1 || from[e] == node2 || to[e] == node2) {
+                        continue;
+                    }
+                    tests++;
+                    if (Line2D.linesIntersect(sx1, sy1, sx2, sy2, x1[e], y1[e], x2[e], y2[e])) {
+                        if (metrics != null) {
+                            metrics.add(Metrics.Counter.LINES_INTERSECT, tests);
+                        }
+                        return true;
+                    }
+                }
+            }
+        }
+
+        if (metrics != null && tests > 0) {
+            metrics.add(Metrics.Counter.LINES_INTERSECT, tests);
+        }
+        return false;
+
+    }
+
+    /**
+     * @param p a Coordinate
+     * @return true if p lies inside any of the NoFlyZones
+     */
+    public boolean contains(Coordinate p) {
+
+        var x = p.getLongitude();
+        var y = p.getLatitude();
+
+        if (cols == 0 || x < minX || x > maxX || y < minY || y > maxY) {
+            return false;
+        }
+
+        for (var z : cellZones[row(y) * cols + column(x)]) {
+            if (x >= minLng[z] && x <= maxLng[z] && y >= minLat[z] && y <= maxLat[z] && NFZs.get(z).contains(p)) {
+                return true;
+            }
+        }
+        return false;
+
+    }
+
+}
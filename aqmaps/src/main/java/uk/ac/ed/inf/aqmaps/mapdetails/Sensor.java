@@ -18,6 +18,10 @@ public class Sensor implements Node {
     // The actual coordinate of the sensor
     private Coordinate coordinate;
     private boolean visited;
+    // Styling of the GeoJson Feature, worked out when first needed (null until
+    // then)
+    private String rgbString;
+    private String markerSymbol;
 
     public Sensor(String location, double battery, String reading) {
         this.location = location;
@@ -30,6 +34,14 @@ public class Sensor implements Node {
         return location;
     }
 
+    public double getBattery() {
+        return battery;
+    }
+
+    public String getReading() {
+        return reading;
+    }
+
     public Coordinate getCoordinate() {
         return coordinate;
     }
@@ -40,22 +52,59 @@ public class Sensor implements Node {
 
     public void setVisited(boolean visited) {
         this.visited = visited;
+        this.rgbString = null;
     }
 
     /**
      * @return an RGB String for the GeoJson Feature based on the reading
      */
-    private String readingToRGBString() {
+    public String getRgbString() {
+        computeStyle();
+        return rgbString;
+    }
+
+    /**
+     * @return a String representing the type of marker to use in the GeoJson
+     *         Feature based on the reading.
+     */
+    public String getMarkerSymbol() {
+        computeStyle();
+        return markerSymbol;
+    }
+
+    /**
+     * Sets rgbString and markerSymbol if they haven't been set since visited was
+     * last changed. The reading is only parsed once.
+     */
+    private void computeStyle() {
+
+        if (rgbString != null) {
+            return;
+        }
 
         if (!visited) {
-            return "#aaaaaa";
+            rgbString = "#aaaaaa";
+            markerSymbol = "";
+            return;
         }
 
         if (battery < 10) {
-            return "#000000";
+            rgbString = "#000000";
+            markerSymbol = "cross";
+            return;
         }
 
-        double fill = Double.parseDouble(reading);
+        var value = Double.parseDouble(reading);
+        rgbString = readingToRGBString(value);
+        markerSymbol = readingToMarker(value);
+
+    }
+
+    /**
+     * @param fill the reading of a visited Sensor with enough battery
+     * @return an RGB String for the GeoJson Feature based on the reading
+     */
+    private static String readingToRGBString(double fill) {
 
         if (fill < 32) {
             return "#00ff00";
@@ -78,21 +127,16 @@ public class Sensor implements Node {
     }
 
     /**
+     * @param r the reading of a visited Sensor with enough battery
      * @return a String representing the type of marker to use in the GeoJson
      *         Feature based on the reading.
      */
-    private String readingToMarker() {
-
-        if (!visited) {
-            return "";
-        }
+    private String readingToMarker(double r) {
 
-        if (battery < 10 || reading == "null" || reading == "NaN") {
+        if (reading == "null" || reading == "NaN") {
             return "cross";
         }
 
-        var r = Double.parseDouble(reading);
-
         if (r < 128) {
             return "lighthouse";
         } else {
@@ -111,9 +155,9 @@ public class Sensor implements Node {
         var feature = Feature.fromGeometry((Geometry) point);
 
         feature.addStringProperty("location", location);
-        feature.addStringProperty("rgb-string", readingToRGBString());
-        feature.addStringProperty("marker-color", readingToRGBString());
-        feature.addStringProperty("marker-symbol", readingToMarker());
+        feature.addStringProperty("rgb-string", getRgbString());
+        feature.addStringProperty("marker-color", getRgbString());
+        feature.addStringProperty("marker-symbol", getMarkerSymbol());
 
         return feature;
 
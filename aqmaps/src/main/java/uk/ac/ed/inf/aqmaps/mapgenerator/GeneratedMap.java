@@ -0,0 +1,37 @@
+package uk.ac.ed.inf.aqmaps.mapgenerator;
+
+import java.util.List;
+
+import uk.ac.ed.inf.aqmaps.mapdetails.NoFlyZone;
+import uk.ac.ed.inf.aqmaps.mapdetails.Sensor;
+import uk.ac.ed.inf.aqmaps.mapdetails.StartingPosition;
+
+/**
+ * A map made by MapGenerator: the Sensors (with their coordinates set), the
+ * NoFlyZones and a starting position outside them
+ */
+public class GeneratedMap {
+
+    private List<Sensor> sensors;
+    private List<NoFlyZone> NFZs;
+    private StartingPosition startingPosition;
+
+    public GeneratedMap(List<Sensor> sensors, List<NoFlyZone> NFZs, StartingPosition startingPosition) {
+        this.sensors = sensors;
+        this.NFZs = NFZs;
+        this.startingPosition = startingPosition;
+    }
+
+    public List<Sensor> getSensors() {
+        return sensors;
+    }
+
+    public List<NoFlyZone> getNoFlyZones() {
+        return NFZs;
+    }
+
+    public StartingPosition getStartingPosition() {
+        return startingPosition;
+    }
+
+}
@@ -0,0 +1,435 @@
+package uk.ac.ed.inf.aqmaps.mapgenerator;
+
+import java.awt.geom.Line2D;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import uk.ac.ed.inf.aqmaps.Constants;
+import uk.ac.ed.inf.aqmaps.mapdetails.Coordinate;
+import uk.ac.ed.inf.aqmaps.mapdetails.NoFlyZone;
+import uk.ac.ed.inf.aqmaps.mapdetails.Sensor;
+import uk.ac.ed.inf.aqmaps.mapdetails.StartingPosition;
+
+/**
+ * Generates maps of Sensors and non-overlapping NoFlyZones inside the
+ * confinement area, for scaling and stress tests. The same seed and settings
+ * always give the same map.
+ *
+ * The MAZE layout is made of rectangular walls sized to fill the confinement
+ * area, so it only fits as many zones as leave the passages between the walls
+ * at least a move wide.
+ */
+public class MapGenerator {
+
+    /**
+     * How the NoFlyZones (and Sensors) are laid out
+     */
+    public enum Layout {
+        // Polygons and Sensors spread uniformly
+        SCATTERED,
+        // Polygons and Sensors grouped around a few centres
+        CLUSTERED,
+        // Walls of a randomly generated maze, with small gaps where walls meet
+        MAZE,
+        // Long bars leaving narrow winding corridors between them
+        CORRIDOR
+    }
+
+    // Give up placing a zone or point after this many attempts
+    private static final int MAX_ATTEMPTS = 10000;
+    // Fraction of the area covered by SCATTERED and CLUSTERED zones
+    private static final double COVERAGE = 0.2;
+    // Least distance between points and the NFZs
+    private static final double CLEARANCE = Constants.MAX_DISTANCE_FROM_SENSOR / 2;
+    // Words used to build W3W locations
+    private static final String[] WORDS = { "apple", "brick", "cloud", "drift", "ember", "frost", "grove", "harbor",
+            "ivory", "jolly", "koala", "lemon", "maple", "noble", "orbit", "pearl", "quill", "river", "stone",
+            "tulip", "umber", "vivid", "willow", "xenon", "yarn", "zebra", "amber", "bloom", "cedar", "dune", "echo",
+            "fable" };
+
+    private Random random;
+    private Layout layout;
+    private int numSensors;
+    private int numZones;
+    // Vertices of each SCATTERED or CLUSTERED zone
+    private int vertices;
+
+    // Bounds of the confinement area
+    private double minLng;
+    private double maxLng;
+    private double minLat;
+    private double maxLat;
+
+    // Zones placed so far, with the bounding circles of polygon zones
+    private List<List<Coordinate>> zones;
+    private List<double[]> circles;
+    // Centres of the clusters for CLUSTERED
+    private List<Coordinate> clusters;
+
+    public MapGenerator(long seed, Layout layout, int numSensors, int numZones) {
+
+        this.random = new Random(seed);
+        this.layout = layout;
+        this.numSensors = numSensors;
+        this.numZones = numZones;
+        this.vertices = 6;
+
+        var area = Constants.CONFINEMENT_AREA;
+        minLng = Math.min(area[0].getLongitude(), area[2].getLongitude());
+        maxLng = Math.max(area[0].getLongitude(), area[1].getLongitude());
+        minLat = Math.min(area[0].getLatitude(), area[2].getLatitude());
+        maxLat = Math.max(area[0].getLatitude(), area[2].getLatitude());
+
+    }
+
+    public void setVertices(int vertices) {
+        this.vertices = vertices;
+    }
+
+    /**
+     * @return a new map
+     * @throws IllegalArgumentException if the zones or points don't fit
+     */
+    public GeneratedMap generate() {
+
+        zones = new ArrayList<List<Coordinate>>();
+        circles = new ArrayList<double[]>();
+        clusters = new ArrayList<Coordinate>();
+
+        switch (layout) {
+        case CLUSTERED:
+            // Centres are kept away from the edges so the zones around them fit
+            var latMargin = (maxLat - minLat) / 4;
+            var lngMargin = (maxLng - minLng) / 4;
+            for (var i = 0; i < Math.max(1, (int) Math.round(Math.sqrt(numZones) / 2)); i++) {
+                clusters.add(new Coordinate(uniform(minLat + latMargin, maxLat - latMargin),
+                        uniform(minLng + lngMargin, maxLng - lngMargin)));
+            }
+            generatePolygons();
+            break;
+        case MAZE:
+            generateMaze();
+            break;
+        case CORRIDOR:
+            generateCorridors();
+            break;
+        default:
+            generatePolygons();
+        }
+
+        var NFZs = new ArrayList<NoFlyZone>();
+        for (var zone : zones) {
+            NFZs.add(new NoFlyZone(zone));
+        }
+
+        var sensors = new ArrayList<Sensor>();
+        for (var i = 0; i < numSensors; i++) {
+            var battery = Math.round(random.nextDouble() * 10000) / 100.0;
+            var reading = battery < 10 ? "null" : String.format(Locale.ROOT, "%.2f", random.nextDouble() * 255);
+            var sensor = new Sensor(location(i), battery, reading);
+            sensor.setCoordinate(freePoint());
+            sensors.add(sensor);
+        }
+
+        var startingPosition = new StartingPosition(freePoint());
+
+        return new GeneratedMap(sensors, NFZs, startingPosition);
+
+    }
+
+    /**
+     * Places numZones star shaped polygons whose bounding circles don't overlap
+     */
+    private void generatePolygons() {
+
+        var area = (maxLng - minLng) * (maxLat - minLat);
+        var radius = Math.min(Math.sqrt(area * COVERAGE / (numZones * Math.PI)), (maxLat - minLat) / 4);
+
+        for (var i = 0; i < numZones; i++) {
+
+            var placed = false;
+            for (var attempt = 0; attempt < MAX_ATTEMPTS && !placed; attempt++) {
+
+                var r = radius * uniform(0.6, 1.0);
+                double lat;
+                double lng;
+                if (clusters.isEmpty()) {
+                    lat = uniform(minLat + r, maxLat - r);
+                    lng = uniform(minLng + r, maxLng - r);
+                } else {
+                    var centre = clusters.get(random.nextInt(clusters.size()));
+                    var spread = Math.min(maxLat - minLat, maxLng - minLng) / 4;
+                    lat = centre.getLatitude() + random.nextGaussian() * spread;
+                    lng = centre.getLongitude() + random.nextGaussian() * spread;
+                    if (lat - r < minLat || lat + r > maxLat || lng - r < minLng || lng + r > maxLng) {
+                        continue;
+                    }
+                }
+
+                if (overlapsCircle(lat, lng, r)) {
+                    continue;
+                }
+
+                // Vertices at increasing angles with varying distances from the centre
+                var polygon = new ArrayList<Coordinate>();
+                var offset = random.nextDouble() * 2 * Math.PI;
+                for (var v = 0; v < vertices; v++) {
+                    var angle = offset + 2 * Math.PI * v / vertices;
+                    var d = r * uniform(0.6, 1.0);
+                    polygon.add(new Coordinate(lat + d * Math.sin(angle), lng + d * Math.cos(angle)));
+                }
+
+                zones.add(polygon);
+                circles.add(new double[] { lat, lng, r });
+                placed = true;
+            }
+
+            if (!placed) {
+                throw new IllegalArgumentException("Couldn't fit " + numZones + " no-fly zones");
+            }
+        }
+
+    }
+
+    private boolean overlapsCircle(double lat, double lng, double r) {
+        for (var c : circles) {
+            var gap = Math.hypot(lat - c[0], lng - c[1]) - r - c[2];
+            if (gap < Constants.MOVE_SIZE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Generates a maze by a random depth first search over a grid of cells, and
+     * adds a wall for every pair of neighbouring cells without a passage between
+     * them. The grid is sized so there are about numZones walls.
+     *
+     * @throws IllegalArgumentException if the passages would be narrower than a
+     *                                  move
+     */
+    private void generateMaze() {
+
+        // A cols x rows maze has (cols - 1) * (rows - 1) internal walls
+        var aspect = (maxLng - minLng) / (maxLat - minLat);
+        var rows = Math.max(2, (int) Math.round(Math.sqrt(numZones / aspect)) + 1);
+        var cols = Math.max(2, (int) Math.round((double) numZones / (rows - 1)) + 1);
+        var cellWidth = (maxLng - minLng) / cols;
+        var cellHeight = (maxLat - minLat) / rows;
+        var thickness = Math.min(cellWidth, cellHeight) * 0.15;
+        // Walls stop short of the grid corners so they never touch
+        var gap = thickness;
+
+        if (Math.min(cellWidth, cellHeight) - thickness - 2 * gap < Constants.MOVE_SIZE) {
+            throw new IllegalArgumentException("Couldn't fit " + numZones + " maze walls");
+        }
+
+        // open[x][y][0] is the passage east of cell (x, y), open[x][y][1] north
+        var open = new boolean[cols][rows][2];
+        var visited = new boolean[cols][rows];
+        var stack = new ArrayList<int[]>();
+        stack.add(new int[] { random.nextInt(cols), random.nextInt(rows) });
+        visited[stack.get(0)[0]][stack.get(0)[1]] = true;
+
+        while (!stack.isEmpty()) {
+            var cell = stack.get(stack.size() - 1);
+            var x = cell[0];
+            var y = cell[1];
+
+            var options = new ArrayList<int[]>();
+            if (x + 1 < cols && !visited[x + 1][y]) {
+                options.add(new int[] { x + 1, y });
+            }
+            if (x > 0 && !visited[x - 1][y]) {
+                options.add(new int[] { x - 1, y });
+            }
+            if (y + 1 < rows && !visited[x][y + 1]) {
+                options.add(new int[] { x, y + 1 });
+            }
+            if (y > 0 && !visited[x][y - 1]) {
+                options.add(new int[] { x, y - 1 });
+            }
+
+            if (options.isEmpty()) {
+                stack.remove(stack.size() - 1);
+                continue;
+            }
+
+            var next = options.get(random.nextInt(options.size()));
+            if (next[0] != x) {
+                open[Math.min(x, next[0])][y][0] = true;
+            } else {
+                open[x][Math.min(y, next[1])][1] = true;
+            }
+            visited[next[0]][next[1]] = true;
+            stack.add(next);
+        }
+
+        for (var x = 0; x < cols; x++) {
+            for (var y = 0; y < rows; y++) {
+                if (x + 1 < cols && !open[x][y][0]) {
+                    var lng = minLng + (x + 1) * cellWidth;
+                    zones.add(rectangle(minLat + y * cellHeight + gap, lng - thickness / 2,
+                            minLat + (y + 1) * cellHeight - gap, lng + thickness / 2));
+                }
+                if (y + 1 < rows && !open[x][y][1]) {
+                    var lat = minLat + (y + 1) * cellHeight;
+                    zones.add(rectangle(lat - thickness / 2, minLng + x * cellWidth + gap, lat + thickness / 2,
+                            minLng + (x + 1) * cellWidth - gap));
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Adds numZones vertical bars, each leaving an opening at alternate ends, so
+     * the free space is one winding corridor. The corridor is kept at least two
+     * moves wide so the drone can always get through.
+     */
+    private void generateCorridors() {
+
+        var band = (maxLng - minLng) / (numZones + 1);
+        var width = Math.max(band * 0.4, 2 * Constants.MOVE_SIZE);
+        var thickness = band - width;
+        var opening = Math.min(3 * Constants.MOVE_SIZE, (maxLat - minLat) / 5);
+
+        if (thickness < Constants.MOVE_SIZE / 2) {
+            throw new IllegalArgumentException("Couldn't fit " + numZones + " corridor walls");
+        }
+
+        for (var i = 0; i < numZones; i++) {
+            var lng = minLng + (i + 1) * band;
+            if (i % 2 == 0) {
+                zones.add(rectangle(minLat, lng - thickness / 2, maxLat - opening, lng + thickness / 2));
+            } else {
+                zones.add(rectangle(minLat + opening, lng - thickness / 2, maxLat, lng + thickness / 2));
+            }
+        }
+
+    }
+
+    private static List<Coordinate> rectangle(double lat1, double lng1, double lat2, double lng2) {
+        var rectangle = new ArrayList<Coordinate>();
+        rectangle.add(new Coordinate(lat1, lng1));
+        rectangle.add(new Coordinate(lat1, lng2));
+        rectangle.add(new Coordinate(lat2, lng2));
+        rectangle.add(new Coordinate(lat2, lng1));
+        return rectangle;
+    }
+
+    /**
+     * @return a random point inside the confinement area at least CLEARANCE away
+     *         from every zone, grouped around the clusters for CLUSTERED
+     */
+    private Coordinate freePoint() {
+
+        for (var attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+
+            double lat;
+            double lng;
+            if (clusters.isEmpty()) {
+                lat = uniform(minLat, maxLat);
+                lng = uniform(minLng, maxLng);
+            } else {
+                var centre = clusters.get(random.nextInt(clusters.size()));
+                var spread = Math.min(maxLat - minLat, maxLng - minLng) / 4;
+                lat = centre.getLatitude() + random.nextGaussian() * spread;
+                lng = centre.getLongitude() + random.nextGaussian() * spread;
+            }
+
+            if (lat - CLEARANCE > minLat && lat + CLEARANCE < maxLat && lng - CLEARANCE > minLng
+                    && lng + CLEARANCE < maxLng && isFree(lat, lng)) {
+                return new Coordinate(lat, lng);
+            }
+        }
+
+        throw new IllegalArgumentException("Couldn't find space for " + numSensors + " sensors");
+
+    }
+
+    private boolean isFree(double lat, double lng) {
+
+        var p = new Coordinate(lat, lng);
+        for (var zone : zones) {
+            for (var i = 0; i < zone.size(); i++) {
+                var a = zone.get(i);
+                var b = zone.get((i + 1) % zone.size());
+                if (Line2D.ptSegDist(a.getLongitude(), a.getLatitude(), b.getLongitude(), b.getLatitude(), lng,
+                        lat) < CLEARANCE) {
+                    return false;
+                }
+            }
+        }
+
+        // Points inside a zone are far from its edges, so check containment too
+        for (var zone : zones) {
+            if (contains(zone, p)) {
+                return false;
+            }
+        }
+        return true;
+
+    }
+
+    /**
+     * Ray casting point in polygon test
+     */
+    private static boolean contains(List<Coordinate> polygon, Coordinate p) {
+        var inside = false;
+        for (int i = 0, j = polygon.size() - 1; i < polygon.size(); j = i++) {
+            var a = polygon.get(i);
+            var b = polygon.get(j);
+            if ((a.getLatitude() > p.getLatitude()) != (b.getLatitude() > p.getLatitude())
+                    && p.getLongitude() < (b.getLongitude() - a.getLongitude()) * (p.getLatitude() - a.getLatitude())
+                            / (b.getLatitude() - a.getLatitude()) + a.getLongitude()) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    private double uniform(double min, double max) {
+        return min + random.nextDouble() * (max - min);
+    }
+
+    /**
+     * @param i
+     * @return a unique W3W style location for the ith Sensor
+     */
+    private static String location(int i) {
+        var n = WORDS.length;
+        var suffix = i / (n * n * n);
+        return WORDS[i % n] + "." + WORDS[(i / n) % n] + "." + WORDS[(i / (n * n)) % n] + (suffix > 0 ? suffix : "");
+    }
+
+    /**
+     * Writes a generated map in the webserver's layout. Usage: MapGenerator layout
+     * sensors zones seed directory [day month year]
+     *
+     * @param args
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+
+        var layout = Layout.valueOf(args[0].toUpperCase());
+        var generator = new MapGenerator(Long.parseLong(args[3]), layout, Integer.parseInt(args[1]),
+                Integer.parseInt(args[2]));
+        var map = generator.generate();
+
+        var day = args.length > 7 ? String.format("%02d", Integer.parseInt(args[5])) : "01";
+        var month = args.length > 7 ? String.format("%02d", Integer.parseInt(args[6])) : "01";
+        var year = args.length > 7 ? args[7] : "2020";
+        MapWriter.write(map, Paths.get(args[4]), year, month, day);
+
+        var start = map.getStartingPosition().getCoordinate();
+        System.out.println("Starting position: " + start.getLatitude() + " " + start.getLongitude());
+
+    }
+
+}
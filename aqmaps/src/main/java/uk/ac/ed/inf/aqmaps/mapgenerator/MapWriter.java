@@ -0,0 +1,109 @@
+package uk.ac.ed.inf.aqmaps.mapgenerator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.stream.JsonWriter;
+import com.mapbox.geojson.Feature;
+import com.mapbox.geojson.FeatureCollection;
+import com.mapbox.geojson.Point;
+import com.mapbox.geojson.Polygon;
+
+/**
+ * Writes a GeneratedMap as the files the webserver serves, so that a static file
+ * server on the directory can stand in for it:
+ *
+ * maps/yyyy/mm/dd/air-quality-data.json, words/first/second/third/details.json
+ * for every Sensor, and buildings/no-fly-zones.geojson.
+ */
+public class MapWriter {
+
+    /**
+     * @param map
+     * @param directory root of the files
+     * @param year
+     * @param month     two digits
+     * @param day       two digits
+     * @throws IOException
+     */
+    public static void write(GeneratedMap map, Path directory, String year, String month, String day)
+            throws IOException {
+
+        writeSensors(map, directory.resolve("maps").resolve(year).resolve(month).resolve(day));
+        writeWords(map, directory.resolve("words"));
+        writeNoFlyZones(map, directory.resolve("buildings"));
+
+    }
+
+    private static void writeSensors(GeneratedMap map, Path directory) throws IOException {
+
+        Files.createDirectories(directory);
+        try (var json = new JsonWriter(
+                Files.newBufferedWriter(directory.resolve("air-quality-data.json"), StandardCharsets.UTF_8))) {
+            json.setIndent("  ");
+            json.beginArray();
+            for (var sensor : map.getSensors()) {
+                json.beginObject();
+                json.name("location").value(sensor.getLocation());
+                json.name("battery").value(sensor.getBattery());
+                json.name("reading").value(sensor.getReading());
+                json.endObject();
+            }
+            json.endArray();
+        }
+
+    }
+
+    private static void writeWords(GeneratedMap map, Path directory) throws IOException {
+
+        for (var sensor : map.getSensors()) {
+            var words = sensor.getLocation().split("\\.");
+            var wordDirectory = directory.resolve(words[0]).resolve(words[1]).resolve(words[2]);
+            Files.createDirectories(wordDirectory);
+
+            try (var json = new JsonWriter(
+                    Files.newBufferedWriter(wordDirectory.resolve("details.json"), StandardCharsets.UTF_8))) {
+                json.setIndent("  ");
+                json.beginObject();
+                json.name("words").value(sensor.getLocation());
+                json.name("coordinates").beginObject();
+                json.name("lng").value(sensor.getCoordinate().getLongitude());
+                json.name("lat").value(sensor.getCoordinate().getLatitude());
+                json.endObject();
+                json.endObject();
+            }
+        }
+
+    }
+
+    private static void writeNoFlyZones(GeneratedMap map, Path directory) throws IOException {
+
+        var features = new ArrayList<Feature>();
+        var count = 0;
+        for (var NFZ : map.getNoFlyZones()) {
+
+            // The ring ends with its first point again
+            var ring = new ArrayList<Point>();
+            for (var vertex : NFZ.getVertices()) {
+                ring.add(vertex.getCoordinate().toGeoJson());
+            }
+            ring.add(ring.get(0));
+
+            var rings = new ArrayList<List<Point>>();
+            rings.add(ring);
+            var feature = Feature.fromGeometry(Polygon.fromLngLats(rings));
+            feature.addStringProperty("name", "zone-" + count++);
+            features.add(feature);
+        }
+
+        Files.createDirectories(directory);
+        Files.writeString(directory.resolve("no-fly-zones.geojson"), FeatureCollection.fromFeatures(features).toJson(),
+                StandardCharsets.UTF_8);
+
+    }
+
+}
@@ -0,0 +1,357 @@
+package uk.ac.ed.inf.aqmaps.movegenerator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import uk.ac.ed.inf.aqmaps.Constants;
+import uk.ac.ed.inf.aqmaps.Metrics;
+import uk.ac.ed.inf.aqmaps.mapdetails.Coordinate;
+import uk.ac.ed.inf.aqmaps.mapdetails.NoFlyZoneVertex;
+import uk.ac.ed.inf.aqmaps.mapdetails.Node;
+import uk.ac.ed.inf.aqmaps.mapdetails.Sensor;
+
+/**
+ * A* search over the lattice of positions reachable with the drone's 36 move
+ * directions.
+ *
+ * The cost of a state is the number of moves taken to reach it and the
+ * heuristic is the number of moves needed in a straight line to get within
+ * range of the target. States are deduplicated by rounding their position to
+ * a grid, keeping only the cheapest way of reaching each cell. Searched states
+ * are kept in parallel arrays (an arena), each pointing to its parent by index,
+ * and Move objects are only created for the path that is returned.
+ */
+public class AStarSearch {
+
+    // Size of the grid cells used to deduplicate states
+    private static final double CELL_SIZE = Constants.MOVE_SIZE / 10;
+    // Give up after expanding this many states
+    private static final int MAX_EXPANSIONS = 200000;
+    // Marks an empty slot of the hash table
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private MoveKernel kernel;
+    private Metrics metrics;
+
+    // Target of the current search and the distance within which it is reached
+    private Coordinate target;
+    private double range;
+
+    // Arena of states
+    private double[] lng;
+    private double[] lat;
+    private int[] parent;
+    private int[] angle;
+    private int[] g;
+    private int[] h;
+    // Straight line distance to the target
+    private double[] rest;
+    private int size;
+
+    // Binary heap of state indices ordered by f = g + h, then distance to the
+    // target, then index
+    private int[] heap;
+    private int heapSize;
+
+    // Open addressing hash table from grid cell to the lowest cost seen there
+    private long[] cellKeys;
+    private int[] cellCosts;
+    private int cellCount;
+
+    // States expanded by the last search
+    private int expansions;
+
+    /**
+     * @param kernel
+     * @param metrics where the expanded states are counted
+     */
+    public AStarSearch(MoveKernel kernel, Metrics metrics) {
+        this.kernel = kernel;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Searches for the shortest sequence of moves from start to within range of
+     * end
+     *
+     * @param start a Coordinate
+     * @param end   a Node
+     * @return the moves, or null if no path was found within the expansion limit
+     */
+    public List<Move> search(Coordinate start, Node end) {
+
+        reset();
+
+        if (end.withinRange(start)) {
+            return new ArrayList<Move>();
+        }
+
+        target = end.getCoordinate();
+        range = range(end);
+
+        var root = addState(start.getLongitude(), start.getLatitude(), -1, -1, 0,
+                distance(start.getLongitude(), start.getLatitude(), target));
+        recordCost(cellKey(lng[root], lat[root]), 0);
+        push(root);
+
+        while (heapSize > 0 && expansions < MAX_EXPANSIONS) {
+
+            var state = pop();
+
+            // Skip states that have since been reached more cheaply
+            if (g[state] > costOf(cellKey(lng[state], lat[state]))) {
+                continue;
+            }
+
+            // The same test as end.withinRange, without creating a Coordinate
+            if (state != root && distance(lng[state], lat[state], target) < range) {
+                metrics.add(Metrics.Counter.A_STAR_STATES_EXPANDED, expansions);
+                return toMoves(start, state);
+            }
+
+            expansions++;
+
+            for (var d = 0; d < MoveKernel.DIRECTIONS; d++) {
+
+                var a = d * 10;
+                var x = MoveKernel.endLongitude(lng[state], a);
+                var y = MoveKernel.endLatitude(lat[state], a);
+
+                var cost = g[state] + 1;
+                var key = cellKey(x, y);
+                if (cost >= costOf(key)) {
+                    continue;
+                }
+
+                if (!kernel.isValid(lng[state], lat[state], x, y)) {
+                    continue;
+                }
+
+                recordCost(key, cost);
+                push(addState(x, y, state, a, cost, distance(x, y, target)));
+            }
+        }
+
+        metrics.add(Metrics.Counter.A_STAR_STATES_EXPANDED, expansions);
+        return null;
+
+    }
+
+    /**
+     * @return the number of states expanded by the last search
+     */
+    public int getExpansions() {
+        return expansions;
+    }
+
+    /**
+     * Creates the moves leading to state, starting from start
+     */
+    private List<Move> toMoves(Coordinate start, int state) {
+
+        var angles = new ArrayList<Integer>();
+        while (parent[state] != -1) {
+            angles.add(angle[state]);
+            state = parent[state];
+        }
+        Collections.reverse(angles);
+
+        // Rebuild the moves from start so their positions chain exactly
+        var moves = new ArrayList<Move>();
+        var position = start;
+        for (var a : angles) {
+            var move = new Move(a, position);
+            moves.add(move);
+            position = move.getEndingPosition();
+        }
+        return moves;
+
+    }
+
+    private static double distance(double x, double y, Coordinate target) {
+        return Math.sqrt(Math.pow(x - target.getLongitude(), 2) + Math.pow(y - target.getLatitude(), 2));
+    }
+
+    /**
+     * @param distance straight line distance to the target
+     * @return the fewest moves that could get within range of the target
+     */
+    private int estimate(double distance) {
+        return (int) Math.max(0, Math.ceil((distance - range) / Constants.MOVE_SIZE));
+    }
+
+    /**
+     * @param node
+     * @return the distance within which the drone is in range of the node
+     */
+    private static double range(Node node) {
+        if (node instanceof Sensor) {
+            return Constants.MAX_DISTANCE_FROM_SENSOR;
+        }
+        if (node instanceof NoFlyZoneVertex) {
+            return Constants.MAX_DISTANCE_FROM_VERTEX;
+        }
+        return Constants.MAX_DISTANCE_FROM_START;
+    }
+
+    private void reset() {
+        if (lng == null) {
+            lng = new double[1024];
+            lat = new double[1024];
+            parent = new int[1024];
+            angle = new int[1024];
+            g = new int[1024];
+            h = new int[1024];
+            rest = new double[1024];
+            heap = new int[1024];
+            cellKeys = new long[2048];
+            cellCosts = new int[2048];
+        }
+        size = 0;
+        heapSize = 0;
+        cellCount = 0;
+        expansions = 0;
+        Arrays.fill(cellKeys, EMPTY);
+    }
+
+    private int addState(double x, double y, int parentState, int a, int cost, double distance) {
+
+        if (size == lng.length) {
+            var capacity = size * 2;
+            lng = Arrays.copyOf(lng, capacity);
+            lat = Arrays.copyOf(lat, capacity);
+            parent = Arrays.copyOf(parent, capacity);
+            angle = Arrays.copyOf(angle, capacity);
+            g = Arrays.copyOf(g, capacity);
+            h = Arrays.copyOf(h, capacity);
+            rest = Arrays.copyOf(rest, capacity);
+        }
+
+        lng[size] = x;
+        lat[size] = y;
+        parent[size] = parentState;
+        angle[size] = a;
+        g[size] = cost;
+        h[size] = estimate(distance);
+        rest[size] = distance;
+        return size++;
+
+    }
+
+    // Heap operations
+
+    private boolean before(int s, int t) {
+        var fs = g[s] + h[s];
+        var ft = g[t] + h[t];
+        if (fs != ft) {
+            return fs < ft;
+        }
+        if (rest[s] != rest[t]) {
+            return rest[s] < rest[t];
+        }
+        return s < t;
+    }
+
+    private void push(int state) {
+
+        if (heapSize == heap.length) {
+            heap = Arrays.copyOf(heap, heapSize * 2);
+        }
+
+        var i = heapSize++;
+        while (i > 0) {
+            var p = (i - 1) / 2;
+            if (!before(state, heap[p])) {
+                break;
+            }
+            heap[i] = heap[p];
+            i = p;
+        }
+        heap[i] = state;
+
+    }
+
+    private int pop() {
+
+        var top = heap[0];
+        var last = heap[--heapSize];
+
+        var i = 0;
+        while (true) {
+            var child = 2 * i + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && before(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!before(heap[child], last)) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        if (heapSize > 0) {
+            heap[i] = last;
+        }
+
+        return top;
+
+    }
+
+    // Hash table operations
+
+    private static long cellKey(double x, double y) {
+        var ix = (long) Math.floor(x / CELL_SIZE);
+        var iy = (long) Math.floor(y / CELL_SIZE);
+        return (ix << 32) ^ (iy & 0xffffffffL);
+    }
+
+    private int slot(long key) {
+        var hash = key * 0x9E3779B97F4A7C15L;
+        var mask = cellKeys.length - 1;
+        var i = (int) (hash >>> 32) & mask;
+        while (cellKeys[i] != EMPTY && cellKeys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * @return the lowest cost recorded for the cell, or Integer.MAX_VALUE
+     */
+    private int costOf(long key) {
+        var i = slot(key);
+        return cellKeys[i] == EMPTY ? Integer.MAX_VALUE : cellCosts[i];
+    }
+
+    private void recordCost(long key, int cost) {
+
+        var i = slot(key);
+        if (cellKeys[i] == EMPTY) {
+            cellKeys[i] = key;
+            cellCount++;
+        }
+        cellCosts[i] = cost;
+
+        // Keep the table at most half full
+        if (cellCount * 2 > cellKeys.length) {
+            var oldKeys = cellKeys;
+            var oldCosts = cellCosts;
+            cellKeys = new long[oldKeys.length * 2];
+            cellCosts = new int[oldKeys.length * 2];
+            Arrays.fill(cellKeys, EMPTY);
+            for (var j = 0; j < oldKeys.length; j++) {
+                if (oldKeys[j] != EMPTY) {
+                    var k = slot(oldKeys[j]);
+                    cellKeys[k] = oldKeys[j];
+                    cellCosts[k] = oldCosts[j];
+                }
+            }
+        }
+
+    }
+
+}
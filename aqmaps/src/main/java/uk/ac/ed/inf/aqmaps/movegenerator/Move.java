@@ -9,7 +9,6 @@ import com.mapbox.geojson.Geometry;
 import com.mapbox.geojson.LineString;
 import com.mapbox.geojson.Point;
 
-import uk.ac.ed.inf.aqmaps.Constants;
 import uk.ac.ed.inf.aqmaps.mapdetails.Coordinate;
 
 /**
@@ -26,11 +25,26 @@ public class Move {
     private Coordinate start;
     private Coordinate end;
 
+    /**
+     * @param angle a multiple of 10 degrees from 0 to 350
+     * @param start
+     * @throws IllegalArgumentException if the drone can't move at angle
+     */
     public Move(int angle, Coordinate start) {
+        this(checkAngle(angle), start, new Coordinate(MoveKernel.endLatitude(start.getLatitude(), angle),
+                MoveKernel.endLongitude(start.getLongitude(), angle)));
+    }
+
+    /**
+     * @param angle
+     * @param start
+     * @param end   where a move of MOVE_SIZE at angle from start ends
+     */
+    public Move(int angle, Coordinate start, Coordinate end) {
         this.angle = angle;
         this.start = start;
         this.W3Wlocation = "null";
-        this.end = start.move(angle, Constants.MOVE_SIZE);
+        this.end = end;
     }
 
     public int getAngle() {
@@ -79,4 +93,16 @@ public class Move {
         return feature;
     }
 
+    /**
+     * @param angle
+     * @return angle, if it is one of the directions the drone can move in
+     * @throws IllegalArgumentException otherwise
+     */
+    private static int checkAngle(int angle) {
+        if (angle < 0 || angle >= 360 || angle % 10 != 0) {
+            throw new IllegalArgumentException("Invalid move angle " + angle);
+        }
+        return angle;
+    }
+
 }
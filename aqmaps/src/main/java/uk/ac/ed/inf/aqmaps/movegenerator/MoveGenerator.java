@@ -5,8 +5,10 @@ import java.util.ArrayList;
 import java.util.List;
 
 import uk.ac.ed.inf.aqmaps.Constants;
+import uk.ac.ed.inf.aqmaps.Metrics;
 import uk.ac.ed.inf.aqmaps.mapdetails.Coordinate;
 import uk.ac.ed.inf.aqmaps.mapdetails.NoFlyZone;
+import uk.ac.ed.inf.aqmaps.mapdetails.NoFlyZoneIndex;
 import uk.ac.ed.inf.aqmaps.mapdetails.Node;
 import uk.ac.ed.inf.aqmaps.mapdetails.Sensor;
 
@@ -16,18 +18,84 @@ import uk.ac.ed.inf.aqmaps.mapdetails.Sensor;
 
 public class MoveGenerator {
 
+    /**
+     * The search used to find the moves from one node to the next
+     */
+    public enum Search {
+        // beamSearch, narrowing the beam at each layer, with AStarSearch for the
+        // legs it gives up on
+        BEAM,
+        // AStarSearch, which gives up after a fixed number of expansions
+        A_STAR
+    }
+
     // Keeps track if we have moved since our last sensor reading
     private boolean movedSinceLastReading;
     private List<Node> nodes;
-    private List<NoFlyZone> NFZs;
+    private NoFlyZoneIndex noFlyZoneIndex;
+    // Checks moves without creating them
+    private MoveKernel kernel;
     // Current list of moves
     private List<Move> moves;
+    // Sensors read so far, in the order they were read
+    private List<Sensor> readSensors;
+    // Whether to set the visited field of each Sensor as it is read
+    private boolean markVisited;
+    private Search search;
+    // Created on first use and reused for every leg
+    private AStarSearch aStarSearch;
+    // Nodes or states expanded by the searches of the current leg
+    private int legExpansions;
+    private Metrics metrics;
 
     public MoveGenerator(List<Node> nodes, List<NoFlyZone> NFZs) {
+        this(nodes, new NoFlyZoneIndex(NFZs));
+    }
+
+    public MoveGenerator(List<Node> nodes, NoFlyZoneIndex noFlyZoneIndex) {
+        this(nodes, noFlyZoneIndex, true);
+    }
+
+    /**
+     * @param nodes
+     * @param noFlyZoneIndex
+     * @param markVisited    false to leave the Sensors unchanged, so that several
+     *                       MoveGenerators can share them across threads
+     */
+    public MoveGenerator(List<Node> nodes, NoFlyZoneIndex noFlyZoneIndex, boolean markVisited) {
+        this(nodes, noFlyZoneIndex, markVisited, Search.BEAM);
+    }
+
+    /**
+     * @param nodes
+     * @param noFlyZoneIndex
+     * @param markVisited    false to leave the Sensors unchanged, so that several
+     *                       MoveGenerators can share them across threads
+     * @param search         the search used between nodes
+     */
+    public MoveGenerator(List<Node> nodes, NoFlyZoneIndex noFlyZoneIndex, boolean markVisited, Search search) {
+        this(nodes, noFlyZoneIndex, markVisited, search, new Metrics());
+    }
+
+    /**
+     * @param nodes
+     * @param noFlyZoneIndex
+     * @param markVisited    false to leave the Sensors unchanged, so that several
+     *                       MoveGenerators can share them across threads
+     * @param search         the search used between nodes
+     * @param metrics        the metrics of the run the moves are for
+     */
+    public MoveGenerator(List<Node> nodes, NoFlyZoneIndex noFlyZoneIndex, boolean markVisited, Search search,
+            Metrics metrics) {
         this.nodes = nodes;
-        this.NFZs = NFZs;
+        this.search = search;
+        this.noFlyZoneIndex = noFlyZoneIndex;
+        this.metrics = metrics;
+        this.kernel = new MoveKernel(noFlyZoneIndex, metrics);
+        this.markVisited = markVisited;
         this.movedSinceLastReading = false;
         this.moves = new ArrayList<Move>();
+        this.readSensors = new ArrayList<Sensor>();
         generateMoves();
 
     }
@@ -36,21 +104,38 @@ public class MoveGenerator {
         return moves;
     }
 
+    public List<Sensor> getReadSensors() {
+        return readSensors;
+    }
+
     /**
      * Converts the list of nodes to a list of Moves
      */
     private void generateMoves() {
 
+        var start = Metrics.start();
+
         for (var i = 1; i < nodes.size(); i++) {
+            // Stop between legs if the plan has been cancelled
+            if (Thread.currentThread().isInterrupted()) {
+                throw new IllegalStateException("Interrupted while generating moves");
+            }
             addMovesToNextNode(nodes.get(i));
         }
 
+        kernel.flushMetrics();
+        metrics.stop(Metrics.Phase.MOVE_GENERATION, start);
+
     }
 
     /**
-     * Adds the moves from our current position to the next node
+     * Adds the moves from our current position to the next node. A Sensor the
+     * search can't reach is left out of the flight, as if it had been removed to
+     * keep within the move limit, and the flight carries on to the node after it.
      * 
      * @param next Node
+     * @throws IllegalStateException if next is the StartingPosition and the search
+     *                               can't reach it
      */
     private void addMovesToNextNode(Node next) {
 
@@ -62,10 +147,17 @@ public class MoveGenerator {
             // start is the ending position of the drones last move
             currentPosition = moves.get(moves.size() - 1).getEndingPosition();
         }
-        // If we aren't within range of next, perform beamSearch to get a path from
-        // start to next node
+        // If we aren't within range of next, search for a path from start to next
+        // node
         if (!next.withinRange(currentPosition)) {
-            var newMoves = beamSearch(currentPosition, next);
+            var newMoves = search(currentPosition, next);
+            if (newMoves == null) {
+                if (next instanceof Sensor) {
+                    return;
+                }
+                throw new IllegalStateException(
+                        "No moves found from " + currentPosition + " to " + next.getCoordinate());
+            }
             this.moves.addAll(newMoves);
             // Update movedSinceLastScan as we have moved again
             movedSinceLastReading = true;
@@ -92,21 +184,72 @@ public class MoveGenerator {
                 }
             }
             // Update our last move to contain the sensors location
-            // and set the sensor's visited value to true and set movedSinceLastReading back
+            // and record the sensor as read and set movedSinceLastReading back
             // to false
             moves.get(moves.size() - 1).setW3Wlocation(sensor.getLocation());
-            sensor.setVisited(true);
+            readSensors.add(sensor);
+            if (markVisited) {
+                sensor.setVisited(true);
+            }
             movedSinceLastReading = false;
         }
 
     }
 
     /**
-     * Searches for a sequence of moves from the start to end Coordinate
+     * Searches for a sequence of moves from the start to end Coordinate using the
+     * chosen search. If beam search gives up, AStarSearch tries the leg instead.
+     * 
+     * @param start a Coordinate
+     * @param end   a Coordinate
+     * @return a list of moves from the start to the end Coordinate, or null if the
+     *         search gives up without reaching end
+     */
+    private List<Move> search(Coordinate start, Node end) {
+
+        var event = new SearchLegEvent();
+        event.begin();
+        legExpansions = 0;
+
+        List<Move> newMoves = null;
+        if (search == Search.BEAM) {
+            newMoves = beamSearch(start, end);
+        }
+        if (newMoves == null) {
+            if (aStarSearch == null) {
+                aStarSearch = new AStarSearch(kernel, metrics);
+            }
+            newMoves = aStarSearch.search(start, end);
+            legExpansions += aStarSearch.getExpansions();
+        }
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.search = search.name();
+            event.startLatitude = start.getLatitude();
+            event.startLongitude = start.getLongitude();
+            event.target = end instanceof Sensor ? ((Sensor) end).getLocation() : end.getClass().getSimpleName();
+            event.targetLatitude = end.getCoordinate().getLatitude();
+            event.targetLongitude = end.getCoordinate().getLongitude();
+            event.expansions = legExpansions;
+            event.moves = newMoves == null ? 0 : newMoves.size();
+            event.commit();
+        }
+
+        return newMoves;
+
+    }
+
+    /**
+     * Searches for a sequence of moves from the start to end Coordinate. Once the
+     * beam has narrowed to one leaf it can go back and forth forever in front of
+     * a NFZ, so the search gives up after MAX_BEAM_LAYERS layers.
      * 
      * @param start a Coordinate
      * @param end   a Coordinate
-     * @return a list of moves from the start to the end Coordinate
+     * @return a list of moves from the start to the end Coordinate, or null if end
+     *         isn't reached within MAX_BEAM_LAYERS moves or there are no valid
+     *         moves left
      */
     private List<Move> beamSearch(Coordinate start, Node end) {
 
@@ -127,9 +270,12 @@ public class MoveGenerator {
         // nextLeaves will hold the leaves in the layer after leaves
         var nextLeaves = new ArrayList<TreeNode>();
 
-        while (true) {
+        var expanded = 0;
+
+        for (var layer = 0; layer < Constants.MAX_BEAM_LAYERS && !leaves.isEmpty(); layer++) {
 
             for (TreeNode leaf : leaves) {
+                expanded++;
                 // For each leaf calculate beamWidth moves
                 List<Move> moves;
                 if (leaf == root) {
@@ -147,6 +293,8 @@ public class MoveGenerator {
                 // predecessors Moves
                 for (var child : leaf.getChildren()) {
                     if (end.withinRange(child.getMove().getEndingPosition())) {
+                        metrics.add(Metrics.Counter.BEAM_NODES_EXPANDED, expanded);
+                        legExpansions += expanded;
                         return child.getMoves();
                     }
                 }
@@ -163,6 +311,10 @@ public class MoveGenerator {
 
         }
 
+        metrics.add(Metrics.Counter.BEAM_NODES_EXPANDED, expanded);
+        legExpansions += expanded;
+        return null;
+
     }
 
     /**
@@ -184,13 +336,8 @@ public class MoveGenerator {
         // round angle to nearest 10 degrees
         var rounded = ((int) Math.round(angle / 10.0) * 10) % 360;
 
-        // Create a move in this direction
-        var move = new Move(rounded, start);
-
-        // If valid then add it to moves
-        if (tryMove(move)) {
-            moves.add(move);
-        }
+        // If a move in this direction is valid then add it to moves
+        tryMove(moves, start, rounded);
 
         // Initialise angles for the next possible moves
         var up = (rounded + 10) % 360;
@@ -201,23 +348,16 @@ public class MoveGenerator {
         // Stop when we have enough Moves
         while (moves.size() < numMoves) {
 
-            var upMove = new Move(up, start);
-            var downMove = new Move(down, start);
-
-            // if up is closer to actual angle try upMove first
+            // if up is closer to actual angle try up first
             if (Math.abs(up - angle) < Math.abs(down - angle)) {
-                if (tryMove(upMove)) {
-                    moves.add(upMove);
-                }
-                if (moves.size() < numMoves && tryMove(downMove)) {
-                    moves.add(downMove);
+                tryMove(moves, start, up);
+                if (moves.size() < numMoves) {
+                    tryMove(moves, start, down);
                 }
-            } else { // Otherwise try downMove first
-                if (tryMove(downMove)) {
-                    moves.add(downMove);
-                }
-                if (moves.size() < numMoves && tryMove(upMove)) {
-                    moves.add(upMove);
+            } else { // Otherwise try down first
+                tryMove(moves, start, down);
+                if (moves.size() < numMoves) {
+                    tryMove(moves, start, up);
                 }
             }
 
@@ -236,23 +376,24 @@ public class MoveGenerator {
     }
 
     /**
-     * @param move
-     * @return true if the move is valid i.e. it doesn't cross any NFZs or leave the
-     *         confinement area
+     * Adds the move from start at the given angle to moves if it is valid i.e. it
+     * doesn't cross any NFZs or leave the confinement area. The Move is only
+     * created if it is valid.
+     *
+     * @param moves
+     * @param start a Coordinate
+     * @param angle a multiple of 10 degrees
      */
-    private boolean tryMove(Move move) {
-
-        // Check the move doesn't leave the confinement area
-        for (var i = 0; i < Constants.CONFINEMENT_AREA.length; i++) {
-            if (Coordinate.linesIntersect(move.getStartingPosition(), move.getEndingPosition(),
-                    Constants.CONFINEMENT_AREA[i],
-                    Constants.CONFINEMENT_AREA[(i + 1) % Constants.CONFINEMENT_AREA.length])) {
-                return false;
-            }
-        }
+    private void tryMove(List<Move> moves, Coordinate start, int angle) {
+
+        var x = start.getLongitude();
+        var y = start.getLatitude();
+        var endX = MoveKernel.endLongitude(x, angle);
+        var endY = MoveKernel.endLatitude(y, angle);
 
-        // Check the move doesn't enter any NFZs
-        return !NoFlyZone.intersectsNoFlyZones(move.getStartingPosition(), move.getEndingPosition(), NFZs);
+        if (kernel.isValid(x, y, endX, endY)) {
+            moves.add(new Move(angle, start, new Coordinate(endY, endX)));
+        }
 
     }
 
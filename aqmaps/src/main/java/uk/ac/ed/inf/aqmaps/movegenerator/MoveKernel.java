@@ -0,0 +1,109 @@
+package uk.ac.ed.inf.aqmaps.movegenerator;
+
+import java.awt.geom.Line2D;
+
+import uk.ac.ed.inf.aqmaps.Constants;
+import uk.ac.ed.inf.aqmaps.Metrics;
+import uk.ac.ed.inf.aqmaps.mapdetails.NoFlyZoneIndex;
+
+/**
+ * Works out and checks the drone's moves using plain (longitude, latitude)
+ * values.
+ *
+ * The change in position for each of the 36 directions is computed once, so a
+ * move needs no trig calls and no Coordinate objects. The positions are exactly
+ * the ones Coordinate.move gives.
+ */
+public class MoveKernel {
+
+    // Number of move directions (every 10 degrees)
+    public static final int DIRECTIONS = 36;
+
+    // Change in longitude and latitude of a move at angle d * 10
+    private static final double[] DX = new double[DIRECTIONS];
+    private static final double[] DY = new double[DIRECTIONS];
+
+    static {
+        for (var d = 0; d < DIRECTIONS; d++) {
+            var angle = d * 10;
+            DX[d] = Constants.MOVE_SIZE * Math.cos(angle * Math.PI / 180);
+            DY[d] = Constants.MOVE_SIZE * Math.sin(angle * Math.PI / 180);
+        }
+    }
+
+    private NoFlyZoneIndex noFlyZoneIndex;
+    private Metrics metrics;
+
+    // Corners of the confinement area
+    private double[] areaX;
+    private double[] areaY;
+
+    // Confinement area edge tests not yet added to the metrics
+    private long tests;
+
+    /**
+     * @param noFlyZoneIndex
+     * @param metrics        where the edge tests are counted
+     */
+    public MoveKernel(NoFlyZoneIndex noFlyZoneIndex, Metrics metrics) {
+
+        this.noFlyZoneIndex = noFlyZoneIndex;
+        this.metrics = metrics;
+
+        var area = Constants.CONFINEMENT_AREA;
+        areaX = new double[area.length];
+        areaY = new double[area.length];
+        for (var i = 0; i < area.length; i++) {
+            areaX[i] = area[i].getLongitude();
+            areaY[i] = area[i].getLatitude();
+        }
+
+    }
+
+    /**
+     * @param longitude where the move starts
+     * @param angle     a multiple of 10 degrees
+     * @return the longitude the move ends at
+     */
+    public static double endLongitude(double longitude, int angle) {
+        return longitude + DX[angle / 10];
+    }
+
+    /**
+     * @param latitude where the move starts
+     * @param angle    a multiple of 10 degrees
+     * @return the latitude the move ends at
+     */
+    public static double endLatitude(double latitude, int angle) {
+        return latitude + DY[angle / 10];
+    }
+
+    /**
+     * @return true if the move from (x1, y1) to (x2, y2) is valid i.e. it doesn't
+     *         cross any NFZs or leave the confinement area
+     */
+    public boolean isValid(double x1, double y1, double x2, double y2) {
+
+        // Check the move doesn't leave the confinement area
+        for (var i = 0; i < areaX.length; i++) {
+            var j = (i + 1) % areaX.length;
+            tests++;
+            if (Line2D.linesIntersect(x1, y1, x2, y2, areaX[i], areaY[i], areaX[j], areaY[j])) {
+                return false;
+            }
+        }
+
+        // Check the move doesn't enter any NFZs
+        return !noFlyZoneIndex.intersects(x1, y1, x2, y2, metrics);
+
+    }
+
+    /**
+     * Adds the confinement area edge tests made so far to the metrics
+     */
+    public void flushMetrics() {
+        metrics.add(Metrics.Counter.LINES_INTERSECT, tests);
+        tests = 0;
+    }
+
+}
@@ -0,0 +1,44 @@
+package uk.ac.ed.inf.aqmaps.movegenerator;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for the search of the moves from one node of the tour
+ * to the next
+ */
+@Name("uk.ac.ed.inf.aqmaps.SearchLeg")
+@Label("Search Leg")
+@Description("Search for the moves from the drone's position to the next node of the tour")
+@Category({ "AQMaps", "Move Generation" })
+class SearchLegEvent extends jdk.jfr.Event {
+
+    @Label("Search")
+    String search;
+
+    @Label("Start Latitude")
+    double startLatitude;
+
+    @Label("Start Longitude")
+    double startLongitude;
+
+    @Label("Target")
+    @Description("W3W location of the target Sensor, or the kind of node")
+    String target;
+
+    @Label("Target Latitude")
+    double targetLatitude;
+
+    @Label("Target Longitude")
+    double targetLongitude;
+
+    @Label("Expansions")
+    @Description("Beam search nodes or A* states expanded")
+    int expansions;
+
+    @Label("Moves")
+    int moves;
+
+}
@@ -0,0 +1,337 @@
+package uk.ac.ed.inf.aqmaps.tourfinder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import uk.ac.ed.inf.aqmaps.Metrics;
+import uk.ac.ed.inf.aqmaps.mapdetails.Node;
+
+/**
+ * Shortest distances and next hops between every pair of NFZ vertices, so paths
+ * round the NFZs can be found without searching the VisibilityGraph.
+ *
+ * The NFZs are the same every day, so the tables are built once, saved, and
+ * memory mapped on later runs. A path between two other nodes is the shortest
+ * of the paths leaving from a NFZ vertex visible from the first and arriving at
+ * one visible from the second.
+ *
+ * The file holds a header (magic number, number of vertices and the
+ * fingerprint of the NFZs they came from) followed by the distances and then
+ * the next hops, each as an n by n table. Row i of a table is about the paths
+ * to vertex i: entry j is the distance from vertex j to vertex i, or the vertex
+ * after j on the way to i (-1 if there is none). A buffer can hold at most 2
+ * GB, so the tables fit up to about 13000 vertices.
+ */
+public class DistanceOracle {
+
+    // Identifies the file and its format version
+    private static final int MAGIC = 0x4E465A44;
+    // Magic number, number of vertices, fingerprint and padding, so the tables
+    // start on an 8 byte boundary
+    private static final int HEADER_SIZE = 24;
+    // Largest file a single buffer can map
+    private static final long MAX_SIZE = Integer.MAX_VALUE;
+
+    private VisibilityGraph visibilityGraph;
+    private List<Node> nodes;
+    private int n;
+    private long fingerprint;
+    // The whole file, or the same bytes in memory if it was just built
+    private ByteBuffer buffer;
+    private DoubleBuffer distances;
+    private IntBuffer nextHops;
+    // NFZ vertices visible from each endpoint asked about so far. The keys are
+    // weak, so the Sensors of finished plans can still be collected.
+    private Map<Node, int[]> visible;
+
+    private DistanceOracle(VisibilityGraph visibilityGraph, ByteBuffer buffer) {
+        this.visibilityGraph = visibilityGraph;
+        this.nodes = visibilityGraph.getNodes();
+        this.buffer = buffer;
+        this.visible = Collections.synchronizedMap(new WeakHashMap<Node, int[]>());
+        this.n = buffer.getInt(4);
+        this.fingerprint = buffer.getLong(8);
+        this.distances = buffer.duplicate().position(HEADER_SIZE).slice().asDoubleBuffer();
+        this.nextHops = buffer.duplicate().position(HEADER_SIZE + 8 * n * n).slice().asIntBuffer();
+    }
+
+    /**
+     * Runs Dijkstra's algorithm from every NFZ vertex to fill the tables
+     *
+     * @param visibilityGraph
+     * @return the DistanceOracle for the NFZs of visibilityGraph
+     * @throws IllegalArgumentException if there are too many NFZ vertices for the
+     *                                  tables to fit in a buffer
+     */
+    public static DistanceOracle build(VisibilityGraph visibilityGraph) {
+
+        var n = visibilityGraph.getNodes().size();
+        if (size(n) > MAX_SIZE) {
+            throw new IllegalArgumentException("Too many NFZ vertices (" + n + ") for a DistanceOracle");
+        }
+        var buffer = ByteBuffer.allocate((int) size(n));
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, n);
+        buffer.putLong(8, visibilityGraph.getNoFlyZoneIndex().getFingerprint());
+        var oracle = new DistanceOracle(visibilityGraph, buffer);
+
+        // In the tree from vertex i, the vertex before j is the one after j on the
+        // way back to i
+        var tree = new ShortestPathTree(visibilityGraph, null);
+        var dist = new double[n];
+        var previous = new int[n];
+        var distances = oracle.distances.duplicate();
+        var nextHops = oracle.nextHops.duplicate();
+        for (var i = 0; i < n; i++) {
+            Arrays.fill(dist, Double.POSITIVE_INFINITY);
+            Arrays.fill(previous, -1);
+            dist[i] = 0;
+            tree.search(dist, previous);
+            // Rows are written in order
+            distances.put(dist);
+            nextHops.put(previous);
+        }
+
+        return oracle;
+
+    }
+
+    /**
+     * Memory maps a file written by write
+     *
+     * @param file
+     * @param visibilityGraph the graph of the NFZs the file was built for
+     * @return the DistanceOracle
+     * @throws IOException if the file can't be read or was built for other NFZs
+     */
+    public static DistanceOracle load(java.nio.file.Path file, VisibilityGraph visibilityGraph) throws IOException {
+
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+
+            var n = visibilityGraph.getNodes().size();
+            if (size(n) > MAX_SIZE) {
+                throw new IOException("Too many NFZ vertices (" + n + ") for a DistanceOracle");
+            }
+            if (channel.size() != size(n)) {
+                throw new IOException("Distance file " + file + " is for a different number of NFZ vertices");
+            }
+
+            // The mapping stays valid after the channel is closed
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != n) {
+                throw new IOException("Distance file " + file + " is damaged");
+            }
+            if (buffer.getLong(8) != visibilityGraph.getNoFlyZoneIndex().getFingerprint()) {
+                throw new IOException("Distance file " + file + " is for different NFZs");
+            }
+
+            return new DistanceOracle(visibilityGraph, buffer);
+
+        }
+
+    }
+
+    /**
+     * Loads the file if it matches the NFZs, and otherwise builds the tables and
+     * saves them to the file for next time
+     *
+     * @param file
+     * @param visibilityGraph
+     * @return the DistanceOracle
+     * @throws IllegalArgumentException if there are too many NFZ vertices for the
+     *                                  tables to fit in a buffer
+     */
+    public static DistanceOracle loadOrBuild(java.nio.file.Path file, VisibilityGraph visibilityGraph) {
+
+        if (Files.exists(file)) {
+            try {
+                return load(file, visibilityGraph);
+            } catch (IOException e) {
+                // Out of date or damaged, so build it again
+            }
+        }
+
+        var oracle = build(visibilityGraph);
+        try {
+            oracle.write(file);
+        } catch (IOException e) {
+            System.out.println("Failed to write to file.");
+            e.printStackTrace();
+        }
+        return oracle;
+
+    }
+
+    /**
+     * Saves the tables, replacing the file in one step so a reader never sees it
+     * half written
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void write(java.nio.file.Path file) throws IOException {
+
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+
+        var temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (var channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            var bytes = buffer.duplicate().clear();
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+
+    }
+
+    /**
+     * @return the fingerprint of the NFZs the tables were built for
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    VisibilityGraph getVisibilityGraph() {
+        return visibilityGraph;
+    }
+
+    /**
+     * Finds the shortest path from start to end, leaving from a NFZ vertex start
+     * can see and arriving at one end can see, or going straight there if end is
+     * visible
+     *
+     * @param start   a Node that is not a NFZ vertex
+     * @param end     a Node that is not a NFZ vertex
+     * @param metrics where the edge tests are counted, or null
+     * @return a Path
+     */
+    public Path bestPath(Node start, Node end, Metrics metrics) {
+
+        var nodesInPath = new ArrayList<Node>();
+        nodesInPath.add(start);
+
+        if (start == end) {
+            return new Path(nodesInPath, 0.0);
+        }
+
+        if (visibilityGraph.isVisible(start, end, metrics)) {
+            nodesInPath.add(end);
+            return new Path(nodesInPath, start.getCoordinate().euclideanDistance(end.getCoordinate()));
+        }
+
+        var entry = new int[n];
+        var dist = new double[n];
+        distancesFrom(start, visibleNodes(start, metrics), dist, entry);
+
+        var destination = end.getCoordinate();
+        var last = -1;
+        var cost = Double.POSITIVE_INFINITY;
+        for (var i : visibleNodes(end, metrics)) {
+            var alt = dist[i] + nodes.get(i).getCoordinate().euclideanDistance(destination);
+            if (alt < cost) {
+                cost = alt;
+                last = i;
+            }
+        }
+
+        if (last == -1) {
+            throw new IllegalStateException("No path between " + start.getCoordinate() + " and " + destination);
+        }
+
+        addRoute(nodesInPath, entry[last], last);
+        nodesInPath.add(end);
+        return new Path(nodesInPath, cost);
+
+    }
+
+    /**
+     * @param endpoint a Node that is not a NFZ vertex
+     * @param metrics  where the edge tests are counted, or null
+     * @return the indices of the NFZ vertices visible from endpoint, found the
+     *         first time it is asked about
+     */
+    private int[] visibleNodes(Node endpoint, Metrics metrics) {
+
+        var result = visible.get(endpoint);
+        if (result == null) {
+            result = visibilityGraph.visibleNodes(endpoint, metrics);
+            visible.put(endpoint, result);
+        }
+        return result;
+
+    }
+
+    /**
+     * Finds the shortest distance from source to every NFZ vertex, going first to
+     * one of the vertices it can see
+     *
+     * @param source  a Node that is not a NFZ vertex
+     * @param visible the indices of the NFZ vertices source can see
+     * @param dist    filled with the distance to each NFZ vertex
+     * @param entry   filled with the visible vertex each shortest path goes to
+     *                first, or -1 if there is no path
+     */
+    void distancesFrom(Node source, int[] visible, double[] dist, int[] entry) {
+
+        var origin = source.getCoordinate();
+        var first = new double[visible.length];
+        for (var k = 0; k < visible.length; k++) {
+            first[k] = origin.euclideanDistance(nodes.get(visible[k]).getCoordinate());
+        }
+
+        for (var i = 0; i < n; i++) {
+            var best = Double.POSITIVE_INFINITY;
+            var bestEntry = -1;
+            var row = i * n;
+            for (var k = 0; k < visible.length; k++) {
+                var alt = first[k] + distances.get(row + visible[k]);
+                if (alt < best) {
+                    best = alt;
+                    bestEntry = visible[k];
+                }
+            }
+            dist[i] = best;
+            entry[i] = bestEntry;
+        }
+
+    }
+
+    /**
+     * Adds the NFZ vertices on the shortest path between two of them to
+     * nodesInPath, including both ends
+     *
+     * @param nodesInPath
+     * @param from        index of a NFZ vertex
+     * @param to          index of a NFZ vertex
+     */
+    void addRoute(List<Node> nodesInPath, int from, int to) {
+        nodesInPath.add(nodes.get(from));
+        for (var i = from; i != to;) {
+            i = nextHops.get(to * n + i);
+            nodesInPath.add(nodes.get(i));
+        }
+    }
+
+    /**
+     * @return the number of bytes in a file for n vertices
+     */
+    private static long size(int n) {
+        return HEADER_SIZE + 12L * n * n;
+    }
+
+}
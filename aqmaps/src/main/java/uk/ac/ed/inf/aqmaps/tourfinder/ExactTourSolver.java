@@ -0,0 +1,339 @@
+package uk.ac.ed.inf.aqmaps.tourfinder;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Finds the cheapest tour on a distance matrix, in the same form as
+ * MatrixTourOptimizer: nodes are the indices 0 to n-1, the distance from i to j
+ * is dist[i * n + j] and a tour is an int array holding each index once.
+ *
+ * Up to maxExactNodes nodes the Held-Karp dynamic program is used, which is
+ * always optimal. It needs 2^(n-1) * (n-1) doubles, so 20 nodes take 80 MB and
+ * every node more doubles that. Subsets of the same size don't depend on each
+ * other, so each size is filled in on the common ForkJoinPool. That pool is
+ * shared, so solving from several threads at once doesn't start a pool each.
+ *
+ * Above that, a depth first branch and bound improves on a given tour until it
+ * is proven optimal or the time limit runs out. The lower bound counts half of
+ * the two cheapest edges at each node still to be visited, which assumes the
+ * distances are symmetric.
+ */
+public class ExactTourSolver {
+
+    // Number of branch and bound nodes between checks of the clock
+    private static final int CLOCK_INTERVAL = 4096;
+
+    private int n;
+    private double[] dist;
+    private int maxExactNodes;
+    private long timeLimitNanos;
+
+    // Whether the last tour found is known to be optimal
+    private boolean optimal;
+    private double bestCost;
+
+    // Branch and bound state
+    private int[] best;
+    private int[] path;
+    private boolean[] visited;
+    // Other nodes of each node in order of distance
+    private int[][] nearest;
+    // Cheapest edge and sum of the two cheapest edges at each node
+    private double[] cheapest;
+    private double[] twoCheapest;
+    private long deadline;
+    private long expanded;
+    private boolean timedOut;
+
+    /**
+     * @param dist            distances between the nodes
+     * @param n               number of nodes
+     * @param maxExactNodes   most nodes solved by Held-Karp
+     * @param timeLimitMillis how long branch and bound runs for
+     */
+    public ExactTourSolver(double[] dist, int n, int maxExactNodes, long timeLimitMillis) {
+        this.n = n;
+        this.dist = dist;
+        this.maxExactNodes = maxExactNodes;
+        this.timeLimitNanos = timeLimitMillis * 1000000;
+    }
+
+    /**
+     * @param initial a tour to improve on if there are too many nodes for
+     *                Held-Karp
+     * @return the cheapest tour found, starting at node 0
+     */
+    public int[] solve(int[] initial) {
+        if (n <= maxExactNodes) {
+            return heldKarp();
+        }
+        return branchAndBound(initial);
+    }
+
+    /**
+     * @return true if the last tour found is optimal, which is always the case for
+     *         Held-Karp, and for branch and bound if it finished in time
+     */
+    public boolean isOptimal() {
+        return optimal;
+    }
+
+    /**
+     * @return the cost of the last tour found
+     */
+    public double getBestCost() {
+        return bestCost;
+    }
+
+    /**
+     * Held-Karp with node 0 as the start. Nodes 1 to n-1 are the bits 0 to n-2 of
+     * a subset, and cost[subset * m + j] is the cheapest path from node 0 through
+     * every node of the subset ending at node j + 1.
+     *
+     * @return the optimal tour
+     */
+    private int[] heldKarp() {
+
+        optimal = true;
+        var tour = new int[n];
+        if (n <= 3) {
+            for (var i = 0; i < n; i++) {
+                tour[i] = i;
+            }
+            bestCost = cost(tour);
+            return tour;
+        }
+
+        var m = n - 1;
+        var cost = new double[(1 << m) * m];
+        Arrays.fill(cost, Double.POSITIVE_INFINITY);
+        for (var j = 0; j < m; j++) {
+            cost[(1 << j) * m + j] = dist[j + 1];
+        }
+
+        // Fill the subsets in order of size, each size on several threads
+        for (var size = 2; size <= m; size++) {
+            ForkJoinPool.commonPool().invoke(new SubsetTask(cost, m, size, 1, 1 << m));
+        }
+
+        // Close the tour back to node 0
+        var all = (1 << m) - 1;
+        var last = 0;
+        bestCost = Double.POSITIVE_INFINITY;
+        for (var j = 0; j < m; j++) {
+            var total = cost[all * m + j] + dist[(j + 1) * n];
+            if (total < bestCost) {
+                bestCost = total;
+                last = j;
+            }
+        }
+
+        // Walk back through the table. The entry each one was computed from gives
+        // exactly the same sum again.
+        var subset = all;
+        for (var position = n - 1; position > 0; position--) {
+            tour[position] = last + 1;
+            var rest = subset & ~(1 << last);
+            var previous = -1;
+            var previousCost = Double.POSITIVE_INFINITY;
+            for (var k = 0; k < m; k++) {
+                if ((rest & (1 << k)) != 0) {
+                    var through = cost[rest * m + k] + dist[(k + 1) * n + last + 1];
+                    if (through < previousCost) {
+                        previousCost = through;
+                        previous = k;
+                    }
+                }
+            }
+            subset = rest;
+            last = previous;
+        }
+        tour[0] = 0;
+
+        return tour;
+
+    }
+
+    /**
+     * Fills the Held-Karp entries of the subsets of one size between lo
+     * (inclusive) and hi (exclusive), splitting the range between threads. Each
+     * subset only reads the entries of the subsets one smaller.
+     */
+    private class SubsetTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        // Subsets per task below which the range isn't split
+        private static final int THRESHOLD = 1 << 12;
+
+        private double[] cost;
+        private int m;
+        private int size;
+        private int lo;
+        private int hi;
+
+        SubsetTask(double[] cost, int m, int size, int lo, int hi) {
+            this.cost = cost;
+            this.m = m;
+            this.size = size;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+
+            if (hi - lo > THRESHOLD) {
+                var mid = (lo + hi) >>> 1;
+                invokeAll(new SubsetTask(cost, m, size, lo, mid), new SubsetTask(cost, m, size, mid, hi));
+                return;
+            }
+
+            for (var subset = lo; subset < hi; subset++) {
+                if (Integer.bitCount(subset) != size) {
+                    continue;
+                }
+                for (var j = 0; j < m; j++) {
+                    if ((subset & (1 << j)) == 0) {
+                        continue;
+                    }
+                    var rest = subset & ~(1 << j);
+                    var best = Double.POSITIVE_INFINITY;
+                    for (var k = 0; k < m; k++) {
+                        if ((rest & (1 << k)) != 0) {
+                            var through = cost[rest * m + k] + dist[(k + 1) * n + j + 1];
+                            if (through < best) {
+                                best = through;
+                            }
+                        }
+                    }
+                    cost[subset * m + j] = best;
+                }
+            }
+
+        }
+
+    }
+
+    /**
+     * @param initial a tour to start from
+     * @return the best tour found before the time limit, starting at node 0
+     */
+    private int[] branchAndBound(int[] initial) {
+
+        // Start from the initial tour rotated to begin at node 0
+        best = new int[n];
+        var start = 0;
+        while (initial[start] != 0) {
+            start++;
+        }
+        for (var i = 0; i < n; i++) {
+            best[i] = initial[(start + i) % n];
+        }
+        bestCost = cost(best);
+
+        nearest = new int[n][];
+        cheapest = new double[n];
+        twoCheapest = new double[n];
+        var remaining = 0.0;
+        for (var i = 0; i < n; i++) {
+            var others = new Integer[n - 1];
+            for (int j = 0, k = 0; j < n; j++) {
+                if (j != i) {
+                    others[k++] = j;
+                }
+            }
+            var from = i;
+            Arrays.sort(others, (a, b) -> Double.compare(dist[from * n + a], dist[from * n + b]));
+            nearest[i] = new int[n - 1];
+            for (var k = 0; k < n - 1; k++) {
+                nearest[i][k] = others[k];
+            }
+            cheapest[i] = dist[i * n + nearest[i][0]];
+            twoCheapest[i] = cheapest[i] + (n > 2 ? dist[i * n + nearest[i][1]] : cheapest[i]);
+            if (i != 0) {
+                remaining += twoCheapest[i];
+            }
+        }
+
+        path = new int[n];
+        visited = new boolean[n];
+        visited[0] = true;
+        deadline = System.nanoTime() + timeLimitNanos;
+        expanded = 0;
+        timedOut = false;
+
+        search(1, 0.0, remaining);
+        optimal = !timedOut;
+
+        return best;
+
+    }
+
+    /**
+     * Tries every unvisited node as the next one after path[depth - 1]
+     *
+     * @param depth     number of nodes in the path so far
+     * @param cost      cost of the path so far
+     * @param remaining sum of twoCheapest over the unvisited nodes
+     */
+    private void search(int depth, double cost, double remaining) {
+
+        var current = path[depth - 1];
+
+        if (depth == n) {
+            var total = cost + dist[current * n];
+            if (total < bestCost) {
+                bestCost = total;
+                System.arraycopy(path, 0, best, 0, n);
+            }
+            return;
+        }
+
+        if (++expanded % CLOCK_INTERVAL == 0 && System.nanoTime() > deadline) {
+            timedOut = true;
+        }
+        if (timedOut) {
+            return;
+        }
+
+        // Every unvisited node still needs two edges, and the ends one each
+        if (cost + (remaining + cheapest[current] + cheapest[0]) / 2 >= bestCost) {
+            return;
+        }
+
+        for (var next : nearest[current]) {
+            if (visited[next]) {
+                continue;
+            }
+            var step = cost + dist[current * n + next];
+            if (step >= bestCost) {
+                // The rest are further away
+                break;
+            }
+            visited[next] = true;
+            path[depth] = next;
+            search(depth + 1, step, remaining - twoCheapest[next]);
+            visited[next] = false;
+            if (timedOut) {
+                return;
+            }
+        }
+
+    }
+
+    /**
+     * @param tour
+     * @return the length of the tour including the edge back to the start
+     */
+    private double cost(int[] tour) {
+        var total = 0.0;
+        for (var i = 0; i < n; i++) {
+            total += dist[tour[i] * n + tour[(i + 1) % n]];
+        }
+        return total;
+    }
+
+}
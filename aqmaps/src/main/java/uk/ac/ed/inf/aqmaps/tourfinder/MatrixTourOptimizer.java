@@ -0,0 +1,260 @@
+package uk.ac.ed.inf.aqmaps.tourfinder;
+
+import java.util.Random;
+
+/**
+ * Computes a tour using 2-opt and Or-opt moves directly on a distance matrix.
+ *
+ * Nodes are the indices 0 to n-1 and the distance from i to j is dist[i * n +
+ * j]. A tour is an int array holding each index once, with the edge from the
+ * last index back to the first implied. All working arrays are allocated when
+ * the optimizer is created, so optimizing does not allocate.
+ */
+public class MatrixTourOptimizer {
+
+    // Improvements smaller than this are treated as rounding error
+    private static final double EPSILON = 1e-12;
+    // Longest segment moved by an Or-opt move
+    private static final int MAX_SEGMENT_LENGTH = 3;
+
+    private int n;
+    private double[] dist;
+    private Random random;
+
+    // Tour currently being improved and the best tour found so far
+    private int[] tour;
+    private int[] best;
+    private double bestCost;
+
+    // Holds the segment being moved by an Or-opt move
+    private int[] segment;
+
+    public MatrixTourOptimizer(double[] dist, int n, int seed) {
+        this.n = n;
+        this.dist = dist;
+        this.random = new Random(seed);
+        this.tour = new int[n];
+        this.best = new int[n];
+        this.segment = new int[MAX_SEGMENT_LENGTH];
+    }
+
+    /**
+     * Improves iterations random tours until neither move improves them, and
+     * returns the cheapest.
+     *
+     * @param iterations number of random starting tours (at least 1)
+     * @return the best tour found. The array is owned by the optimizer and is
+     *         overwritten by the next call.
+     */
+    public int[] optimize(int iterations) {
+
+        bestCost = Double.POSITIVE_INFINITY;
+
+        for (var i = 0; i < n; i++) {
+            tour[i] = i;
+        }
+
+        for (var it = 0; it < iterations; it++) {
+
+            shuffle();
+            improve(tour);
+
+            var cost = cost(tour);
+            if (cost < bestCost - EPSILON) {
+                bestCost = cost;
+                System.arraycopy(tour, 0, best, 0, n);
+            }
+        }
+
+        return best;
+
+    }
+
+    /**
+     * @return the cost of the tour returned by the last call to optimize
+     */
+    public double getBestCost() {
+        return bestCost;
+    }
+
+    /**
+     * Applies 2-opt and Or-opt moves to t until neither finds an improvement
+     *
+     * @param t a tour
+     */
+    public void improve(int[] t) {
+
+        if (n < 4) {
+            return;
+        }
+
+        var improved = true;
+        while (improved) {
+            improved = twoOpt(t);
+            improved |= orOpt(t);
+        }
+
+    }
+
+    /**
+     * Repeatedly replaces edges (a, b) and (c, d) with (a, c) and (b, d) by
+     * reversing the section between them, while that reduces the cost
+     *
+     * @param t a tour
+     * @return true if the tour was changed
+     */
+    public boolean twoOpt(int[] t) {
+
+        var changed = false;
+        var improved = true;
+
+        while (improved) {
+            improved = false;
+
+            for (var i = 0; i < n - 2; i++) {
+                var a = t[i];
+                var b = t[i + 1];
+                var dab = dist[a * n + b];
+
+                // When i is 0 the last edge shares node a, so stop one earlier
+                var last = i == 0 ? n - 2 : n - 1;
+                for (var j = i + 2; j <= last; j++) {
+                    var c = t[j];
+                    var d = t[(j + 1) % n];
+
+                    var delta = dist[a * n + c] + dist[b * n + d] - dab - dist[c * n + d];
+                    if (delta < -EPSILON) {
+                        reverse(t, i + 1, j);
+                        b = t[i + 1];
+                        dab = dist[a * n + b];
+                        improved = true;
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        return changed;
+
+    }
+
+    /**
+     * Repeatedly moves segments of up to three consecutive nodes to between two
+     * other adjacent nodes, in either orientation, while that reduces the cost
+     *
+     * @param t a tour
+     * @return true if the tour was changed
+     */
+    public boolean orOpt(int[] t) {
+
+        var changed = false;
+        var improved = true;
+
+        while (improved) {
+            improved = false;
+
+            for (var length = 1; length <= MAX_SEGMENT_LENGTH && length < n - 2; length++) {
+                for (var i = 0; i + length <= n; i++) {
+
+                    var first = t[i];
+                    var lastInSegment = t[i + length - 1];
+                    var prev = t[(i - 1 + n) % n];
+                    var next = t[(i + length) % n];
+
+                    // Saving from joining prev straight to next
+                    var removeGain = dist[prev * n + first] + dist[lastInSegment * n + next] - dist[prev * n + next];
+
+                    for (var j = 0; j < n; j++) {
+
+                        // Edge (p, q) must not touch the segment
+                        if (j >= i - 1 && j <= i + length - 1) {
+                            continue;
+                        }
+                        if (i == 0 && j == n - 1) {
+                            continue;
+                        }
+
+                        var p = t[j];
+                        var q = t[(j + 1) % n];
+                        var dpq = dist[p * n + q];
+
+                        var forward = dist[p * n + first] + dist[lastInSegment * n + q] - dpq;
+                        var reversed = dist[p * n + lastInSegment] + dist[first * n + q] - dpq;
+
+                        if (forward - removeGain < -EPSILON || reversed - removeGain < -EPSILON) {
+                            moveSegment(t, i, length, j, reversed < forward);
+                            improved = true;
+                            changed = true;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
+        return changed;
+
+    }
+
+    /**
+     * Moves t[i..i+length-1] to between t[j] and t[j+1]
+     */
+    private void moveSegment(int[] t, int i, int length, int j, boolean reversed) {
+
+        for (var k = 0; k < length; k++) {
+            segment[k] = reversed ? t[i + length - 1 - k] : t[i + k];
+        }
+
+        int start;
+        if (j > i) {
+            // Shift the nodes after the segment back
+            System.arraycopy(t, i + length, t, i, j - i - length + 1);
+            start = j - length + 1;
+        } else {
+            // Shift the nodes before the segment forward
+            System.arraycopy(t, j + 1, t, j + 1 + length, i - j - 1);
+            start = j + 1;
+        }
+
+        System.arraycopy(segment, 0, t, start, length);
+
+    }
+
+    /**
+     * Reverses t[from..to] inclusive
+     */
+    private static void reverse(int[] t, int from, int to) {
+        while (from < to) {
+            var tmp = t[from];
+            t[from] = t[to];
+            t[to] = tmp;
+            from++;
+            to--;
+        }
+    }
+
+    /**
+     * Shuffles tour in place (Fisher-Yates)
+     */
+    private void shuffle() {
+        for (var i = n - 1; i > 0; i--) {
+            var j = random.nextInt(i + 1);
+            var tmp = tour[i];
+            tour[i] = tour[j];
+            tour[j] = tmp;
+        }
+    }
+
+    /**
+     * @param t a tour
+     * @return the total cost of t, including the edge back to the start
+     */
+    public double cost(int[] t) {
+        var total = 0.0;
+        for (var i = 0; i < n; i++) {
+            total += dist[t[i] * n + t[(i + 1) % n]];
+        }
+        return total;
+    }
+
+}
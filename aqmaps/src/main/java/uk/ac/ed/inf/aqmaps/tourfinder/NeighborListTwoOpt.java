@@ -0,0 +1,311 @@
+package uk.ac.ed.inf.aqmaps.tourfinder;
+
+import java.util.Arrays;
+
+/**
+ * A 2-opt local search for large numbers of nodes.
+ *
+ * Only the k nearest neighbours of each node are considered as the new
+ * endpoint of an edge, and nodes whose surroundings have not changed since
+ * they last failed to improve are skipped (don't-look bits). A pass therefore
+ * takes time roughly proportional to n * k instead of n^2.
+ *
+ * Nodes are the indices 0 to n-1 and the distance from i to j is dist[i * n +
+ * j], which must be symmetric.
+ */
+public class NeighborListTwoOpt {
+
+    // Improvements smaller than this are treated as rounding error
+    private static final double EPSILON = 1e-12;
+
+    private int n;
+    private double[] dist;
+    private int k;
+
+    // The k nearest neighbours of node i are neighbors[i * k] to
+    // neighbors[i * k + k - 1], closest first
+    private int[] neighbors;
+
+    // tour[p] is the node at position p and pos[node] is its position
+    private int[] tour;
+    private int[] pos;
+
+    // Nodes waiting to be looked at, as a circular queue. A node's don't-look bit
+    // is set while it is not in the queue.
+    private boolean[] dontLook;
+    private int[] queue;
+    private int queueHead;
+    private int queueSize;
+
+    public NeighborListTwoOpt(double[] dist, int n, int k) {
+        this.n = n;
+        this.dist = dist;
+        this.k = Math.max(0, Math.min(k, n - 1));
+        this.tour = new int[n];
+        this.pos = new int[n];
+        this.dontLook = new boolean[n];
+        this.queue = new int[n];
+        generateNeighbors();
+    }
+
+    /**
+     * Finds the k nearest neighbours of every node
+     */
+    private void generateNeighbors() {
+
+        neighbors = new int[n * k];
+        var best = new double[k];
+
+        for (var i = 0; i < n; i++) {
+
+            var found = 0;
+            var offset = i * k;
+
+            for (var j = 0; j < n; j++) {
+                if (j == i) {
+                    continue;
+                }
+
+                var d = dist[i * n + j];
+                if (found == k && d >= best[k - 1]) {
+                    continue;
+                }
+
+                // Insert j into the sorted list, dropping the furthest if it is full
+                var p = found < k ? found++ : k - 1;
+                while (p > 0 && best[p - 1] > d) {
+                    best[p] = best[p - 1];
+                    neighbors[offset + p] = neighbors[offset + p - 1];
+                    p--;
+                }
+                best[p] = d;
+                neighbors[offset + p] = j;
+            }
+        }
+
+    }
+
+    /**
+     * Builds a nearest neighbour tour from start and improves it with 2-opt
+     *
+     * @param start the node to build the initial tour from
+     * @return the improved tour. The array is owned by the optimizer and is
+     *         overwritten by the next call.
+     */
+    public int[] optimize(int start) {
+
+        nearestNeighborTour(start);
+        improve();
+        return tour;
+
+    }
+
+    /**
+     * Improves the given tour with 2-opt
+     *
+     * @param t a tour, which is copied
+     * @return the improved tour. The array is owned by the optimizer and is
+     *         overwritten by the next call.
+     */
+    public int[] optimize(int[] t) {
+
+        System.arraycopy(t, 0, tour, 0, n);
+        for (var p = 0; p < n; p++) {
+            pos[tour[p]] = p;
+        }
+        improve();
+        return tour;
+
+    }
+
+    /**
+     * Fills tour by repeatedly going to the closest unvisited node, using the
+     * neighbour lists where possible
+     *
+     * @param start the first node of the tour
+     */
+    private void nearestNeighborTour(int start) {
+
+        // Use dontLook to mark visited nodes while building
+        Arrays.fill(dontLook, false);
+
+        var current = start;
+        for (var p = 0; p < n; p++) {
+
+            tour[p] = current;
+            pos[current] = p;
+            dontLook[current] = true;
+
+            if (p == n - 1) {
+                break;
+            }
+
+            var next = -1;
+            for (var i = 0; i < k; i++) {
+                var candidate = neighbors[current * k + i];
+                if (!dontLook[candidate]) {
+                    next = candidate;
+                    break;
+                }
+            }
+
+            // All neighbours visited, so check every node
+            if (next == -1) {
+                var closest = Double.POSITIVE_INFINITY;
+                for (var j = 0; j < n; j++) {
+                    if (!dontLook[j] && dist[current * n + j] < closest) {
+                        closest = dist[current * n + j];
+                        next = j;
+                    }
+                }
+            }
+
+            current = next;
+        }
+
+    }
+
+    /**
+     * Applies improving 2-opt moves until no node in the queue finds one
+     */
+    private void improve() {
+
+        if (n < 4) {
+            return;
+        }
+
+        // Start with every node in the queue, in tour order
+        queueHead = 0;
+        queueSize = 0;
+        for (var p = 0; p < n; p++) {
+            dontLook[tour[p]] = true;
+            push(tour[p]);
+        }
+
+        while (queueSize > 0) {
+            var a = queue[queueHead];
+            queueHead = (queueHead + 1) % n;
+            queueSize--;
+            dontLook[a] = true;
+
+            improveNode(a);
+        }
+
+    }
+
+    /**
+     * Looks for an improving 2-opt move that removes one of the edges at a and
+     * adds an edge from a to one of its neighbours. Applies the first one found.
+     *
+     * @param a a node
+     * @return true if a move was made
+     */
+    private boolean improveNode(int a) {
+
+        // Try removing the edge to the successor, then the edge to the predecessor
+        for (var forward = 0; forward < 2; forward++) {
+
+            var b = forward == 0 ? successor(a) : predecessor(a);
+            var dab = dist[a * n + b];
+
+            for (var i = 0; i < k; i++) {
+                var c = neighbors[a * k + i];
+                var dac = dist[a * n + c];
+
+                // Neighbours are sorted, so no later one can give a gain either
+                if (dac >= dab) {
+                    break;
+                }
+
+                var d = forward == 0 ? successor(c) : predecessor(c);
+                if (c == b || d == a) {
+                    continue;
+                }
+
+                var delta = dac + dist[b * n + d] - dab - dist[c * n + d];
+                if (delta < -EPSILON) {
+
+                    // a b ... c d becomes a c ... b d
+                    // b a ... d c becomes b d ... a c
+                    if (forward == 0) {
+                        reverse(pos[b], pos[c]);
+                    } else {
+                        reverse(pos[a], pos[d]);
+                    }
+
+                    push(a);
+                    push(b);
+                    push(c);
+                    push(d);
+                    return true;
+                }
+            }
+        }
+
+        return false;
+
+    }
+
+    /**
+     * Adds node to the queue if its don't-look bit is set, clearing the bit
+     */
+    private void push(int node) {
+        if (dontLook[node]) {
+            dontLook[node] = false;
+            queue[(queueHead + queueSize) % n] = node;
+            queueSize++;
+        }
+    }
+
+    private int successor(int node) {
+        var p = pos[node] + 1;
+        return tour[p == n ? 0 : p];
+    }
+
+    private int predecessor(int node) {
+        var p = pos[node] - 1;
+        return tour[p < 0 ? n - 1 : p];
+    }
+
+    /**
+     * Reverses the part of the tour running forwards from position i to position
+     * j. If that is more than half of the tour, the rest of the tour is reversed
+     * instead, which gives the same cycle.
+     */
+    private void reverse(int i, int j) {
+
+        var length = (j - i + n) % n + 1;
+        if (length * 2 > n) {
+            var newI = (j + 1) % n;
+            j = (i - 1 + n) % n;
+            i = newI;
+            length = n - length;
+        }
+
+        for (var s = 0; s < length / 2; s++) {
+            var ni = tour[i];
+            var nj = tour[j];
+            tour[i] = nj;
+            pos[nj] = i;
+            tour[j] = ni;
+            pos[ni] = j;
+
+            i = i + 1 == n ? 0 : i + 1;
+            j = j == 0 ? n - 1 : j - 1;
+        }
+
+    }
+
+    /**
+     * @param t a tour
+     * @return the total cost of t, including the edge back to the start
+     */
+    public double cost(int[] t) {
+        var total = 0.0;
+        for (var i = 0; i < n; i++) {
+            total += dist[t[i] * n + t[(i + 1) % n]];
+        }
+        return total;
+    }
+
+}
@@ -0,0 +1,272 @@
+package uk.ac.ed.inf.aqmaps.tourfinder;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import uk.ac.ed.inf.aqmaps.mapdetails.Node;
+
+/**
+ * Keeps the Paths round the NFZs between pairs of coordinates in a binary file,
+ * so pairs of sensors that come up again on another day don't have to be
+ * searched for again.
+ *
+ * Entries are keyed by the coordinates of the two ends and the fingerprint of
+ * the NFZs, so a change to the NFZs never gives an old path. The NFZ vertices
+ * on a path are stored as their indices in the VisibilityGraph, and the ends
+ * are filled in with the nodes asked for. A pair is stored once for both
+ * directions.
+ *
+ * At most maxEntries are kept, dropping the least recently used. The file is
+ * read when the cache is opened and written when it is closed, from the least
+ * to the most recently used entry, so the order survives restarts. A damaged
+ * file is ignored, starting with an empty cache.
+ */
+public class PathCache {
+
+    // Identifies the file and its format version
+    private static final int MAGIC = 0x50415401;
+
+    private java.nio.file.Path file;
+
+    // Paths from the lower to the higher coordinate of each pair, in order of use
+    private LinkedHashMap<Key, CachedPath> entries;
+
+    /**
+     * The ends of a Path, lower coordinate first, and the NFZs it goes round
+     */
+    private static class Key {
+        private long fingerprint;
+        private double lat1;
+        private double lng1;
+        private double lat2;
+        private double lng2;
+
+        Key(long fingerprint, double lat1, double lng1, double lat2, double lng2) {
+            this.fingerprint = fingerprint;
+            this.lat1 = lat1;
+            this.lng1 = lng1;
+            this.lat2 = lat2;
+            this.lng2 = lng2;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            var other = (Key) obj;
+            return fingerprint == other.fingerprint && lat1 == other.lat1 && lng1 == other.lng1
+                    && lat2 == other.lat2 && lng2 == other.lng2;
+        }
+
+        @Override
+        public int hashCode() {
+            var hash = Long.hashCode(fingerprint);
+            hash = 31 * hash + Double.hashCode(lat1);
+            hash = 31 * hash + Double.hashCode(lng1);
+            hash = 31 * hash + Double.hashCode(lat2);
+            hash = 31 * hash + Double.hashCode(lng2);
+            return hash;
+        }
+    }
+
+    /**
+     * A cached Path
+     */
+    private static class CachedPath {
+        private double cost;
+        // Indices of the NFZ vertices between the ends
+        private int[] vertices;
+
+        CachedPath(double cost, int[] vertices) {
+            this.cost = cost;
+            this.vertices = vertices;
+        }
+    }
+
+    /**
+     * Opens the cache, reading file if it exists. A damaged last entry is
+     * dropped.
+     *
+     * @param file
+     * @param maxEntries the most Paths kept
+     * @throws IOException
+     */
+    public PathCache(java.nio.file.Path file, int maxEntries) throws IOException {
+
+        this.file = file;
+        this.entries = new LinkedHashMap<Key, CachedPath>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CachedPath> eldest) {
+                return size() > maxEntries;
+            }
+        };
+
+        load();
+
+    }
+
+    /**
+     * @param start
+     * @param end
+     * @param visibilityGraph the graph the Path would be found in
+     * @return the cached Path from start to end, or null if there isn't one
+     */
+    public synchronized Path get(Node start, Node end, VisibilityGraph visibilityGraph) {
+
+        var reversed = isReversed(start, end);
+        var key = key(start, end, reversed, visibilityGraph);
+        var entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+
+        var nodes = visibilityGraph.getNodes();
+        var nodesInPath = new ArrayList<Node>();
+        nodesInPath.add(start);
+        for (var k = 0; k < entry.vertices.length; k++) {
+            var i = reversed ? entry.vertices[entry.vertices.length - 1 - k] : entry.vertices[k];
+            if (i >= nodes.size()) {
+                // A damaged entry, as the graph for these NFZs has no such vertex
+                entries.remove(key);
+                return null;
+            }
+            nodesInPath.add(nodes.get(i));
+        }
+        nodesInPath.add(end);
+
+        return new Path(nodesInPath, entry.cost);
+
+    }
+
+    /**
+     * @param path            a Path between two nodes that are not NFZ vertices,
+     *                        found in visibilityGraph
+     * @param visibilityGraph
+     */
+    public synchronized void put(Path path, VisibilityGraph visibilityGraph) {
+
+        var nodesInPath = path.getNodes();
+        var start = nodesInPath.get(0);
+        var end = nodesInPath.get(nodesInPath.size() - 1);
+        var reversed = isReversed(start, end);
+
+        var vertices = new int[nodesInPath.size() - 2];
+        for (var k = 0; k < vertices.length; k++) {
+            var node = nodesInPath.get(reversed ? nodesInPath.size() - 2 - k : k + 1);
+            vertices[k] = visibilityGraph.indexOf(node);
+        }
+
+        entries.put(key(start, end, reversed, visibilityGraph), new CachedPath(path.getCost(), vertices));
+
+    }
+
+    /**
+     * @return the number of Paths in the cache
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Writes the cache to its file
+     *
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+
+        var temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            for (var e : entries.entrySet()) {
+                var key = e.getKey();
+                var entry = e.getValue();
+                out.writeLong(key.fingerprint);
+                out.writeDouble(key.lat1);
+                out.writeDouble(key.lng1);
+                out.writeDouble(key.lat2);
+                out.writeDouble(key.lng2);
+                out.writeDouble(entry.cost);
+                out.writeInt(entry.vertices.length);
+                for (var i : entry.vertices) {
+                    out.writeInt(i);
+                }
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+
+    }
+
+    private void load() throws IOException {
+
+        if (!Files.exists(file)) {
+            return;
+        }
+
+        // The whole file is read first, so the lengths can be checked against what
+        // is left of it
+        try (var in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file)))) {
+
+            if (in.readInt() != MAGIC) {
+                return;
+            }
+
+            // Read until the end of the file, putting the entries back in the same order
+            while (in.available() > 0) {
+                var key = new Key(in.readLong(), in.readDouble(), in.readDouble(), in.readDouble(),
+                        in.readDouble());
+                var cost = in.readDouble();
+                var length = in.readInt();
+                if (length < 0 || (long) length * 4 > in.available()) {
+                    throw new IOException("Damaged path cache " + file);
+                }
+                var vertices = new int[length];
+                for (var k = 0; k < vertices.length; k++) {
+                    vertices[k] = in.readInt();
+                    if (vertices[k] < 0) {
+                        throw new IOException("Damaged path cache " + file);
+                    }
+                }
+                entries.put(key, new CachedPath(cost, vertices));
+            }
+
+        } catch (IOException e) {
+            // Truncated or damaged, so none of the entries are trusted
+            entries.clear();
+        }
+
+    }
+
+    /**
+     * @return true if end has the lower coordinate, so the stored Path goes from
+     *         end to start
+     */
+    private static boolean isReversed(Node start, Node end) {
+        var c1 = start.getCoordinate();
+        var c2 = end.getCoordinate();
+        var c = Double.compare(c1.getLatitude(), c2.getLatitude());
+        return c > 0 || (c == 0 && Double.compare(c1.getLongitude(), c2.getLongitude()) > 0);
+    }
+
+    private static Key key(Node start, Node end, boolean reversed, VisibilityGraph visibilityGraph) {
+        var c1 = reversed ? end.getCoordinate() : start.getCoordinate();
+        var c2 = reversed ? start.getCoordinate() : end.getCoordinate();
+        return new Key(visibilityGraph.getNoFlyZoneIndex().getFingerprint(), c1.getLatitude(), c1.getLongitude(),
+                c2.getLatitude(), c2.getLongitude());
+    }
+
+}
@@ -0,0 +1,341 @@
+package uk.ac.ed.inf.aqmaps.tourfinder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+import uk.ac.ed.inf.aqmaps.mapdetails.Node;
+
+/**
+ * Finds which pairs of NFZ vertices can see each other using Lee's rotational
+ * sweep, in O(n^2 log n) time for n vertices.
+ *
+ * For each vertex v, the other vertices are visited in order of their angle
+ * around v. A ray from v sweeps round through them, and the NFZ edges it
+ * crosses are kept in a TreeSet ordered by their distance along the ray. A
+ * vertex is visible if the nearest of those edges is further away than it.
+ *
+ * Degenerate cases are checked exactly with VisibilityGraph.isVisible: vertices
+ * at the same angle as another vertex, and vertices almost exactly as far away
+ * as the nearest edge. If the NFZs touch or overlap, every pair is checked
+ * exactly.
+ */
+class RotationalSweep {
+
+    // Relative difference in distance treated as a tie
+    private static final double EPSILON = 1e-9;
+
+    private VisibilityGraph graph;
+    private List<Node> nodes;
+
+    // Coordinates of the nodes
+    private double[] x;
+    private double[] y;
+
+    // Endpoints of the NFZ edges, as indices into nodes
+    private int[] edgeA;
+    private int[] edgeB;
+    // Vector along each edge from edgeA to edgeB
+    private double[] edgeX;
+    private double[] edgeY;
+    // Cross product of the vector from the sweep position to edgeA with the edge
+    // vector, which is the same for every ray of a sweep
+    private double[] numerator;
+    // Indices of the edges at each node
+    private int[][] incident;
+
+    // Position of the current sweep and direction of its ray
+    private double px;
+    private double py;
+    private double dx;
+    private double dy;
+
+    /**
+     * @param graph    used for the exact checks
+     * @param nodes    the NFZ vertices
+     * @param NfzEdges the edges of the NFZs, between nodes
+     */
+    RotationalSweep(VisibilityGraph graph, List<Node> nodes, List<Edge> NfzEdges) {
+
+        this.graph = graph;
+        this.nodes = nodes;
+
+        var n = nodes.size();
+        x = new double[n];
+        y = new double[n];
+        var indices = new IdentityHashMap<Node, Integer>();
+        for (var i = 0; i < n; i++) {
+            x[i] = nodes.get(i).getCoordinate().getLongitude();
+            y[i] = nodes.get(i).getCoordinate().getLatitude();
+            indices.put(nodes.get(i), i);
+        }
+
+        var m = NfzEdges.size();
+        edgeA = new int[m];
+        edgeB = new int[m];
+        edgeX = new double[m];
+        edgeY = new double[m];
+        numerator = new double[m];
+        var degree = new int[n];
+        for (var e = 0; e < m; e++) {
+            edgeA[e] = indices.get(NfzEdges.get(e).getNode1());
+            edgeB[e] = indices.get(NfzEdges.get(e).getNode2());
+            edgeX[e] = x[edgeB[e]] - x[edgeA[e]];
+            edgeY[e] = y[edgeB[e]] - y[edgeA[e]];
+            degree[edgeA[e]]++;
+            degree[edgeB[e]]++;
+        }
+        incident = new int[n][];
+        for (var i = 0; i < n; i++) {
+            incident[i] = new int[degree[i]];
+            degree[i] = 0;
+        }
+        for (var e = 0; e < m; e++) {
+            incident[edgeA[e]][degree[edgeA[e]]++] = e;
+            incident[edgeB[e]][degree[edgeB[e]]++] = e;
+        }
+
+    }
+
+    /**
+     * @return visible pairs, with bit i * n + j set if node i can see node j
+     *         (only for i < j)
+     */
+    BitSet visiblePairs() {
+
+        var n = nodes.size();
+        var visible = new BitSet(n * n);
+
+        if (isDegenerate()) {
+            for (var i = 0; i < n; i++) {
+                for (var j = i + 1; j < n; j++) {
+                    if (graph.isVisible(nodes.get(i), nodes.get(j))) {
+                        visible.set(i * n + j);
+                    }
+                }
+            }
+            return visible;
+        }
+
+        for (var i = 0; i < n; i++) {
+            if (!sweep(i, visible)) {
+                // The status lost track of an edge, so check this vertex exactly
+                for (var j = i + 1; j < n; j++) {
+                    visible.set(i * n + j, graph.isVisible(nodes.get(i), nodes.get(j)));
+                }
+            }
+        }
+
+        return visible;
+
+    }
+
+    /**
+     * @return true if an NFZ edge touches another edge it doesn't share an
+     *         endpoint with, which is also the case when a vertex lies on an edge
+     *         it isn't part of
+     */
+    private boolean isDegenerate() {
+
+        var index = graph.getNoFlyZoneIndex();
+        for (var e = 0; e < edgeA.length; e++) {
+            var a = nodes.get(edgeA[e]);
+            var b = nodes.get(edgeB[e]);
+            if (index.intersects(a.getCoordinate(), b.getCoordinate(), a, b)) {
+                return true;
+            }
+        }
+        return false;
+
+    }
+
+    /**
+     * Sweeps round node v, setting the bits of the nodes after it that it can see
+     *
+     * @param v
+     * @param visible
+     * @return false if the sweep went wrong because of rounding
+     */
+    private boolean sweep(int v, BitSet visible) {
+
+        var n = nodes.size();
+        px = x[v];
+        py = y[v];
+
+        // Other nodes in order of angle from the positive x direction, then distance
+        var order = new Integer[n - 1];
+        for (int i = 0, k = 0; i < n; i++) {
+            if (i != v) {
+                order[k++] = i;
+            }
+        }
+        Arrays.sort(order, (a, b) -> {
+            var c = compareAngle(a, b);
+            return c != 0 ? c : Double.compare(distanceSq(a), distanceSq(b));
+        });
+
+        // Edges crossing the initial ray, pointing along the positive x direction
+        dx = 1;
+        dy = 0;
+        var status = new TreeSet<Integer>(this::compareEdges);
+        for (var e = 0; e < edgeA.length; e++) {
+            var a = edgeA[e];
+            var b = edgeB[e];
+            numerator[e] = (x[a] - px) * edgeY[e] - (y[a] - py) * edgeX[e];
+            if (a == v || b == v) {
+                continue;
+            }
+            if (Math.min(y[a], y[b]) < py && py <= Math.max(y[a], y[b])
+                    && x[a] + (py - y[a]) * (x[b] - x[a]) / (y[b] - y[a]) > px) {
+                status.add(e);
+            }
+        }
+
+        var removed = new ArrayList<Integer>();
+        for (var k = 0; k < order.length; k++) {
+
+            var w = order[k];
+            dx = x[w] - px;
+            dy = y[w] - py;
+
+            // Nodes sharing their angle with another node are checked exactly
+            var collinear = (k > 0 && compareAngle(order[k - 1], w) == 0)
+                    || (k + 1 < order.length && compareAngle(order[k + 1], w) == 0);
+
+            // Remove the edges the ray is leaving
+            removed.clear();
+            for (var e : incident[w]) {
+                var o = other(e, w);
+                if (o != v && orientation(w, o) < 0) {
+                    removed.add(e);
+                }
+            }
+            for (var e : removed) {
+                if (!status.remove(e)) {
+                    return false;
+                }
+            }
+
+            if (w > v) {
+                boolean isVisible;
+                if (collinear) {
+                    isVisible = graph.isVisible(nodes.get(v), nodes.get(w));
+                } else if (status.isEmpty()) {
+                    isVisible = true;
+                } else {
+                    // Distance of the nearest edge as a multiple of the distance to w
+                    var nearest = along(status.first());
+                    if (Math.abs(nearest - 1) < EPSILON) {
+                        isVisible = graph.isVisible(nodes.get(v), nodes.get(w));
+                    } else {
+                        isVisible = nearest > 1;
+                    }
+                }
+                if (isVisible && graph.isOutside(nodes.get(v), nodes.get(w))) {
+                    visible.set(v * n + w);
+                }
+            }
+
+            // Add the edges the ray is entering
+            for (var e : incident[w]) {
+                var o = other(e, w);
+                if (o != v && orientation(w, o) > 0) {
+                    status.add(e);
+                }
+            }
+
+        }
+
+        return true;
+
+    }
+
+    private int other(int edge, int node) {
+        return edgeA[edge] == node ? edgeB[edge] : edgeA[edge];
+    }
+
+    private double distanceSq(int i) {
+        return (x[i] - px) * (x[i] - px) + (y[i] - py) * (y[i] - py);
+    }
+
+    /**
+     * @return positive if o is anticlockwise of the ray through w, negative if
+     *         clockwise and zero if it is on the line
+     */
+    private double orientation(int w, int o) {
+        return (x[w] - px) * (y[o] - py) - (y[w] - py) * (x[o] - px);
+    }
+
+    /**
+     * Compares the angles of nodes a and b around the sweep position, measured
+     * anticlockwise from the positive x direction
+     */
+    private int compareAngle(int a, int b) {
+        var ax = x[a] - px;
+        var ay = y[a] - py;
+        var bx = x[b] - px;
+        var by = y[b] - py;
+        var upperA = ay > 0 || (ay == 0 && ax > 0);
+        var upperB = by > 0 || (by == 0 && bx > 0);
+        if (upperA != upperB) {
+            return upperA ? -1 : 1;
+        }
+        var cross = ax * by - ay * bx;
+        return cross > 0 ? -1 : cross < 0 ? 1 : 0;
+    }
+
+    /**
+     * @return distance along the current ray at which it crosses the edge, as a
+     *         multiple of the ray's length
+     */
+    private double along(int e) {
+        var denominator = dx * edgeY[e] - dy * edgeX[e];
+        if (denominator == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return numerator[e] / denominator;
+    }
+
+    /**
+     * Orders the edges crossed by the current ray by their distance along it.
+     * Edges meeting at a vertex on the ray are ordered by which is nearer just
+     * beside it: e is nearer if it separates the sweep position from f.
+     */
+    private int compareEdges(int e, int f) {
+
+        if (e == f) {
+            return 0;
+        }
+
+        var shared = -1;
+        if (edgeA[e] == edgeA[f] || edgeA[e] == edgeB[f]) {
+            shared = edgeA[e];
+        } else if (edgeB[e] == edgeA[f] || edgeB[e] == edgeB[f]) {
+            shared = edgeB[e];
+        }
+
+        var se = along(e);
+        var sf = along(f);
+        if (shared != -1 && Math.abs(se - sf) <= EPSILON * Math.max(Math.abs(se), Math.abs(sf))) {
+            var a = other(e, shared);
+            var b = other(f, shared);
+            var sideP = (x[a] - x[shared]) * (py - y[shared]) - (y[a] - y[shared]) * (px - x[shared]);
+            var sideB = (x[a] - x[shared]) * (y[b] - y[shared]) - (y[a] - y[shared]) * (x[b] - x[shared]);
+            if (sideP * sideB < 0) {
+                return -1;
+            }
+            if (sideP * sideB > 0) {
+                return 1;
+            }
+            return Integer.compare(e, f);
+        }
+
+        var c = Double.compare(se, sf);
+        return c != 0 ? c : Integer.compare(e, f);
+
+    }
+
+}
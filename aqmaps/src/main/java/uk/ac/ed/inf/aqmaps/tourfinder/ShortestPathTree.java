@@ -0,0 +1,281 @@
+package uk.ac.ed.inf.aqmaps.tourfinder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import uk.ac.ed.inf.aqmaps.Metrics;
+import uk.ac.ed.inf.aqmaps.mapdetails.Node;
+
+/**
+ * Finds the shortest paths round the NFZs from one node to many others with a
+ * single run of Dijkstra's algorithm, instead of one run per pair as in
+ * VisibilityGraph.bestPath.
+ *
+ * The search runs over the compressed sparse row adjacency of a shared
+ * VisibilityGraph, with a binary heap of node indices keyed by their distance,
+ * so it doesn't create any objects per edge. The endpoints (the Starting
+ * Position and Sensors) are only ever the first or last node of a path, so they
+ * are left out of the search: the source's visible NFZ vertices are its first
+ * entries, and each target is reached from whichever of its visible NFZ
+ * vertices gives the shortest path.
+ *
+ * The NFZ vertices visible from each endpoint are found once, when the endpoint
+ * is added, and reused for every search it is part of. Endpoints must be added
+ * before paths is called, and not while it is running, but paths can be called
+ * from several threads at once.
+ */
+class ShortestPathTree {
+
+    private VisibilityGraph visibilityGraph;
+    private List<Node> nodes;
+    private int[] adjacencyStart;
+    private int[] adjacency;
+    private double[] adjacencyWeight;
+
+    // Indices of the NFZ vertices visible from each endpoint
+    private Map<Node, int[]> visible;
+    private Metrics metrics;
+
+    /**
+     * @param visibilityGraph the shared graph of the NFZ vertices
+     * @param metrics         where the edge tests of addEndpoint are counted, or
+     *                        null
+     */
+    ShortestPathTree(VisibilityGraph visibilityGraph, Metrics metrics) {
+        this.visibilityGraph = visibilityGraph;
+        this.metrics = metrics;
+        this.nodes = visibilityGraph.getNodes();
+        this.adjacencyStart = visibilityGraph.getAdjacencyStart();
+        this.adjacency = visibilityGraph.getAdjacency();
+        this.adjacencyWeight = visibilityGraph.getAdjacencyWeight();
+        this.visible = new IdentityHashMap<Node, int[]>();
+    }
+
+    /**
+     * Finds the NFZ vertices visible from endpoint, so it can be used as a source
+     * or target
+     *
+     * @param endpoint a Node that is not a NFZ vertex
+     */
+    void addEndpoint(Node endpoint) {
+        visible.put(endpoint, visibilityGraph.visibleNodes(endpoint, metrics));
+    }
+
+    void removeEndpoint(Node endpoint) {
+        visible.remove(endpoint);
+    }
+
+    /**
+     * Finds the shortest paths from source to each target through the NFZ
+     * vertices. The straight line from source to each target should cross a NFZ,
+     * as the direct path is not considered.
+     *
+     * @param source  an endpoint
+     * @param targets endpoints
+     * @return the shortest Path to each target, in the same order
+     */
+    Path[] paths(Node source, List<Node> targets) {
+
+        var n = nodes.size();
+        var dist = new double[n];
+        var previous = new int[n];
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        Arrays.fill(previous, -1);
+
+        // With a DistanceOracle the tree is read from its tables, recording the
+        // vertex each path enters the NFZ graph at instead of the previous vertex
+        var oracle = visibilityGraph.getDistanceOracle();
+        if (oracle != null) {
+            oracle.distancesFrom(source, visible.get(source), dist, previous);
+        } else {
+            // The first step is from the source to a NFZ vertex it can see
+            var origin = source.getCoordinate();
+            for (var i : visible.get(source)) {
+                dist[i] = origin.euclideanDistance(nodes.get(i).getCoordinate());
+            }
+            search(dist, previous);
+        }
+
+        var result = new Path[targets.size()];
+        for (var t = 0; t < targets.size(); t++) {
+            result[t] = path(source, targets.get(t), dist, previous, oracle);
+        }
+        return result;
+
+    }
+
+    /**
+     * Runs Dijkstra's algorithm over the NFZ vertices, starting from every vertex
+     * whose distance is already finite
+     *
+     * @param dist     distance of each NFZ vertex, which is lowered to the length
+     *                 of its shortest path
+     * @param previous the vertex before each one on its shortest path, or -1 for
+     *                 the vertices it starts from
+     */
+    void search(double[] dist, int[] previous) {
+
+        var heap = new Heap(dist);
+        for (var i = 0; i < dist.length; i++) {
+            if (dist[i] < Double.POSITIVE_INFINITY) {
+                heap.push(i);
+            }
+        }
+
+        while (!heap.isEmpty()) {
+            var i = heap.pop();
+            for (var k = adjacencyStart[i]; k < adjacencyStart[i + 1]; k++) {
+                var j = adjacency[k];
+                var alt = dist[i] + adjacencyWeight[k];
+                if (alt < dist[j]) {
+                    dist[j] = alt;
+                    previous[j] = i;
+                    heap.pushOrDecrease(j);
+                }
+            }
+        }
+
+    }
+
+    /**
+     * @return the shortest Path to target, leaving the tree at the best of the
+     *         NFZ vertices target can see
+     */
+    private Path path(Node source, Node target, double[] dist, int[] previous, DistanceOracle oracle) {
+
+        var destination = target.getCoordinate();
+        var last = -1;
+        var cost = Double.POSITIVE_INFINITY;
+        for (var i : visible.get(target)) {
+            var alt = dist[i] + nodes.get(i).getCoordinate().euclideanDistance(destination);
+            if (alt < cost) {
+                cost = alt;
+                last = i;
+            }
+        }
+
+        if (last == -1) {
+            throw new IllegalStateException("No path between " + source.getCoordinate() + " and " + destination);
+        }
+
+        var nodesInPath = new ArrayList<Node>();
+        if (oracle != null) {
+            // previous holds where the path entered the NFZ graph
+            nodesInPath.add(source);
+            oracle.addRoute(nodesInPath, previous[last], last);
+            nodesInPath.add(target);
+            return new Path(nodesInPath, cost);
+        }
+
+        // Follow the tree back to the source
+        nodesInPath.add(target);
+        for (var i = last; i != -1; i = previous[i]) {
+            nodesInPath.add(nodes.get(i));
+        }
+        nodesInPath.add(source);
+
+        Collections.reverse(nodesInPath);
+
+        return new Path(nodesInPath, cost);
+
+    }
+
+    /**
+     * Binary min-heap of node indices ordered by their distance, which can lower
+     * the distance of a node already in it
+     */
+    private static class Heap {
+
+        // Distances the heap is ordered by
+        private double[] key;
+        private int[] heap;
+        // Position of each node in heap, or -1 if it isn't in it
+        private int[] position;
+        private int size;
+
+        Heap(double[] key) {
+            this.key = key;
+            this.heap = new int[key.length];
+            this.position = new int[key.length];
+            Arrays.fill(position, -1);
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void push(int node) {
+            heap[size] = node;
+            position[node] = size;
+            siftUp(size++);
+        }
+
+        /**
+         * Adds node, or moves it up if its key has been lowered while in the heap
+         */
+        void pushOrDecrease(int node) {
+            if (position[node] == -1) {
+                push(node);
+            } else {
+                siftUp(position[node]);
+            }
+        }
+
+        /**
+         * @return the node with the smallest key, which is removed
+         */
+        int pop() {
+            var top = heap[0];
+            position[top] = -1;
+            size--;
+            if (size > 0) {
+                heap[0] = heap[size];
+                position[heap[0]] = 0;
+                siftDown(0);
+            }
+            return top;
+        }
+
+        private void siftUp(int i) {
+            var node = heap[i];
+            while (i > 0) {
+                var parent = (i - 1) >>> 1;
+                if (key[heap[parent]] <= key[node]) {
+                    break;
+                }
+                heap[i] = heap[parent];
+                position[heap[i]] = i;
+                i = parent;
+            }
+            heap[i] = node;
+            position[node] = i;
+        }
+
+        private void siftDown(int i) {
+            var node = heap[i];
+            while (true) {
+                var child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && key[heap[child + 1]] < key[heap[child]]) {
+                    child++;
+                }
+                if (key[node] <= key[heap[child]]) {
+                    break;
+                }
+                heap[i] = heap[child];
+                position[heap[i]] = i;
+                i = child;
+            }
+            heap[i] = node;
+            position[node] = i;
+        }
+
+    }
+
+}
@@ -2,14 +2,21 @@ package uk.ac.ed.inf.aqmaps.tourfinder;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import org.jgrapht.alg.tour.TwoOptHeuristicTSP;
 import org.jgrapht.graph.DefaultUndirectedWeightedGraph;
 import org.jgrapht.graph.DefaultWeightedEdge;
 
 import uk.ac.ed.inf.aqmaps.Constants;
+import uk.ac.ed.inf.aqmaps.Metrics;
 import uk.ac.ed.inf.aqmaps.mapdetails.NoFlyZone;
+import uk.ac.ed.inf.aqmaps.mapdetails.NoFlyZoneIndex;
 import uk.ac.ed.inf.aqmaps.mapdetails.Node;
 import uk.ac.ed.inf.aqmaps.mapdetails.Sensor;
 import uk.ac.ed.inf.aqmaps.mapdetails.StartingPosition;
@@ -25,18 +32,84 @@ public class TourFinder {
     private List<Node> nodes;
     // Shortest Paths between all pairs of nodes
     private Path[][] paths;
-    private List<NoFlyZone> NFZs;
+    // Costs of the paths as a flat row-major array, shared by the optimizers
+    private double[] dist;
+    // Estimated number of moves along each path, laid out like dist
+    private double[] moves;
+    private NoFlyZoneIndex noFlyZoneIndex;
+    // Visibility graph of the NFZ vertices, shared by every blocked pair
+    private VisibilityGraph visibilityGraph;
+    // Only set when the settings ask for shortest path trees
+    private ShortestPathTree shortestPathTree;
     private int seed;
+    private TourFinderSettings settings;
+    private Metrics metrics;
+    // Tour from ExactTourSolver, shared by every seed, and the distance matrix it
+    // was solved on. The matrix is replaced whenever the nodes change.
+    private int[] exactOrder;
+    private double[] exactMatrix;
 
     public TourFinder(StartingPosition startingPosition, List<Sensor> sensors, List<NoFlyZone> NFZs, int seed) {
+        this(startingPosition, sensors, new NoFlyZoneIndex(NFZs), seed);
+    }
+
+    public TourFinder(StartingPosition startingPosition, List<Sensor> sensors, NoFlyZoneIndex noFlyZoneIndex,
+            int seed) {
+        this(startingPosition, sensors, noFlyZoneIndex, seed, new TourFinderSettings());
+    }
+
+    public TourFinder(StartingPosition startingPosition, List<Sensor> sensors, NoFlyZoneIndex noFlyZoneIndex,
+            int seed, TourFinderSettings settings) {
+        this(startingPosition, sensors, new VisibilityGraph(noFlyZoneIndex, settings.getVisibilityGraphBuilder()), seed,
+                settings);
+    }
+
+    /**
+     * @param startingPosition
+     * @param sensors
+     * @param visibilityGraph  a prebuilt VisibilityGraph, which can be shared by
+     *                         several TourFinders for the same NFZs
+     * @param seed
+     * @param settings
+     */
+    public TourFinder(StartingPosition startingPosition, List<Sensor> sensors, VisibilityGraph visibilityGraph,
+            int seed, TourFinderSettings settings) {
+        this(startingPosition, sensors, visibilityGraph, seed, settings, new Metrics());
+    }
+
+    /**
+     * @param startingPosition
+     * @param sensors
+     * @param visibilityGraph  a prebuilt VisibilityGraph, which can be shared by
+     *                         several TourFinders for the same NFZs
+     * @param seed
+     * @param settings
+     * @param metrics          the metrics of the run the tours are for
+     */
+    public TourFinder(StartingPosition startingPosition, List<Sensor> sensors, VisibilityGraph visibilityGraph,
+            int seed, TourFinderSettings settings, Metrics metrics) {
         this.seed = seed;
-        this.NFZs = NFZs;
+        this.settings = settings;
+        this.metrics = metrics;
+        this.noFlyZoneIndex = visibilityGraph.getNoFlyZoneIndex();
 
         this.nodes = new ArrayList<Node>();
         this.nodes.add(startingPosition);
         this.nodes.addAll(sensors);
 
+        this.visibilityGraph = visibilityGraph;
+
+        var start = Metrics.start();
+        if (settings.isShortestPathTrees()) {
+            this.shortestPathTree = new ShortestPathTree(visibilityGraph, metrics);
+            for (var node : nodes) {
+                shortestPathTree.addEndpoint(node);
+            }
+        }
         this.paths = shortestPaths();
+        this.dist = costs(paths);
+        this.moves = moveEstimates(dist);
+        metrics.stop(Metrics.Phase.SHORTEST_PATHS, start);
     }
 
     /**
@@ -48,43 +121,185 @@ public class TourFinder {
 
         var result = new Path[nodes.size()][nodes.size()];
 
+        if (settings.isParallel()) {
+            var pool = new ForkJoinPool(settings.getParallelism());
+            try {
+                pool.invoke(new ShortestPathsTask(result, 0, n));
+            } finally {
+                pool.shutdown();
+            }
+            return result;
+        }
+
         // Loop over all pairs of nodes
         for (var i = 0; i < n; i++) {
-            for (var j = 0; j < n; j++) {
+            result[i] = shortestPaths(nodes.get(i), nodes);
+        }
+
+        return result;
 
-                var n1 = nodes.get(i);
-                var n2 = nodes.get(j);
+    }
+
+    /**
+     * @param source  a Node
+     * @param targets Nodes
+     * @return the shortest Path from source to each target. When there is a
+     *         ShortestPathTree, the targets behind a NFZ are all found from one
+     *         tree.
+     */
+    private Path[] shortestPaths(Node source, List<Node> targets) {
+
+        var result = new Path[targets.size()];
+
+        // Indices of the targets the straight line to which crosses a NFZ, and which
+        // aren't in the PathCache
+        var pathCache = settings.getPathCache();
+        var blocked = new ArrayList<Integer>();
+        for (var j = 0; j < targets.size(); j++) {
+            var target = targets.get(j);
+            if (shortestPathTree == null || target == source) {
+                result[j] = shortestPath(source, target);
+            } else if (!noFlyZoneIndex.intersects(source.getCoordinate(), target.getCoordinate(), metrics)) {
+                result[j] = directPath(source, target);
+            } else {
+                result[j] = pathCache != null ? cachedPath(pathCache, source, target) : null;
+                if (result[j] == null) {
+                    blocked.add(j);
+                }
+            }
+        }
 
-                // Path from node to itself has cost 0 and contains only itself
-                if (i == j) {
-                    result[i][j] = new Path(new ArrayList<Node>(Arrays.asList(n1)), 0.0);
+        if (!blocked.isEmpty()) {
+            var blockedTargets = new ArrayList<Node>();
+            for (var j : blocked) {
+                blockedTargets.add(targets.get(j));
+            }
+            var treePaths = shortestPathTree.paths(source, blockedTargets);
+            for (var k = 0; k < blocked.size(); k++) {
+                result[blocked.get(k)] = treePaths[k];
+                if (pathCache != null) {
+                    pathCache.put(treePaths[k], visibilityGraph);
                 }
+            }
+        }
 
-                // If the line joining the two nodes doesn't pass through a NFZ then the path is
-                // just those two node and the cost is just the Euclidean distance between them
+        return result;
 
-                if (!NoFlyZone.intersectsNoFlyZones(n1.getCoordinate(), n2.getCoordinate(), NFZs)) {
+    }
 
-                    var nodesInPath = new ArrayList<Node>();
-                    nodesInPath.add(n1);
-                    nodesInPath.add(n2);
+    /**
+     * @param n1 a Node
+     * @param n2 a Node
+     * @return the shortest Path from n1 to n2
+     */
+    private Path shortestPath(Node n1, Node n2) {
 
-                    var p = new Path(nodesInPath, n1.getCoordinate().euclideanDistance(n2.getCoordinate()));
-                    result[i][j] = p;
+        // Path from node to itself has cost 0 and contains only itself
+        if (n1 == n2) {
+            return new Path(new ArrayList<Node>(Arrays.asList(n1)), 0.0);
+        }
 
-                    // Otherwise we construct a visibility graph and get the path from that
-                } else {
+        // If the line joining the two nodes doesn't pass through a NFZ then the path is
+        // just those two node and the cost is just the Euclidean distance between them
+        if (!noFlyZoneIndex.intersects(n1.getCoordinate(), n2.getCoordinate(), metrics)) {
+            return directPath(n1, n2);
+        }
 
-                    var VG = new VisibilityGraph(n1, n2, NFZs);
-                    var bestPath = VG.bestPath();
-                    result[i][j] = bestPath;
+        // Otherwise we get the path from the cache or the visibility graph
+        var pathCache = settings.getPathCache();
+        if (pathCache == null) {
+            return visibilityGraph.bestPath(n1, n2, metrics);
+        }
+        var path = cachedPath(pathCache, n1, n2);
+        if (path == null) {
+            path = visibilityGraph.bestPath(n1, n2, metrics);
+            pathCache.put(path, visibilityGraph);
+        }
+        return path;
 
-                }
+    }
 
-            }
+    /**
+     * @param pathCache
+     * @param n1        a Node
+     * @param n2        a Node
+     * @return the cached Path from n1 to n2, or null if there isn't one
+     */
+    private Path cachedPath(PathCache pathCache, Node n1, Node n2) {
+
+        var path = pathCache.get(n1, n2, visibilityGraph);
+        metrics.increment(path == null ? Metrics.Counter.PATH_CACHE_MISSES : Metrics.Counter.PATH_CACHE_HITS);
+        return path;
+
+    }
+
+    /**
+     * @param n1 a Node
+     * @param n2 a Node that can be reached from n1 in a straight line
+     * @return the Path straight from n1 to n2
+     */
+    private static Path directPath(Node n1, Node n2) {
+
+        var nodesInPath = new ArrayList<Node>();
+        nodesInPath.add(n1);
+        nodesInPath.add(n2);
+
+        return new Path(nodesInPath, n1.getCoordinate().euclideanDistance(n2.getCoordinate()));
+
+    }
+
+    /**
+     * @param path a Path
+     * @return the same Path travelled in the opposite direction
+     */
+    private static Path reverse(Path path) {
+
+        var nodesInPath = new ArrayList<Node>(path.getNodes());
+        Collections.reverse(nodesInPath);
+        return new Path(nodesInPath, path.getCost());
+
+    }
+
+    /**
+     * Fills rows lo (inclusive) to hi (exclusive) of the upper triangle of the
+     * paths matrix and mirrors each Path into the lower triangle, splitting until
+     * each task has a single row. Every entry is written by exactly one task, so
+     * the result does not depend on how the work is scheduled.
+     */
+    private class ShortestPathsTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private Path[][] result;
+        private int lo;
+        private int hi;
+
+        ShortestPathsTask(Path[][] result, int lo, int hi) {
+            this.result = result;
+            this.lo = lo;
+            this.hi = hi;
         }
 
-        return result;
+        @Override
+        protected void compute() {
+
+            if (hi - lo > 1) {
+                var mid = (lo + hi) >>> 1;
+                invokeAll(new ShortestPathsTask(result, lo, mid), new ShortestPathsTask(result, mid, hi));
+                return;
+            }
+
+            var i = lo;
+            var row = shortestPaths(nodes.get(i), nodes.subList(i, result.length));
+            for (var j = i; j < result.length; j++) {
+                var path = row[j - i];
+                result[i][j] = path;
+                if (j != i) {
+                    result[j][i] = reverse(path);
+                }
+            }
+
+        }
 
     }
 
@@ -92,10 +307,23 @@ public class TourFinder {
      * @return a full tour including Starting Position, Sensors and NFZ vertices.
      */
     public List<Node> findTour() {
+        return findTour(seed);
+    }
 
-        // Use twoOpt to construct a tour (containing Starting Position and Sensors)
-        // and rotate the tour so the Starting Position is the first item in the tour
-        var tour = twoOpt();
+    /**
+     * Same as findTour(), using the given seed for the optimizer instead of the
+     * one given when this was constructed. This does not modify the TourFinder
+     * (apart from keeping the exact tour), so several threads can call it at once.
+     * 
+     * @param seed
+     * @return a full tour including Starting Position, Sensors and NFZ vertices.
+     */
+    public List<Node> findTour(int seed) {
+
+        // Use the optimizer to construct a tour (containing Starting Position and
+        // Sensors) and rotate the tour so the Starting Position is the first item in
+        // the tour
+        var tour = optimizeTour(seed);
 
         // Last element is just the same as first
         tour.remove(tour.size() - 1);
@@ -149,13 +377,207 @@ public class TourFinder {
 
     }
 
+    /**
+     * @param seed
+     * @return a tour of the nodes (Sensors and StartingPosition) from the
+     *         optimizer chosen in the settings, ending with its first node
+     */
+    private List<Node> optimizeTour(int seed) {
+
+        var event = new TourOptimizationEvent();
+        event.begin();
+        var start = Metrics.start();
+
+        int[] order;
+        switch (settings.getOptimizer()) {
+        case MATRIX:
+            order = matrixTour(seed);
+            break;
+        case NEIGHBOR_LIST:
+            order = neighborListTour(seed);
+            break;
+        case EXACT:
+            order = exactTour();
+            break;
+        default:
+            order = twoOpt(seed);
+        }
+
+        metrics.stop(Metrics.Phase.TOUR_OPTIMIZATION, start);
+        event.end();
+
+        if (event.shouldCommit()) {
+            event.optimizer = settings.getOptimizer().name();
+            event.seed = seed;
+            event.nodes = nodes.size();
+            event.cost = tourCost(order);
+            event.commit();
+        }
+
+        return toNodes(order);
+
+    }
+
+    /**
+     * @param order indices into nodes
+     * @return the total cost of the paths between consecutive nodes of the tour,
+     *         including the path back to the first
+     */
+    private double tourCost(int[] order) {
+        var n = nodes.size();
+        var cost = 0.0;
+        for (var i = 0; i < order.length; i++) {
+            cost += dist[order[i] * n + order[(i + 1) % order.length]];
+        }
+        return cost;
+    }
+
+    /**
+     * Uses MatrixTourOptimizer on the costs of the paths to compute a tour for the
+     * nodes (Sensors and StartingPosition)
+     * 
+     * @param seed
+     * @return a tour optimized by 2-opt and Or-opt, as indices into nodes
+     */
+    private int[] matrixTour(int seed) {
+
+        var n = nodes.size();
+        var optimizer = new MatrixTourOptimizer(distanceMatrix(), n, seed);
+        return optimizer.optimize(Constants.TWO_OPT_ITERATIONS);
+
+    }
+
+    /**
+     * Uses ExactTourSolver on the costs of the paths to compute an optimal tour
+     * for the nodes (Sensors and StartingPosition). Tours with more than
+     * HELD_KARP_MAX_NODES nodes start from the MatrixTourOptimizer tour for the
+     * seed given when this was constructed, not the one passed in, and are only
+     * optimal if branch and bound finishes in time. So the tour doesn't depend on
+     * the seed, and it is solved once and reused until the nodes change.
+     * 
+     * @return the best tour found, as indices into nodes. It is shared by every
+     *         seed, so it must not be modified.
+     */
+    private synchronized int[] exactTour() {
+
+        var matrix = distanceMatrix();
+        if (exactOrder == null || exactMatrix != matrix) {
+            var n = nodes.size();
+            var solver = new ExactTourSolver(matrix, n, Constants.HELD_KARP_MAX_NODES,
+                    Constants.BRANCH_AND_BOUND_TIME_LIMIT);
+
+            int[] initial = null;
+            if (n > Constants.HELD_KARP_MAX_NODES) {
+                initial = new MatrixTourOptimizer(matrix, n, seed).optimize(Constants.TWO_OPT_ITERATIONS);
+            }
+
+            exactOrder = solver.solve(initial);
+            exactMatrix = matrix;
+        }
+
+        return exactOrder;
+
+    }
+
+    /**
+     * Uses NeighborListTwoOpt on the costs of the paths to compute a tour for the
+     * nodes (Sensors and StartingPosition). The seed picks the node the initial
+     * nearest neighbour tour starts from.
+     * 
+     * @param seed
+     * @return a tour optimized by two-opt, as indices into nodes
+     */
+    private int[] neighborListTour(int seed) {
+
+        var n = nodes.size();
+        var optimizer = new NeighborListTwoOpt(distanceMatrix(), n, settings.getCandidates());
+        return optimizer.optimize(new Random(seed).nextInt(n));
+
+    }
+
+    /**
+     * @param order indices into nodes
+     * @return the nodes in that order, ending with the first node again
+     */
+    private List<Node> toNodes(int[] order) {
+
+        var tour = new ArrayList<Node>();
+        for (var i : order) {
+            tour.add(nodes.get(i));
+        }
+        tour.add(nodes.get(order[0]));
+
+        return tour;
+
+    }
+
+    /**
+     * @return the costs of the paths as a flat row-major array, in the distance or
+     *         moves chosen by the settings' objective. The array is kept up to
+     *         date as nodes are added and removed, so it must not be modified.
+     */
+    private double[] distanceMatrix() {
+        return settings.getObjective() == TourFinderSettings.Objective.MOVES ? moves : dist;
+    }
+
+    /**
+     * @param paths a square matrix of Paths
+     * @return the costs of the paths as a flat row-major array
+     */
+    private static double[] costs(Path[][] paths) {
+
+        var n = paths.length;
+        var result = new double[n * n];
+        for (var i = 0; i < n; i++) {
+            for (var j = 0; j < n; j++) {
+                result[i * n + j] = paths[i][j].getCost();
+            }
+        }
+        return result;
+
+    }
+
+    /**
+     * @param dist lengths of the paths as a flat row-major array
+     * @return the estimated number of moves along each path, in the same layout
+     */
+    private static double[] moveEstimates(double[] dist) {
+
+        var result = new double[dist.length];
+        for (var k = 0; k < dist.length; k++) {
+            result[k] = moveEstimate(dist[k]);
+        }
+        return result;
+
+    }
+
+    /**
+     * Estimates the moves needed to read a sensor at the end of a path: enough
+     * whole moves to get within reading range, and at least one, as the drone
+     * has to move between two readings. The same estimate is used for the path
+     * back to the Starting Position, whose larger range means it can be one move
+     * too many, so that the costs stay symmetric.
+     *
+     * The length is added on to break ties between tours with the same number of
+     * moves. A whole tour in the confinement area is far shorter than 1, so it
+     * never outweighs a move.
+     *
+     * @param length the length of a path
+     * @return the estimated number of moves plus the length
+     */
+    private static double moveEstimate(double length) {
+        var moves = Math.ceil((length - Constants.MAX_DISTANCE_FROM_SENSOR) / Constants.MOVE_SIZE);
+        return Math.max(1, moves) + length;
+    }
+
     /**
      * Uses the TwoOptHeurstic from JgraphT to compute a tour for the nodes (Sensors
      * and StartingPosition)
      * 
-     * @return a tour optimized by two-opt
+     * @param seed
+     * @return a tour optimized by two-opt, as indices into nodes
      */
-    private List<Node> twoOpt() {
+    private int[] twoOpt(int seed) {
 
         // Create a weighted graph
         DefaultUndirectedWeightedGraph<Node, DefaultWeightedEdge> graph = 
@@ -168,10 +590,11 @@ public class TourFinder {
 
         // Add all weighted edges to graph
         var n = paths.length;
+        var costs = distanceMatrix();
         for (var i = 0; i < n; i++) {
             for (var j = i + 1; j < n; j++) {
                 var edge = graph.addEdge(nodes.get(i), nodes.get(j));
-                graph.setEdgeWeight(edge, paths[i][j].getCost());
+                graph.setEdgeWeight(edge, costs[i * n + j]);
             }
         }
 
@@ -180,21 +603,34 @@ public class TourFinder {
         var tsp = new TwoOptHeuristicTSP<Node, DefaultWeightedEdge>(iterations, seed);
         var tour = tsp.getTour(graph).getVertexList();
 
-        // Return the tour
-        return tour;
+        // Return the tour as indices into nodes, without the first node again at
+        // the end
+        var indices = new HashMap<Node, Integer>();
+        for (var i = 0; i < n; i++) {
+            indices.put(nodes.get(i), i);
+        }
+        var order = new int[n];
+        for (var i = 0; i < n; i++) {
+            order[i] = indices.get(tour.get(i));
+        }
+        return order;
 
     }
 
     /**
      * Removes a node. The node removed will be the one that is the furthest away
      * from every other node.
+     *
+     * @return the node removed, or null if only the Starting Position is left
      */
-    public void removeMostIsolated() {
+    public Node removeMostIsolated() {
 
         if (nodes.size() <= 1) {
-            return;
+            return null;
         }
 
+        metrics.increment(Metrics.Counter.REMOVE_MOST_ISOLATED);
+
         var furthest = 0;
         var cost = 0.0;
 
@@ -212,10 +648,94 @@ public class TourFinder {
         }
 
         // Remove the sensor that has highest cost
-        nodes.remove(furthest);
+        var removed = nodes.get(furthest);
+        removeNode(furthest);
+        return removed;
+
+    }
+
+    /**
+     * Adds a sensor to the nodes. Only the paths to and from the new sensor are
+     * computed.
+     *
+     * @param sensor a Sensor that is not already in the tour
+     */
+    public void addSensor(Sensor sensor) {
+
+        var start = Metrics.start();
+
+        var n = nodes.size();
+        nodes.add(sensor);
+        if (shortestPathTree != null) {
+            shortestPathTree.addEndpoint(sensor);
+        }
+
+        var newPaths = new Path[n + 1][n + 1];
+        var newDist = new double[(n + 1) * (n + 1)];
+        var newMoves = new double[(n + 1) * (n + 1)];
+
+        // Copy the existing entries
+        for (var i = 0; i < n; i++) {
+            System.arraycopy(paths[i], 0, newPaths[i], 0, n);
+            System.arraycopy(dist, i * n, newDist, i * (n + 1), n);
+            System.arraycopy(moves, i * n, newMoves, i * (n + 1), n);
+        }
+
+        // Compute the new row and mirror it into the new column
+        var row = shortestPaths(sensor, nodes);
+        for (var j = 0; j <= n; j++) {
+            var path = row[j];
+            newPaths[n][j] = path;
+            newDist[n * (n + 1) + j] = path.getCost();
+            newMoves[n * (n + 1) + j] = moveEstimate(path.getCost());
+            if (j != n) {
+                newPaths[j][n] = reverse(path);
+                newDist[j * (n + 1) + n] = path.getCost();
+                newMoves[j * (n + 1) + n] = moveEstimate(path.getCost());
+            }
+        }
+
+        paths = newPaths;
+        dist = newDist;
+        moves = newMoves;
+
+        metrics.stop(Metrics.Phase.SHORTEST_PATHS, start);
+
+    }
+
+    /**
+     * Removes the node at index from the nodes, along with its row and column of
+     * the paths. The other paths are unchanged so they are kept, in the same
+     * order.
+     *
+     * @param index an index into nodes other than 0 (the StartingPosition)
+     */
+    private void removeNode(int index) {
+
+        var removed = nodes.remove(index);
+        if (shortestPathTree != null) {
+            shortestPathTree.removeEndpoint(removed);
+        }
+
+        var n = nodes.size();
+        var newPaths = new Path[n][n];
+        var newDist = new double[n * n];
+        var newMoves = new double[n * n];
+
+        var oldN = n + 1;
+        for (var i = 0; i < n; i++) {
+            var from = i < index ? i : i + 1;
+            System.arraycopy(paths[from], 0, newPaths[i], 0, index);
+            System.arraycopy(paths[from], index + 1, newPaths[i], index, n - index);
+            System.arraycopy(dist, from * oldN, newDist, i * n, index);
+            System.arraycopy(dist, from * oldN + index + 1, newDist, i * n + index, n - index);
+            System.arraycopy(moves, from * oldN, newMoves, i * n, index);
+            System.arraycopy(moves, from * oldN + index + 1, newMoves, i * n + index, n - index);
+        }
 
-        // update paths
-        paths = shortestPaths();
+        paths = newPaths;
+        dist = newDist;
+        moves = newMoves;
 
     }
 
@@ -0,0 +1,124 @@
+package uk.ac.ed.inf.aqmaps.tourfinder;
+
+/**
+ * Options for how a TourFinder computes its paths and tours. The defaults give
+ * the original single threaded behaviour.
+ */
+public class TourFinderSettings {
+
+    /**
+     * The algorithm used to order the nodes of the tour
+     */
+    public enum Optimizer {
+        // TwoOptHeuristicTSP from JGraphT
+        JGRAPHT,
+        // MatrixTourOptimizer working on a flat distance matrix
+        MATRIX,
+        // NeighborListTwoOpt, for large numbers of sensors
+        NEIGHBOR_LIST,
+        // ExactTourSolver, starting branch and bound from a MATRIX tour
+        EXACT
+    }
+
+    /**
+     * What the optimizer minimises over the legs of the tour
+     */
+    public enum Objective {
+        // Length of the paths round the NFZs
+        DISTANCE,
+        // Estimated number of moves the drone makes along the paths
+        MOVES
+    }
+
+    // Compute the shortest paths between pairs of nodes on several threads
+    private boolean parallel;
+    // Number of threads to use when parallel is set
+    private int parallelism;
+    private Optimizer optimizer;
+    private Objective objective;
+    // Number of nearest neighbours considered for each node by NEIGHBOR_LIST
+    private int candidates;
+    // How the VisibilityGraph is built when one isn't given
+    private VisibilityGraph.Builder visibilityGraphBuilder;
+    // Find each node's paths to all the others from one ShortestPathTree, instead
+    // of searching the VisibilityGraph once per pair
+    private boolean shortestPathTrees;
+    // Paths between blocked pairs kept from earlier runs, or null
+    private PathCache pathCache;
+
+    public TourFinderSettings() {
+        this.parallel = false;
+        this.parallelism = Runtime.getRuntime().availableProcessors();
+        this.optimizer = Optimizer.JGRAPHT;
+        this.objective = Objective.DISTANCE;
+        this.candidates = 10;
+        this.visibilityGraphBuilder = VisibilityGraph.Builder.BRUTE_FORCE;
+        this.shortestPathTrees = false;
+        this.pathCache = null;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public Optimizer getOptimizer() {
+        return optimizer;
+    }
+
+    public void setOptimizer(Optimizer optimizer) {
+        this.optimizer = optimizer;
+    }
+
+    public Objective getObjective() {
+        return objective;
+    }
+
+    public void setObjective(Objective objective) {
+        this.objective = objective;
+    }
+
+    public int getCandidates() {
+        return candidates;
+    }
+
+    public void setCandidates(int candidates) {
+        this.candidates = candidates;
+    }
+
+    public VisibilityGraph.Builder getVisibilityGraphBuilder() {
+        return visibilityGraphBuilder;
+    }
+
+    public void setVisibilityGraphBuilder(VisibilityGraph.Builder visibilityGraphBuilder) {
+        this.visibilityGraphBuilder = visibilityGraphBuilder;
+    }
+
+    public boolean isShortestPathTrees() {
+        return shortestPathTrees;
+    }
+
+    public void setShortestPathTrees(boolean shortestPathTrees) {
+        this.shortestPathTrees = shortestPathTrees;
+    }
+
+    public PathCache getPathCache() {
+        return pathCache;
+    }
+
+    public void setPathCache(PathCache pathCache) {
+        this.pathCache = pathCache;
+    }
+
+}
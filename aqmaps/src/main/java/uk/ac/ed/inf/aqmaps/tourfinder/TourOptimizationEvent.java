@@ -0,0 +1,30 @@
+package uk.ac.ed.inf.aqmaps.tourfinder;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for one run of the tour optimizer
+ */
+@Name("uk.ac.ed.inf.aqmaps.TourOptimization")
+@Label("Tour Optimization")
+@Description("One run of the tour optimizer over the Sensors and Starting Position")
+@Category({ "AQMaps", "Tour Finding" })
+class TourOptimizationEvent extends jdk.jfr.Event {
+
+    @Label("Optimizer")
+    String optimizer;
+
+    @Label("Seed")
+    int seed;
+
+    @Label("Nodes")
+    int nodes;
+
+    @Label("Tour Cost")
+    @Description("Length of the tour in degrees, going round the NFZs")
+    double cost;
+
+}
@@ -1,27 +1,50 @@
 package uk.ac.ed.inf.aqmaps.tourfinder;
 
 import java.util.ArrayList;
-
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 
 import org.jgrapht.alg.shortestpath.DijkstraShortestPath;
+import org.jgrapht.graph.AsGraphUnion;
 import org.jgrapht.graph.DefaultUndirectedWeightedGraph;
 import org.jgrapht.graph.DefaultWeightedEdge;
 
+import uk.ac.ed.inf.aqmaps.Metrics;
 import uk.ac.ed.inf.aqmaps.mapdetails.Coordinate;
 import uk.ac.ed.inf.aqmaps.mapdetails.NoFlyZone;
+import uk.ac.ed.inf.aqmaps.mapdetails.NoFlyZoneIndex;
 import uk.ac.ed.inf.aqmaps.mapdetails.NoFlyZoneVertex;
 import uk.ac.ed.inf.aqmaps.mapdetails.Node;
 
 /**
  * Creates visibility graphs for producing optimal routes around NoFlyZones.
+ *
+ * The graph between the NFZ vertices only depends on the NoFlyZones, so it is
+ * built once per map. Start and end nodes are attached to it for each query,
+ * without modifying it, so one VisibilityGraph can be shared between threads.
  */
 
 public class VisibilityGraph {
 
+    /**
+     * How the edges between the NFZ vertices are found. Both give the same edges.
+     */
+    public enum Builder {
+        // Test every pair of vertices against the NFZ edges
+        BRUTE_FORCE,
+        // RotationalSweep round each vertex, in O(n^2 log n) for n vertices
+        SWEEP
+    }
+
+    // Only set when constructed for a single pair of nodes
     private Node start;
     private Node end;
     private List<NoFlyZone> NFZs;
+    // Used to test the lines between nodes against the NFZ edges
+    private NoFlyZoneIndex noFlyZoneIndex;
 
     // nodes and edges in the graph
     private List<Node> nodes;
@@ -31,38 +54,133 @@ public class VisibilityGraph {
     private List<Node> NfzNodes;
     private List<Edge> NfzEdges;
 
+    // Weighted graph of the NFZ vertices, shared by every query
+    private DefaultUndirectedWeightedGraph<Node, DefaultWeightedEdge> graph;
+    private Builder builder;
+
+    // The same graph in compressed sparse row form, used by ShortestPathTree. The
+    // neighbours of nodes.get(i) are at adjacencyStart[i] up to (excluding)
+    // adjacencyStart[i + 1] in adjacency and adjacencyWeight.
+    private int[] adjacencyStart;
+    private int[] adjacency;
+    private double[] adjacencyWeight;
+    // Index of each node in nodes
+    private IdentityHashMap<Node, Integer> indices;
+
+    // Precomputed paths between the NFZ vertices, or null to search the graph
+    private DistanceOracle distanceOracle;
+    // Where building the graph is timed and counted
+    private Metrics metrics;
+
+    public VisibilityGraph(List<NoFlyZone> NFZs) {
+        this(new NoFlyZoneIndex(NFZs));
+    }
 
-    public VisibilityGraph(Node start, Node end, List<NoFlyZone> NFZs) {
+    public VisibilityGraph(NoFlyZoneIndex noFlyZoneIndex) {
+        this(noFlyZoneIndex, Builder.BRUTE_FORCE);
+    }
 
-        this.start = start;
-        this.end = end;
-        this.NFZs = NFZs;
+    /**
+     * @param noFlyZoneIndex
+     * @param builder        how to find the edges between the NFZ vertices
+     */
+    public VisibilityGraph(NoFlyZoneIndex noFlyZoneIndex, Builder builder) {
+        this(noFlyZoneIndex, builder, new Metrics());
+    }
+
+    /**
+     * @param noFlyZoneIndex
+     * @param builder        how to find the edges between the NFZ vertices
+     * @param metrics        where building the graph is timed and counted
+     */
+    public VisibilityGraph(NoFlyZoneIndex noFlyZoneIndex, Builder builder, Metrics metrics) {
+
+        this.noFlyZoneIndex = noFlyZoneIndex;
+        this.metrics = metrics;
+        this.NFZs = noFlyZoneIndex.getNoFlyZones();
         this.NfzEdges = new ArrayList<Edge>();
         this.NfzNodes = new ArrayList<Node>();
         this.nodes = new ArrayList<Node>();
         this.edges = new ArrayList<Edge>();
+        this.builder = builder;
+
+        var event = new VisibilityGraphEvent();
+        event.begin();
+        var start = Metrics.start();
         generateGraph();
+        metrics.stop(Metrics.Phase.VISIBILITY_GRAPH, start);
+        metrics.increment(Metrics.Counter.VISIBILITY_GRAPHS_BUILT);
+        event.end();
+
+        if (event.shouldCommit()) {
+            event.noFlyZones = NFZs.size();
+            event.nodes = nodes.size();
+            event.edges = edges.size();
+            event.commit();
+        }
+
+    }
+
+    public VisibilityGraph(Node start, Node end, List<NoFlyZone> NFZs) {
+
+        this(NFZs);
+        this.start = start;
+        this.end = end;
 
     }
 
     /**
-     * Creates the Visibility Graph by filling the nodes and edges arrays
+     * @return the NoFlyZoneIndex the graph was built from
+     */
+    public NoFlyZoneIndex getNoFlyZoneIndex() {
+        return noFlyZoneIndex;
+    }
+
+    public DistanceOracle getDistanceOracle() {
+        return distanceOracle;
+    }
+
+    /**
+     * Answers paths from the oracle's tables instead of searching the graph. This
+     * should be set before the graph is shared between threads.
+     *
+     * @param distanceOracle an oracle built or loaded for this graph, or null
+     */
+    public void setDistanceOracle(DistanceOracle distanceOracle) {
+        if (distanceOracle != null && distanceOracle.getVisibilityGraph() != this) {
+            throw new IllegalArgumentException("The DistanceOracle is for a different VisibilityGraph");
+        }
+        this.distanceOracle = distanceOracle;
+    }
+
+    /**
+     * @return the edges between the NFZ vertices, including the NFZ edges
+     */
+    public List<Edge> getEdges() {
+        return Collections.unmodifiableList(edges);
+    }
+
+    /**
+     * Creates the Visibility Graph of the NFZ vertices by filling the nodes and
+     * edges arrays
      */
     private void generateGraph() {
 
         // Generate NfzEdges and NfzNodes
         generateNfzNodesAndEdges();
 
-        // Add start and end nodes
-        nodes.add(start);
-        nodes.add(end);
-
         // add all NFZ edges and nodes
         edges.addAll(NfzEdges);
         nodes.addAll(NfzNodes);
 
         var n = nodes.size();
 
+        // Edges added so far, to skip the NFZ edges when adding the visible pairs
+        var added = new HashSet<Edge>(edges);
+
+        // Pairs of nodes that can see each other, found together by the sweep
+        var visible = builder == Builder.SWEEP ? new RotationalSweep(this, nodes, NfzEdges).visiblePairs() : null;
+
         // Loop over all pairs of nodes and create new edges
         for (var i = 0; i < n; i++) {
             for (var j = i + 1; j < n; j++) {
@@ -70,14 +188,114 @@ public class VisibilityGraph {
                 var n1 = nodes.get(i);
                 var n2 = nodes.get(j);
 
-                var edge = new Edge(n1, n2);
-                if (isVisible(n1, n2) && !edges.contains(edge)) {
-                    edges.add(new Edge(n1, n2));
+                var isVisible = visible != null ? visible.get(i * n + j) : isVisible(n1, n2);
+                if (isVisible) {
+                    var edge = new Edge(n1, n2);
+                    if (added.add(edge)) {
+                        edges.add(edge);
+                    }
                 }
 
             }
         }
 
+        // Create the weighted graph used by Dijkstra
+        graph = new DefaultUndirectedWeightedGraph<Node, DefaultWeightedEdge>(DefaultWeightedEdge.class);
+
+        for (var node : nodes) {
+            graph.addVertex(node);
+        }
+
+        for (var e : edges) {
+            var edge = graph.addEdge(e.getNode1(), e.getNode2());
+            graph.setEdgeWeight(edge, e.getWeight());
+        }
+
+        generateAdjacency();
+
+    }
+
+    /**
+     * Fills the compressed sparse row arrays from nodes and edges
+     */
+    private void generateAdjacency() {
+
+        var n = nodes.size();
+        indices = new IdentityHashMap<Node, Integer>();
+        for (var i = 0; i < n; i++) {
+            indices.put(nodes.get(i), i);
+        }
+
+        // Count the neighbours of each node, then fill each node's block from its
+        // start
+        adjacencyStart = new int[n + 1];
+        for (var e : edges) {
+            adjacencyStart[indices.get(e.getNode1()) + 1]++;
+            adjacencyStart[indices.get(e.getNode2()) + 1]++;
+        }
+        for (var i = 0; i < n; i++) {
+            adjacencyStart[i + 1] += adjacencyStart[i];
+        }
+
+        adjacency = new int[2 * edges.size()];
+        adjacencyWeight = new double[2 * edges.size()];
+        var next = Arrays.copyOf(adjacencyStart, n);
+        for (var e : edges) {
+            var i = indices.get(e.getNode1());
+            var j = indices.get(e.getNode2());
+            adjacency[next[i]] = j;
+            adjacencyWeight[next[i]++] = e.getWeight();
+            adjacency[next[j]] = i;
+            adjacencyWeight[next[j]++] = e.getWeight();
+        }
+
+    }
+
+    /**
+     * @return the NFZ vertices, in the order used by the adjacency arrays
+     */
+    List<Node> getNodes() {
+        return Collections.unmodifiableList(nodes);
+    }
+
+    /**
+     * @param node
+     * @return the index of node in getNodes(), or -1 if it isn't a NFZ vertex
+     */
+    int indexOf(Node node) {
+        var index = indices.get(node);
+        return index == null ? -1 : index;
+    }
+
+    int[] getAdjacencyStart() {
+        return adjacencyStart;
+    }
+
+    int[] getAdjacency() {
+        return adjacency;
+    }
+
+    double[] getAdjacencyWeight() {
+        return adjacencyWeight;
+    }
+
+    /**
+     * @param endpoint a Node that is not a NFZ vertex
+     * @param metrics  where the edge tests are counted, or null
+     * @return the indices into getNodes() of the NFZ vertices visible from
+     *         endpoint, in increasing order
+     */
+    int[] visibleNodes(Node endpoint, Metrics metrics) {
+
+        var visible = new int[nodes.size()];
+        var count = 0;
+        for (var i = 0; i < nodes.size(); i++) {
+            if (isVisible(endpoint, nodes.get(i), metrics)) {
+                visible[count++] = i;
+            }
+        }
+        return Arrays.copyOf(visible, count);
+
     }
 
     /**
@@ -92,7 +310,7 @@ public class VisibilityGraph {
 
     /**
      * Adds the vertices of NFZ to NfzNodes and adds the edges to NfzEdges.
-     * 
+     *
      * @param NFZ a NoFlyZone
      */
     private void generateNfzNodesAndEdges(NoFlyZone NFZ) {
@@ -120,24 +338,36 @@ public class VisibilityGraph {
      * @param node2
      * @return true if node1 is visible from node2
      */
-    private boolean isVisible(Node node1, Node node2) {
+    boolean isVisible(Node node1, Node node2) {
+        return isVisible(node1, node2, metrics);
+    }
 
-        // Iterate over NfzEdges and check for intersection, ignoring edges that the
-        // nodes belong to
-        for (var edge : NfzEdges) {
-            if (node1 == edge.getNode1() || node1 == edge.getNode2()) {
-                continue;
-            }
-            if (node2 == edge.getNode1() || node2 == edge.getNode2()) {
-                continue;
-            }
-            if (Coordinate.linesIntersect(node1.getCoordinate(), node2.getCoordinate(), edge.getNode1().getCoordinate(),
-                    edge.getNode2().getCoordinate())) {
-                return false;
-            }
+    /**
+     * @param node1
+     * @param node2
+     * @param metrics where the edge tests are counted, or null
+     * @return true if node1 is visible from node2
+     */
+    boolean isVisible(Node node1, Node node2, Metrics metrics) {
 
+        // Check the NFZ edges for intersection, ignoring edges that the nodes belong
+        // to
+        if (noFlyZoneIndex.intersects(node1.getCoordinate(), node2.getCoordinate(), node1, node2, metrics)) {
+            return false;
         }
 
+        return isOutside(node1, node2);
+
+    }
+
+    /**
+     * @param node1
+     * @param node2
+     * @return false if the nodes are vertices of the same NFZ and the line between
+     *         them goes through its interior
+     */
+    boolean isOutside(Node node1, Node node2) {
+
         // If both nodes belong to the same NFZ, we check if the centre of the line
         // segment between them is in the NFZ to avoid adding interior edges
         if (node1 instanceof NoFlyZoneVertex && node2 instanceof NoFlyZoneVertex
@@ -156,29 +386,61 @@ public class VisibilityGraph {
     }
 
     /**
-     * Perform Dijkstra's algorithm on the graph
-     * 
+     * Perform Dijkstra's algorithm on the graph between the start and end nodes
+     * given when this was constructed
+     *
      * @return a Path
      */
     public Path bestPath() {
+        return bestPath(start, end);
+    }
 
-        // Create a weighted graph
-        DefaultUndirectedWeightedGraph<Node, DefaultWeightedEdge> graph = 
-                new DefaultUndirectedWeightedGraph<Node, DefaultWeightedEdge>(DefaultWeightedEdge.class);
+    /**
+     * Attaches start and end to the NFZ graph and performs Dijkstra's algorithm
+     * on it, or asks the DistanceOracle if there is one. The shared graph is not
+     * modified, so this can be called for many pairs of nodes.
+     *
+     * @param start a Node that is not a NFZ vertex
+     * @param end   a Node that is not a NFZ vertex
+     * @return a Path
+     */
+    public Path bestPath(Node start, Node end) {
+        return bestPath(start, end, null);
+    }
 
-        // Add the nodes to the graph
-        for (var node : nodes) {
-            graph.addVertex(node);
+    /**
+     * Same as bestPath(start, end), counting the edge tests in metrics
+     *
+     * @param start   a Node that is not a NFZ vertex
+     * @param end     a Node that is not a NFZ vertex
+     * @param metrics where the edge tests are counted, or null
+     * @return a Path
+     */
+    public Path bestPath(Node start, Node end, Metrics metrics) {
+
+        if (distanceOracle != null) {
+            return distanceOracle.bestPath(start, end, metrics);
         }
 
-        // Add edges to the graph
-        for (var e : edges) {
-            var edge = graph.addEdge(e.getNode1(), e.getNode2());
-            graph.setEdgeWeight(edge, e.getWeight());
+        // Graph holding the endpoints and the edges to the nodes they can see
+        DefaultUndirectedWeightedGraph<Node, DefaultWeightedEdge> endpointGraph =
+                new DefaultUndirectedWeightedGraph<Node, DefaultWeightedEdge>(DefaultWeightedEdge.class);
+
+        endpointGraph.addVertex(start);
+        endpointGraph.addVertex(end);
+        addEndpointEdges(endpointGraph, start, metrics);
+        addEndpointEdges(endpointGraph, end, metrics);
+
+        if (start != end && isVisible(start, end, metrics)) {
+            var edge = endpointGraph.addEdge(start, end);
+            endpointGraph.setEdgeWeight(edge, start.getCoordinate().euclideanDistance(end.getCoordinate()));
         }
 
+        // View of both graphs together
+        var union = new AsGraphUnion<Node, DefaultWeightedEdge>(graph, endpointGraph);
+
         // Execute Dijkstra
-        var dijkstra = new DijkstraShortestPath<Node, DefaultWeightedEdge>(graph);
+        var dijkstra = new DijkstraShortestPath<Node, DefaultWeightedEdge>(union);
 
         // Get nodes and cost
         var nodes = dijkstra.getPath(start, end).getVertexList();
@@ -188,4 +450,24 @@ public class VisibilityGraph {
 
     }
 
+    /**
+     * Adds an edge from endpoint to every NFZ vertex visible from it
+     *
+     * @param endpointGraph
+     * @param endpoint
+     * @param metrics       where the edge tests are counted, or null
+     */
+    private void addEndpointEdges(DefaultUndirectedWeightedGraph<Node, DefaultWeightedEdge> endpointGraph,
+            Node endpoint, Metrics metrics) {
+
+        for (var node : NfzNodes) {
+            if (isVisible(endpoint, node, metrics)) {
+                endpointGraph.addVertex(node);
+                var edge = endpointGraph.addEdge(endpoint, node);
+                endpointGraph.setEdgeWeight(edge, endpoint.getCoordinate().euclideanDistance(node.getCoordinate()));
+            }
+        }
+
+    }
+
 }
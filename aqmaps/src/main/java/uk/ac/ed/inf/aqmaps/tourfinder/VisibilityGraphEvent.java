@@ -0,0 +1,26 @@
+package uk.ac.ed.inf.aqmaps.tourfinder;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for building a VisibilityGraph
+ */
+@Name("uk.ac.ed.inf.aqmaps.VisibilityGraph")
+@Label("Visibility Graph")
+@Description("Construction of the visibility graph of the NFZ vertices")
+@Category({ "AQMaps", "Tour Finding" })
+class VisibilityGraphEvent extends jdk.jfr.Event {
+
+    @Label("No-Fly Zones")
+    int noFlyZones;
+
+    @Label("Nodes")
+    int nodes;
+
+    @Label("Edges")
+    int edges;
+
+}
@@ -4,15 +4,56 @@ import static org.junit.Assert.assertEquals;
 
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordingFile;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.gson.JsonParser;
+import com.mapbox.geojson.Feature;
+import com.mapbox.geojson.FeatureCollection;
+import com.sun.net.httpserver.HttpServer;
 
 import uk.ac.ed.inf.aqmaps.mapdetails.Coordinate;
+import uk.ac.ed.inf.aqmaps.mapdetails.MapCache;
 import uk.ac.ed.inf.aqmaps.mapdetails.NoFlyZone;
+import uk.ac.ed.inf.aqmaps.mapdetails.NoFlyZoneIndex;
+import uk.ac.ed.inf.aqmaps.mapdetails.Node;
 import uk.ac.ed.inf.aqmaps.mapdetails.Sensor;
+import uk.ac.ed.inf.aqmaps.mapdetails.StartingPosition;
+import uk.ac.ed.inf.aqmaps.mapgenerator.MapGenerator;
+import uk.ac.ed.inf.aqmaps.mapgenerator.MapWriter;
+import uk.ac.ed.inf.aqmaps.movegenerator.Move;
+import uk.ac.ed.inf.aqmaps.movegenerator.MoveGenerator;
+import uk.ac.ed.inf.aqmaps.movegenerator.MoveKernel;
+import uk.ac.ed.inf.aqmaps.tourfinder.DistanceOracle;
+import uk.ac.ed.inf.aqmaps.tourfinder.ExactTourSolver;
+import uk.ac.ed.inf.aqmaps.tourfinder.MatrixTourOptimizer;
+import uk.ac.ed.inf.aqmaps.tourfinder.NeighborListTwoOpt;
+import uk.ac.ed.inf.aqmaps.tourfinder.PathCache;
+import uk.ac.ed.inf.aqmaps.tourfinder.TourFinder;
+import uk.ac.ed.inf.aqmaps.tourfinder.TourFinderSettings;
 import uk.ac.ed.inf.aqmaps.tourfinder.VisibilityGraph;
 
 public class AppTest {
@@ -30,6 +71,9 @@ public class AppTest {
     NoFlyZone NFZ;
     NoFlyZone NFZ2;
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Before
     public void initNFZs() {
         
@@ -78,6 +122,32 @@ public class AppTest {
 
     }
 
+    @Test
+    public void moveKernelTest() {
+
+        // The precomputed offsets give exactly the positions Coordinate.move does
+        var start = new Coordinate(55.944, -3.188);
+        for (var angle = 0; angle < 360; angle += 10) {
+            var expected = start.move(angle, Constants.MOVE_SIZE);
+            assertEquals(expected.getLatitude(), MoveKernel.endLatitude(start.getLatitude(), angle), 0);
+            assertEquals(expected.getLongitude(), MoveKernel.endLongitude(start.getLongitude(), angle), 0);
+            var move = new Move(angle, start);
+            assertEquals(expected.getLatitude(), move.getEndingPosition().getLatitude(), 0);
+            assertEquals(expected.getLongitude(), move.getEndingPosition().getLongitude(), 0);
+        }
+
+        // The drone can only move at multiples of 10 degrees from 0 to 350
+        for (var angle : List.of(-10, 5, 360, 725)) {
+            try {
+                new Move(angle, start);
+                fail("Expected angle " + angle + " to be rejected");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+
+    }
+
     @Test
     public void lineIntersectTest() {
         
@@ -145,4 +215,1088 @@ public class AppTest {
 
     }
 
+    @Test
+    public void visibilityGraphSweepTest() {
+
+        // The sweep finds the same edges as testing every pair, including for the
+        // collinear vertices of the maze layout
+        for (var layout : MapGenerator.Layout.values()) {
+            for (var seed = 0; seed < 5; seed++) {
+                var index = new NoFlyZoneIndex(new MapGenerator(seed, layout, 33, 8).generate().getNoFlyZones());
+                var brute = new VisibilityGraph(index, VisibilityGraph.Builder.BRUTE_FORCE).getEdges();
+                var sweep = new VisibilityGraph(index, VisibilityGraph.Builder.SWEEP).getEdges();
+                assertEquals(brute, sweep);
+            }
+        }
+
+    }
+
+    @Test
+    public void noFlyZoneIndexTest() {
+
+        var NFZs = new ArrayList<NoFlyZone>();
+        NFZs.add(NFZ);
+        NFZs.add(NFZ2);
+        var index = new NoFlyZoneIndex(NFZs);
+
+        // Same cases as NFZtest
+        assertTrue(index.intersects(p4, p1));
+        assertTrue(index.intersects(p4, p2));
+        assertFalse(index.intersects(p4, p3));
+        assertTrue(index.contains(p1));
+        assertTrue(index.contains(p2));
+        assertFalse(index.contains(p3));
+
+        // Agrees with checking every NFZ for random segments
+        var random = new Random(0);
+        for (var i = 0; i < 10000; i++) {
+            var c1 = new Coordinate(random.nextDouble() * 5 - 1, random.nextDouble() * 5 - 1);
+            var c2 = new Coordinate(random.nextDouble() * 5 - 1, random.nextDouble() * 5 - 1);
+            assertEquals(NoFlyZone.intersectsNoFlyZones(c1, c2, NFZs), index.intersects(c1, c2));
+            assertEquals(NoFlyZone.insideNoFlyZones(c1, NFZs), index.contains(c1));
+        }
+
+    }
+
+    /**
+     * @param n number of points
+     * @return distance matrix of n points evenly spaced on the unit circle, in a
+     *         scrambled order
+     */
+    private double[] circleDistances(int n) {
+
+        var points = new Coordinate[n];
+        for (var i = 0; i < n; i++) {
+            // 7 is coprime to n, so this visits every point once
+            var angle = 2 * Math.PI * ((i * 7) % n) / n;
+            points[i] = new Coordinate(Math.sin(angle), Math.cos(angle));
+        }
+
+        var dist = new double[n * n];
+        for (var i = 0; i < n; i++) {
+            for (var j = 0; j < n; j++) {
+                dist[i * n + j] = points[i].euclideanDistance(points[j]);
+            }
+        }
+        return dist;
+
+    }
+
+    @Test
+    public void matrixTourOptimizerTest() {
+
+        // The optimal tour around points on a circle follows the circle
+        var n = 30;
+        var optimizer = new MatrixTourOptimizer(circleDistances(n), n, 0);
+        var tour = optimizer.optimize(10);
+
+        var perimeter = n * 2 * Math.sin(Math.PI / n);
+        assertEquals(perimeter, optimizer.getBestCost(), delta);
+        assertEquals(perimeter, optimizer.cost(tour), delta);
+
+        // Every node appears once
+        var seen = new boolean[n];
+        for (var node : tour) {
+            assertFalse(seen[node]);
+            seen[node] = true;
+        }
+
+    }
+
+    @Test
+    public void neighborListTwoOptTest() {
+
+        var n = 200;
+        var optimizer = new NeighborListTwoOpt(circleDistances(n), n, 8);
+        var perimeter = n * 2 * Math.sin(Math.PI / n);
+
+        // From a nearest neighbour tour
+        var tour = optimizer.optimize(0);
+        assertEquals(perimeter, optimizer.cost(tour), delta);
+
+        // From a tour visiting the nodes in a scrambled order
+        var scrambled = new int[n];
+        for (var i = 0; i < n; i++) {
+            scrambled[i] = (i * 37) % n;
+        }
+        tour = optimizer.optimize(scrambled);
+        assertEquals(perimeter, optimizer.cost(tour), delta);
+
+    }
+
+    @Test
+    public void exactTourSolverTest() {
+
+        // Held-Karp follows the circle whatever order the nodes are numbered in
+        var n = 12;
+        var circle = circleDistances(n);
+        var scrambled = new double[n * n];
+        for (var i = 0; i < n; i++) {
+            for (var j = 0; j < n; j++) {
+                scrambled[i * n + j] = circle[((i * 5) % n) * n + (j * 5) % n];
+            }
+        }
+        var solver = new ExactTourSolver(scrambled, n, 20, 1000);
+        solver.solve(null);
+        assertTrue(solver.isOptimal());
+        assertEquals(n * 2 * Math.sin(Math.PI / n), solver.getBestCost(), delta);
+
+        // On random points, branch and bound proves the same optimum as Held-Karp,
+        // which is no worse than the heuristic
+        var random = new Random(3);
+        var x = new double[n];
+        var y = new double[n];
+        for (var i = 0; i < n; i++) {
+            x[i] = random.nextDouble();
+            y[i] = random.nextDouble();
+        }
+        var dist = new double[n * n];
+        for (var i = 0; i < n; i++) {
+            for (var j = 0; j < n; j++) {
+                dist[i * n + j] = Math.hypot(x[i] - x[j], y[i] - y[j]);
+            }
+        }
+
+        var heldKarp = new ExactTourSolver(dist, n, 20, 1000);
+        var tour = heldKarp.solve(null);
+        var heuristic = new MatrixTourOptimizer(dist, n, 0);
+        var initial = heuristic.optimize(1);
+        assertTrue(heldKarp.getBestCost() <= heuristic.getBestCost() + delta);
+
+        var branchAndBound = new ExactTourSolver(dist, n, 0, 10000);
+        var other = branchAndBound.solve(initial);
+        assertTrue(branchAndBound.isOptimal());
+        assertEquals(heldKarp.getBestCost(), branchAndBound.getBestCost(), delta);
+
+        // Both are tours of every node, starting at node 0
+        for (var order : List.of(tour, other)) {
+            assertEquals(0, order[0]);
+            var seen = new boolean[n];
+            for (var node : order) {
+                assertFalse(seen[node]);
+                seen[node] = true;
+            }
+        }
+        assertEquals(heldKarp.getBestCost(), heuristic.cost(tour), delta);
+
+    }
+
+    @Test
+    public void aStarSearchTest() {
+
+        // A wall between the start and the sensor, inside the confinement area
+        var lat = 55.944;
+        var lng = -3.189;
+        var wall = new ArrayList<Coordinate>();
+        wall.add(new Coordinate(lat + 0.0008, lng));
+        wall.add(new Coordinate(lat + 0.0008, lng + 0.0001));
+        wall.add(new Coordinate(lat - 0.0008, lng + 0.0001));
+        wall.add(new Coordinate(lat - 0.0008, lng));
+        var NFZs = new ArrayList<NoFlyZone>();
+        NFZs.add(new NoFlyZone(wall));
+        var index = new NoFlyZoneIndex(NFZs);
+
+        var sensor = new Sensor("a.b.c", 50, "100");
+        sensor.setCoordinate(new Coordinate(lat, lng + 0.001));
+        List<Node> nodes = new ArrayList<Node>();
+        nodes.add(new StartingPosition(new Coordinate(lat, lng - 0.0005)));
+        nodes.add(sensor);
+
+        var aStar = new MoveGenerator(nodes, index, false, MoveGenerator.Search.A_STAR).getMoves();
+
+        // Ends in range of the sensor without entering the NFZ. Going round the end
+        // of the wall is about 0.0024 long, or 8 moves.
+        var last = aStar.get(aStar.size() - 1);
+        assertTrue(sensor.withinRange(last.getEndingPosition()));
+        assertEquals("a.b.c", last.getW3Wlocation());
+        for (var move : aStar) {
+            assertFalse(index.intersects(move.getStartingPosition(), move.getEndingPosition()));
+        }
+        assertTrue(aStar.size() <= 9);
+
+    }
+
+    @Test
+    public void unreachableSensorTest() {
+
+        // A sensor walled in on every side by four overlapping bars
+        var lat = 55.944;
+        var lng = -3.188;
+        var NFZs = new ArrayList<NoFlyZone>();
+        NFZs.add(rectangle(lat + 0.0005, lng - 0.0006, lat + 0.0006, lng + 0.0006));
+        NFZs.add(rectangle(lat - 0.0006, lng - 0.0006, lat - 0.0005, lng + 0.0006));
+        NFZs.add(rectangle(lat - 0.0006, lng - 0.0006, lat + 0.0006, lng - 0.0005));
+        NFZs.add(rectangle(lat - 0.0006, lng + 0.0005, lat + 0.0006, lng + 0.0006));
+        var index = new NoFlyZoneIndex(NFZs);
+
+        var sensor = new Sensor("a.b.c", 50, "100");
+        sensor.setCoordinate(new Coordinate(lat, lng));
+        var other = new Sensor("d.e.f", 50, "100");
+        other.setCoordinate(new Coordinate(lat + 0.0015, lng));
+        var start = new StartingPosition(new Coordinate(lat, lng - 0.0015));
+        List<Node> nodes = new ArrayList<Node>();
+        nodes.add(start);
+        nodes.add(sensor);
+        nodes.add(other);
+        nodes.add(start);
+
+        // Both searches give up instead of searching forever, and the flight goes
+        // on to the next sensor without the walled in one
+        for (var search : MoveGenerator.Search.values()) {
+            var moveGen = new MoveGenerator(nodes, index, false, search);
+            assertEquals(List.of(other), moveGen.getReadSensors());
+            var moves = moveGen.getMoves();
+            assertTrue(start.withinRange(moves.get(moves.size() - 1).getEndingPosition()));
+        }
+
+        // The flight can't leave out the return to the StartingPosition
+        var walledIn = new StartingPosition(new Coordinate(lat, lng));
+        try {
+            new MoveGenerator(List.of(start, other, walledIn), index, false, MoveGenerator.Search.BEAM);
+            fail("Expected the return to the StartingPosition to fail");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().startsWith("No moves found"));
+        }
+
+        // On a corridor map where beam search gets stuck, A* takes over the leg
+        var map = new MapGenerator(3, MapGenerator.Layout.CORRIDOR, 20, 4).generate();
+        var planner = new Planner(map.getStartingPosition(), map.getSensors(),
+                new NoFlyZoneIndex(map.getNoFlyZones()), new TourFinderSettings());
+        var read = 0;
+        for (var move : planner.plan(1)) {
+            if (!move.getW3Wlocation().equals("null")) {
+                read++;
+            }
+        }
+        assertEquals(20, read);
+
+    }
+
+    /**
+     * @return a rectangular NFZ between two corners
+     */
+    private static NoFlyZone rectangle(double lat1, double lng1, double lat2, double lng2) {
+        var corners = new ArrayList<Coordinate>();
+        corners.add(new Coordinate(lat1, lng1));
+        corners.add(new Coordinate(lat1, lng2));
+        corners.add(new Coordinate(lat2, lng2));
+        corners.add(new Coordinate(lat2, lng1));
+        return new NoFlyZone(corners);
+    }
+
+    @Test
+    public void tourFinderAddSensorTest() {
+
+        // Sensors either side of a NFZ so some paths go round it
+        var NFZs = new ArrayList<NoFlyZone>();
+        NFZs.add(NFZ);
+        var random = new Random(3);
+        var sensors = new ArrayList<Sensor>();
+        for (var i = 0; i < 12; i++) {
+            var sensor = new Sensor("s" + i, 50, "100");
+            sensor.setCoordinate(new Coordinate(random.nextDouble() * 3 - 1, random.nextDouble() * 3 - 1));
+            if (!NFZ.contains(sensor.getCoordinate())) {
+                sensors.add(sensor);
+            }
+        }
+        var start = new StartingPosition(new Coordinate(-0.5, -0.5));
+
+        var settings = new TourFinderSettings();
+        settings.setOptimizer(TourFinderSettings.Optimizer.MATRIX);
+
+        // Adding the last sensor gives the same tours as starting with all of them
+        var full = new TourFinder(start, sensors, new NoFlyZoneIndex(NFZs), 0, settings);
+        var partial = new TourFinder(start, sensors.subList(0, sensors.size() - 1), new NoFlyZoneIndex(NFZs), 0,
+                settings);
+        partial.addSensor(sensors.get(sensors.size() - 1));
+        for (var seed = 0; seed < 5; seed++) {
+            assertEquals(full.findTour(seed), partial.findTour(seed));
+        }
+
+        // Removing a sensor gives the same tours, with the same paths, as starting
+        // without it
+        var removed = full.removeMostIsolated();
+        var rest = new ArrayList<Sensor>(sensors);
+        rest.remove(removed);
+        var fresh = new TourFinder(start, rest, new NoFlyZoneIndex(NFZs), 0, settings);
+        for (var seed = 0; seed < 5; seed++) {
+            assertEquals(fresh.findTour(seed), full.findTour(seed));
+        }
+
+        // and a valid tour of the rest
+        var tour = full.findTour(0);
+        assertEquals(start, tour.get(0));
+        assertEquals(start, tour.get(tour.size() - 1));
+        var visited = 0;
+        for (var sensor : sensors) {
+            if (tour.contains(sensor)) {
+                visited++;
+            }
+        }
+        assertEquals(sensors.size() - 1, visited);
+
+    }
+
+    @Test
+    public void moveObjectiveTest() {
+
+        // Sensors a few moves apart, away from the NFZ so every path is straight
+        var NFZs = new ArrayList<NoFlyZone>();
+        NFZs.add(NFZ);
+        var random = new Random(34);
+        var sensors = new ArrayList<Sensor>();
+        for (var i = 0; i < 8; i++) {
+            var sensor = new Sensor("s" + i, 50, "100");
+            sensor.setCoordinate(
+                    new Coordinate(-1 - random.nextDouble() * 0.002, -1 - random.nextDouble() * 0.002));
+            sensors.add(sensor);
+        }
+        var start = new StartingPosition(new Coordinate(-1.001, -1.001));
+
+        // The shortest tour is not the one with the fewest moves
+        var settings = new TourFinderSettings();
+        settings.setOptimizer(TourFinderSettings.Optimizer.EXACT);
+        var shortest = new TourFinder(start, sensors, new NoFlyZoneIndex(NFZs), 0, settings).findTour(0);
+        settings.setObjective(TourFinderSettings.Objective.MOVES);
+        var fewest = new TourFinder(start, sensors, new NoFlyZoneIndex(NFZs), 0, settings).findTour(0);
+        assertEquals(14, estimateMoves(shortest));
+        assertEquals(12, estimateMoves(fewest));
+
+        // The move estimates are kept up to date as sensors are added
+        var partial = new TourFinder(start, sensors.subList(0, sensors.size() - 1), new NoFlyZoneIndex(NFZs), 0,
+                settings);
+        partial.addSensor(sensors.get(sensors.size() - 1));
+        assertEquals(fewest, partial.findTour(0));
+
+        // The exact tour is the same for every seed, even with too many nodes for
+        // Held-Karp
+        for (var i = 0; i < 16; i++) {
+            var sensor = new Sensor("t" + i, 50, "100");
+            sensor.setCoordinate(
+                    new Coordinate(-1 - random.nextDouble() * 0.002, -1 - random.nextDouble() * 0.002));
+            sensors.add(sensor);
+        }
+        var exact = new TourFinder(start, sensors, new NoFlyZoneIndex(NFZs), 0, settings);
+        assertEquals(exact.findTour(0), exact.findTour(1));
+
+    }
+
+    /**
+     * @return the moves needed to read each sensor of a tour of straight paths,
+     *         and at least one between readings
+     */
+    private static int estimateMoves(List<Node> tour) {
+        var moves = 0;
+        for (var i = 0; i < tour.size() - 1; i++) {
+            var length = tour.get(i).getCoordinate().euclideanDistance(tour.get(i + 1).getCoordinate());
+            var leg = (int) Math.ceil((length - Constants.MAX_DISTANCE_FROM_SENSOR) / Constants.MOVE_SIZE);
+            moves += Math.max(1, leg);
+        }
+        return moves;
+    }
+
+    @Test
+    public void shortestPathTreeTest() {
+
+        // One tree per node gives the same tours as one search per pair, with and
+        // without threads, and after adding a sensor
+        for (var layout : MapGenerator.Layout.values()) {
+            var map = new MapGenerator(4, layout, 33, 8).generate();
+            var graph = new VisibilityGraph(new NoFlyZoneIndex(map.getNoFlyZones()));
+            var sensors = map.getSensors();
+
+            var settings = new TourFinderSettings();
+            settings.setOptimizer(TourFinderSettings.Optimizer.MATRIX);
+            var pairs = new TourFinder(map.getStartingPosition(), sensors, graph, 0, settings);
+
+            settings.setShortestPathTrees(true);
+            var trees = new TourFinder(map.getStartingPosition(), sensors, graph, 0, settings);
+            settings.setParallel(true);
+            var parallel = new TourFinder(map.getStartingPosition(), sensors, graph, 0, settings);
+            var added = new TourFinder(map.getStartingPosition(), sensors.subList(0, sensors.size() - 1), graph, 0,
+                    settings);
+            added.addSensor(sensors.get(sensors.size() - 1));
+
+            for (var seed = 0; seed < 3; seed++) {
+                var tour = pairs.findTour(seed);
+                assertEquals(tour, trees.findTour(seed));
+                assertEquals(tour, parallel.findTour(seed));
+                assertEquals(tour, added.findTour(seed));
+            }
+        }
+
+    }
+
+    @Test
+    public void parallelShortestPathsTest() {
+
+        // One search per pair on several threads gives the same paths as on one, so
+        // the same tours and the same sensors removed in the same order
+        for (var layout : MapGenerator.Layout.values()) {
+            var map = new MapGenerator(6, layout, 33, 8).generate();
+            var graph = new VisibilityGraph(new NoFlyZoneIndex(map.getNoFlyZones()));
+
+            var settings = new TourFinderSettings();
+            settings.setOptimizer(TourFinderSettings.Optimizer.MATRIX);
+            var serial = new TourFinder(map.getStartingPosition(), map.getSensors(), graph, 0, settings);
+            settings.setParallel(true);
+            var parallel = new TourFinder(map.getStartingPosition(), map.getSensors(), graph, 0, settings);
+
+            for (var seed = 0; seed < 3; seed++) {
+                assertEquals(serial.findTour(seed), parallel.findTour(seed));
+            }
+            for (var i = 0; i < 5; i++) {
+                assertEquals(serial.removeMostIsolated(), parallel.removeMostIsolated());
+                assertEquals(serial.findTour(), parallel.findTour());
+            }
+        }
+
+    }
+
+    @Test
+    public void distanceOracleTest() throws IOException {
+
+        var file = folder.getRoot().toPath().resolve("nfz-distances.bin");
+
+        for (var layout : MapGenerator.Layout.values()) {
+            var map = new MapGenerator(5, layout, 20, 8).generate();
+            var index = new NoFlyZoneIndex(map.getNoFlyZones());
+            var searched = new VisibilityGraph(index);
+
+            // Save the tables and map them back in for another graph of the same NFZs
+            DistanceOracle.build(searched).write(file);
+            var oracle = new VisibilityGraph(index);
+            oracle.setDistanceOracle(DistanceOracle.load(file, oracle));
+
+            // Paths from the tables are as short as searching the graph, both one
+            // pair at a time and from a whole tree
+            var sensors = map.getSensors();
+            var settings = new TourFinderSettings();
+            settings.setShortestPathTrees(true);
+            for (var s1 : sensors) {
+                for (var s2 : sensors) {
+                    if (s1 == s2) {
+                        continue;
+                    }
+                    var expected = searched.bestPath(s1, s2);
+                    var actual = oracle.bestPath(s1, s2);
+                    assertEquals(expected.getCost(), actual.getCost(), delta);
+                    assertEquals(s1, actual.getNodes().get(0));
+                    assertEquals(s2, actual.getNodes().get(actual.getNodes().size() - 1));
+                }
+            }
+            var tour = new TourFinder(map.getStartingPosition(), sensors, oracle, 0, settings).findTour();
+            for (var i = 0; i < tour.size() - 1; i++) {
+                var p1 = tour.get(i).getCoordinate();
+                var p2 = tour.get(i + 1).getCoordinate();
+                assertFalse(index.intersects(p1, p2, tour.get(i), tour.get(i + 1)));
+            }
+        }
+
+        // A file for other NFZs isn't used
+        var other = new VisibilityGraph(new NoFlyZoneIndex(new MapGenerator(6, MapGenerator.Layout.MAZE, 20, 8)
+                .generate().getNoFlyZones()));
+        try {
+            DistanceOracle.load(file, other);
+            fail();
+        } catch (IOException e) {
+            // Expected
+        }
+
+    }
+
+    @Test
+    public void pathCacheTest() throws IOException {
+
+        var file = folder.getRoot().toPath().resolve("paths.bin");
+        var map = new MapGenerator(7, MapGenerator.Layout.SCATTERED, 33, 8).generate();
+        var graph = new VisibilityGraph(new NoFlyZoneIndex(map.getNoFlyZones()));
+        var settings = new TourFinderSettings();
+        settings.setOptimizer(TourFinderSettings.Optimizer.MATRIX);
+        var expected = new TourFinder(map.getStartingPosition(), map.getSensors(), graph, 0, settings).findTour();
+
+        // Fill the cache and save it
+        var pathCache = new PathCache(file, 10000);
+        settings.setPathCache(pathCache);
+        assertEquals(expected,
+                new TourFinder(map.getStartingPosition(), map.getSensors(), graph, 0, settings).findTour());
+        assertTrue(pathCache.size() > 0);
+        pathCache.close();
+
+        // The next day has new objects for the same map. Every blocked pair comes from
+        // the cache, in either direction, and gives the same tour.
+        for (var trees : new boolean[] { false, true }) {
+            var day = new MapGenerator(7, MapGenerator.Layout.SCATTERED, 33, 8).generate();
+            var dayGraph = new VisibilityGraph(new NoFlyZoneIndex(day.getNoFlyZones()));
+            settings.setPathCache(new PathCache(file, 10000));
+            settings.setShortestPathTrees(trees);
+            var metrics = new Metrics();
+            var tour = new TourFinder(day.getStartingPosition(), day.getSensors(), dayGraph, 0, settings, metrics)
+                    .findTour();
+            assertEquals(0, metrics.getCount(Metrics.Counter.PATH_CACHE_MISSES));
+            assertTrue(metrics.getCount(Metrics.Counter.PATH_CACHE_HITS) > 0);
+            assertEquals(expected.size(), tour.size());
+            for (var i = 0; i < tour.size(); i++) {
+                var c1 = expected.get(i).getCoordinate();
+                var c2 = tour.get(i).getCoordinate();
+                assertEquals(c1.getLatitude(), c2.getLatitude(), 0);
+                assertEquals(c1.getLongitude(), c2.getLongitude(), 0);
+            }
+        }
+
+        // Only the most recently used paths are kept
+        var small = new PathCache(file, 5);
+        assertEquals(5, small.size());
+
+        // Different NFZs don't use the cached paths
+        var other = new MapGenerator(8, MapGenerator.Layout.SCATTERED, 33, 8).generate();
+        var otherGraph = new VisibilityGraph(new NoFlyZoneIndex(other.getNoFlyZones()));
+        var sensors = map.getSensors();
+        for (var s1 : sensors) {
+            for (var s2 : sensors) {
+                assertTrue(s1 == s2 || small.get(s1, s2, otherGraph) == null);
+            }
+        }
+
+        // A damaged or cut short file gives an empty cache. The number of vertices on
+        // the first path comes after the magic number, fingerprint, ends and cost.
+        var saved = Files.readAllBytes(file);
+        for (var length : List.of(-1, Integer.MAX_VALUE)) {
+            var bytes = saved.clone();
+            ByteBuffer.wrap(bytes).putInt(52, length);
+            Files.write(file, bytes);
+            assertEquals(0, new PathCache(file, 10000).size());
+        }
+        Files.write(file, Arrays.copyOf(saved, saved.length - 1));
+        assertEquals(0, new PathCache(file, 10000).size());
+
+    }
+
+    @Test
+    public void mapCacheTest() throws IOException {
+
+        var directory = folder.getRoot().toPath();
+        var NFZs = new ArrayList<NoFlyZone>();
+        NFZs.add(NFZ);
+        NFZs.add(NFZ2);
+
+        var cache = new MapCache(directory, 60000);
+        cache.putCoordinate("a.b.c", new Coordinate(55.9, -3.1));
+        cache.putNoFlyZones("geojson", NFZs);
+        cache.close();
+
+        // Entries are read back when the cache is opened again
+        cache = new MapCache(directory, 60000);
+        assertEquals(55.9, cache.getCoordinate("a.b.c").getLatitude(), delta);
+        assertEquals(-3.1, cache.getCoordinate("a.b.c").getLongitude(), delta);
+        assertEquals(null, cache.getCoordinate("d.e.f"));
+        var cached = cache.getNoFlyZones();
+        assertEquals(2, cached.size());
+        assertTrue(cached.get(1).contains(new Coordinate(1.5, 2.5)));
+
+        // NFZs are only reused for the same GeoJSON
+        assertEquals(cached, cache.getNoFlyZones("geojson"));
+        assertEquals(null, cache.getNoFlyZones("changed"));
+        cache.close();
+
+        // Expired entries are dropped
+        cache = new MapCache(directory, 0);
+        assertEquals(null, cache.getCoordinate("a.b.c"));
+        assertEquals(null, cache.getNoFlyZones());
+        cache.close();
+
+        // A damaged length is ignored instead of being allocated. The hash length
+        // comes after the magic number and the time.
+        var nfzFile = directory.resolve("no-fly-zones.bin");
+        for (var length : List.of(-1, Integer.MAX_VALUE)) {
+            var bytes = Files.readAllBytes(nfzFile);
+            ByteBuffer.wrap(bytes).putInt(12, length);
+            Files.write(nfzFile, bytes);
+            cache = new MapCache(directory, 60000);
+            assertEquals(null, cache.getNoFlyZones());
+            cache.close();
+        }
+
+    }
+
+    @Test
+    public void geoJsonWriterTest() throws IOException {
+
+        // Sensors covering every style, and a location that needs escaping
+        var random = new Random(5);
+        var sensors = new ArrayList<Sensor>();
+        var readings = new String[] { "10.5", "40", "70", "100", "130", "170", "200", "250", "null" };
+        for (var i = 0; i < readings.length; i++) {
+            var sensor = new Sensor(i == 0 ? "<a>.b&c.d='é'" : "w" + i, i == 8 ? 5 : 50, readings[i]);
+            sensor.setCoordinate(new Coordinate(55.9 + random.nextDouble() / 100, -3.19 + random.nextDouble() / 100));
+            sensor.setVisited(i != 1);
+            sensors.add(sensor);
+        }
+
+        var moves = new ArrayList<Move>();
+        var position = new Coordinate(55.944, -3.188);
+        for (var i = 0; i < 50; i++) {
+            var move = new Move((i * 70) % 360, position);
+            moves.add(move);
+            position = move.getEndingPosition();
+        }
+
+        var features = new ArrayList<Feature>();
+        for (var sensor : sensors) {
+            features.add(sensor.toGeoJson());
+        }
+        features.add(Move.toGeoJson(moves));
+
+        var out = new StringWriter();
+        GeoJsonWriter.write(moves, sensors, out);
+        assertEquals(FeatureCollection.fromFeatures(features).toJson(), out.toString());
+
+    }
+
+    @Test
+    public void flightLogTest() throws IOException {
+
+        var moves = new ArrayList<Move>();
+        var position = new Coordinate(55.944, -3.188);
+        for (var i = 0; i < 40; i++) {
+            var move = new Move((i * 130) % 360, position);
+            if (i % 7 == 3) {
+                move.setW3Wlocation("sensor." + (i % 2) + ".é");
+            }
+            moves.add(move);
+            position = move.getEndingPosition();
+        }
+        // Moves that don't follow on from the previous one or aren't standard
+        moves.add(new Move(15, new Coordinate(55.9, -3.1), new Coordinate(55.91, -3.11)));
+        moves.add(new Move(90, new Coordinate(55.91, -3.11), new Coordinate(55.92, -3.11)));
+
+        var text = folder.getRoot().toPath().resolve("moves.txt");
+        var binary = folder.getRoot().toPath().resolve("moves.bin");
+        var converted = folder.getRoot().toPath().resolve("converted.txt");
+
+        // Binary round trip keeps every Move
+        FlightLog.write(moves, binary);
+        var read = FlightLog.read(binary);
+        assertEquals(moves.size(), read.size());
+        for (var i = 0; i < moves.size(); i++) {
+            assertEquals(moves.get(i).toString(), read.get(i).toString());
+        }
+
+        // Text to binary and back gives the same file
+        FileWrite.writeMoves(moves, text.toString());
+        FlightLog.write(FlightLog.readText(text), binary);
+        FileWrite.writeMoves(FlightLog.read(binary), converted.toString());
+        assertTrue(Arrays.equals(Files.readAllBytes(text), Files.readAllBytes(converted)));
+
+        // Damaged logs: a huge number of moves, a huge table and a truncated file
+        var bytes = Files.readAllBytes(binary);
+        var damaged = folder.getRoot().toPath().resolve("damaged.bin");
+        for (var offset : List.of(5, 9)) {
+            var copy = bytes.clone();
+            ByteBuffer.wrap(copy).putInt(offset, Integer.MAX_VALUE);
+            Files.write(damaged, copy);
+            assertDamaged(damaged);
+        }
+        Files.write(damaged, Arrays.copyOf(bytes, bytes.length - 3));
+        assertDamaged(damaged);
+    }
+
+    /**
+     * Checks that reading a damaged flight log throws an IOException
+     */
+    private static void assertDamaged(Path flightLog) {
+        try {
+            FlightLog.read(flightLog);
+            fail("Expected " + flightLog + " to be rejected");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void mapGeneratorTest() {
+
+        for (var layout : MapGenerator.Layout.values()) {
+
+            var map = new MapGenerator(3, layout, 33, 8).generate();
+            var again = new MapGenerator(3, layout, 33, 8).generate();
+
+            assertEquals(33, map.getSensors().size());
+            if (layout == MapGenerator.Layout.SCATTERED || layout == MapGenerator.Layout.CORRIDOR) {
+                assertEquals(8, map.getNoFlyZones().size());
+            }
+
+            // The same seed gives the same map
+            for (var i = 0; i < map.getSensors().size(); i++) {
+                var a = map.getSensors().get(i);
+                var b = again.getSensors().get(i);
+                assertEquals(a.getLocation(), b.getLocation());
+                assertEquals(a.getCoordinate().getLatitude(), b.getCoordinate().getLatitude(), 0);
+                assertEquals(a.getCoordinate().getLongitude(), b.getCoordinate().getLongitude(), 0);
+            }
+
+            // Sensors and the Starting Position are outside the NFZs
+            var NFZs = map.getNoFlyZones();
+            for (var sensor : map.getSensors()) {
+                assertFalse(NoFlyZone.insideNoFlyZones(sensor.getCoordinate(), NFZs));
+            }
+            assertFalse(NoFlyZone.insideNoFlyZones(map.getStartingPosition().getCoordinate(), NFZs));
+
+            // No two NFZs overlap
+            for (var zone : NFZs) {
+                var others = new ArrayList<NoFlyZone>(NFZs);
+                others.remove(zone);
+                var vertices = zone.getVertices();
+                for (var i = 0; i < vertices.size(); i++) {
+                    var p1 = vertices.get(i).getCoordinate();
+                    var p2 = vertices.get((i + 1) % vertices.size()).getCoordinate();
+                    assertFalse(NoFlyZone.intersectsNoFlyZones(p1, p2, others));
+                    assertFalse(NoFlyZone.insideNoFlyZones(p1, others));
+                }
+            }
+        }
+
+        // Too many maze walls would leave passages narrower than a move
+        try {
+            new MapGenerator(3, MapGenerator.Layout.MAZE, 33, 100).generate();
+            fail("Expected the maze walls not to fit");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+
+    }
+
+    @Test
+    public void plannerSeedsTest() {
+
+        // Seeds 0 and 1 both take 81 moves on this map, with different flights
+        var map = new MapGenerator(3, MapGenerator.Layout.SCATTERED, 20, 4).generate();
+        var settings = new TourFinderSettings();
+        settings.setOptimizer(TourFinderSettings.Optimizer.MATRIX);
+        var planner = new Planner(map.getStartingPosition(), map.getSensors(),
+                new NoFlyZoneIndex(map.getNoFlyZones()), settings);
+        var flight0 = angles(planner.plan(0));
+        var flight1 = angles(planner.plan(1));
+        assertEquals(flight0.size(), flight1.size());
+        assertFalse(flight0.equals(flight1));
+
+        // Ties go to the earlier seed, however many threads are used
+        for (var threads : List.of(1, 4)) {
+            assertEquals(flight0, angles(planner.plan(List.of(0, 1), threads)));
+            assertEquals(flight1, angles(planner.plan(List.of(1, 0), threads)));
+        }
+
+        // Seed 1 takes fewer moves than seed 0 on this map, so it wins from either
+        // position
+        map = new MapGenerator(0, MapGenerator.Layout.SCATTERED, 20, 4).generate();
+        planner = new Planner(map.getStartingPosition(), map.getSensors(), new NoFlyZoneIndex(map.getNoFlyZones()),
+                settings);
+        flight0 = angles(planner.plan(0));
+        flight1 = angles(planner.plan(1));
+        assertTrue(flight1.size() < flight0.size());
+        for (var threads : List.of(1, 4)) {
+            assertEquals(flight1, angles(planner.plan(List.of(0, 1), threads)));
+            assertEquals(flight1, angles(planner.plan(List.of(1, 0), threads)));
+        }
+
+    }
+
+    /**
+     * @return the angles of the moves, which with the Starting Position give the
+     *         whole flight
+     */
+    private static List<Integer> angles(List<Move> moves) {
+        var angles = new ArrayList<Integer>();
+        for (var move : moves) {
+            angles.add(move.getAngle());
+        }
+        return angles;
+    }
+
+    @Test
+    public void metricsTest() throws IOException {
+
+        var map = new MapGenerator(5, MapGenerator.Layout.SCATTERED, 10, 4).generate();
+
+        var metrics = new Metrics();
+        var settings = new TourFinderSettings();
+        var graph = new VisibilityGraph(new NoFlyZoneIndex(map.getNoFlyZones()), settings.getVisibilityGraphBuilder(),
+                metrics);
+        var planner = new Planner(map.getStartingPosition(), map.getSensors(), graph, settings,
+                MoveGenerator.Search.BEAM, metrics);
+        planner.plan(1);
+
+        assertEquals(1, metrics.getCount(Metrics.Counter.VISIBILITY_GRAPHS_BUILT));
+        assertEquals(1, metrics.getCalls(Metrics.Phase.SHORTEST_PATHS));
+        assertTrue(metrics.getCalls(Metrics.Phase.TOUR_OPTIMIZATION) >= 1);
+        assertTrue(metrics.getCalls(Metrics.Phase.MOVE_GENERATION) >= 1);
+        assertTrue(metrics.getCount(Metrics.Counter.LINES_INTERSECT) > 0);
+        assertTrue(metrics.getCount(Metrics.Counter.BEAM_NODES_EXPANDED) > 0);
+        assertEquals(0, metrics.getCalls(Metrics.Phase.HTTP_FETCH));
+
+        // Another plan on the same graph is counted separately, and the same plan
+        // gives the same counts
+        var other = new Metrics();
+        new Planner(map.getStartingPosition(), map.getSensors(), graph, settings, MoveGenerator.Search.BEAM, other)
+                .plan(1);
+        assertEquals(0, other.getCount(Metrics.Counter.VISIBILITY_GRAPHS_BUILT));
+        assertEquals(1, other.getCalls(Metrics.Phase.SHORTEST_PATHS));
+        assertEquals(metrics.getCount(Metrics.Counter.BEAM_NODES_EXPANDED),
+                other.getCount(Metrics.Counter.BEAM_NODES_EXPANDED));
+
+        // The summary holds every phase and counter
+        var out = new StringWriter();
+        metrics.write(out);
+        var json = JsonParser.parseString(out.toString()).getAsJsonObject();
+        assertEquals(Metrics.Phase.values().length, json.getAsJsonObject("phases").size());
+        assertEquals(metrics.getCount(Metrics.Counter.LINES_INTERSECT),
+                json.getAsJsonObject("counters").get("linesIntersect").getAsLong());
+
+        metrics.reset();
+        assertEquals(0, metrics.getCount(Metrics.Counter.LINES_INTERSECT));
+
+    }
+
+    @Test
+    public void flightRecorderEventsTest() throws IOException {
+
+        var map = new MapGenerator(5, MapGenerator.Layout.SCATTERED, 10, 4).generate();
+        var file = folder.getRoot().toPath().resolve("planning.jfr");
+
+        try (var recording = new Recording()) {
+            recording.enable("uk.ac.ed.inf.aqmaps.VisibilityGraph");
+            recording.enable("uk.ac.ed.inf.aqmaps.TourOptimization");
+            recording.enable("uk.ac.ed.inf.aqmaps.SearchLeg");
+            recording.start();
+            var planner = new Planner(map.getStartingPosition(), map.getSensors(),
+                    new NoFlyZoneIndex(map.getNoFlyZones()), new TourFinderSettings());
+            planner.plan(1);
+            recording.stop();
+            recording.dump(file);
+        }
+
+        var graphs = 0;
+        var tours = 0;
+        var legs = 0;
+        for (var event : RecordingFile.readAllEvents(file)) {
+            var name = event.getEventType().getName();
+            if (name.equals("uk.ac.ed.inf.aqmaps.VisibilityGraph")) {
+                graphs++;
+                assertEquals(4, event.getInt("noFlyZones"));
+                assertTrue(event.getInt("edges") > 0);
+            } else if (name.equals("uk.ac.ed.inf.aqmaps.TourOptimization")) {
+                tours++;
+                assertEquals("JGRAPHT", event.getString("optimizer"));
+                assertEquals(1, event.getInt("seed"));
+                assertEquals(11, event.getInt("nodes"));
+                assertTrue(event.getDouble("cost") > 0);
+            } else if (name.equals("uk.ac.ed.inf.aqmaps.SearchLeg")) {
+                legs++;
+                assertTrue(event.getInt("moves") > 0);
+            }
+        }
+        assertEquals(1, graphs);
+        assertEquals(1, tours);
+        assertTrue(legs >= 10);
+
+        // Too many sensors to read within the move limit, so some are removed, one
+        // per round of planning
+        var crowded = new MapGenerator(5, MapGenerator.Layout.SCATTERED, 100, 4).generate();
+        try (var recording = new Recording()) {
+            recording.enable("uk.ac.ed.inf.aqmaps.TourOptimization");
+            recording.enable("uk.ac.ed.inf.aqmaps.SensorRemoval");
+            recording.start();
+            var planner = new Planner(crowded.getStartingPosition(), crowded.getSensors(),
+                    new NoFlyZoneIndex(crowded.getNoFlyZones()), new TourFinderSettings());
+            planner.plan(1);
+            recording.stop();
+            recording.dump(file);
+        }
+
+        // Each round has one node fewer, and each removal leaves one sensor fewer
+        var nodes = new ArrayList<Integer>();
+        var remaining = new ArrayList<Integer>();
+        for (var event : RecordingFile.readAllEvents(file)) {
+            var name = event.getEventType().getName();
+            if (name.equals("uk.ac.ed.inf.aqmaps.TourOptimization")) {
+                nodes.add(event.getInt("nodes"));
+            } else if (name.equals("uk.ac.ed.inf.aqmaps.SensorRemoval")) {
+                remaining.add(event.getInt("remainingSensors"));
+                assertTrue(event.getInt("moves") > Constants.MOVE_LIMIT);
+                assertTrue(event.getString("sensor") != null);
+            }
+        }
+        nodes.sort(Collections.reverseOrder());
+        remaining.sort(Collections.reverseOrder());
+        assertFalse(remaining.isEmpty());
+        assertEquals(remaining.size() + 1, nodes.size());
+        for (var i = 0; i < nodes.size(); i++) {
+            assertEquals(101 - i, (int) nodes.get(i));
+        }
+        for (var i = 0; i < remaining.size(); i++) {
+            assertEquals(99 - i, (int) remaining.get(i));
+        }
+
+    }
+
+    @Test
+    public void planningServerTest() throws Exception {
+
+        // Serve a generated map the way the webserver does
+        var map = new MapGenerator(5, MapGenerator.Layout.SCATTERED, 10, 4).generate();
+        var root = folder.getRoot().toPath();
+        MapWriter.write(map, root, "2020", "01", "01");
+        var webserver = serve(root);
+
+        var port = webserver.getAddress().getPort();
+        var visibilityGraph = new VisibilityGraph(new NoFlyZoneIndex(map.getNoFlyZones()));
+        var server = new PlanningServer(0, port, visibilityGraph, new Options());
+        server.start();
+
+        try {
+            var client = HttpClient.newHttpClient();
+            var start = map.getStartingPosition().getCoordinate();
+            var url = "http://localhost:" + server.getPort() + "/plan?date=2020-01-01&lat=" + start.getLatitude()
+                    + "&lng=" + start.getLongitude() + "&seed=1";
+
+            var response = client.send(HttpRequest.newBuilder(URI.create(url)).build(), BodyHandlers.ofString());
+            assertEquals(200, response.statusCode());
+            var json = JsonParser.parseString(response.body()).getAsJsonObject();
+            var moves = json.get("moves").getAsInt();
+            assertTrue(moves > 0 && moves <= Constants.MOVE_LIMIT);
+            assertEquals(moves, json.get("flightpath").getAsString().split("\n").length);
+            assertEquals("FeatureCollection", json.getAsJsonObject("readings").get("type").getAsString());
+
+            // Missing parameters and dates the webserver doesn't have
+            var bad = client.send(HttpRequest.newBuilder(URI.create(url.replace("&seed=1", ""))).build(),
+                    BodyHandlers.ofString());
+            assertEquals(400, bad.statusCode());
+            var missing = client.send(HttpRequest.newBuilder(URI.create(url.replace("2020-01-01", "2020-01-02")))
+                    .build(), BodyHandlers.ofString());
+            assertEquals(502, missing.statusCode());
+
+            // Starting positions outside the confinement area or inside a NFZ
+            var outside = client.send(HttpRequest.newBuilder(URI.create(url.replace("lat=" + start.getLatitude(),
+                    "lat=0"))).build(), BodyHandlers.ofString());
+            assertEquals(400, outside.statusCode());
+            var corner1 = Constants.CONFINEMENT_AREA[0];
+            var corner2 = Constants.CONFINEMENT_AREA[2];
+            var latStep = (corner2.getLatitude() - corner1.getLatitude()) / 100;
+            var lngStep = (corner2.getLongitude() - corner1.getLongitude()) / 100;
+            Coordinate inside = null;
+            for (var i = 1; i < 100 && inside == null; i++) {
+                for (var j = 1; j < 100 && inside == null; j++) {
+                    var p = new Coordinate(corner1.getLatitude() + i * latStep, corner1.getLongitude() + j * lngStep);
+                    if (visibilityGraph.getNoFlyZoneIndex().contains(p)) {
+                        inside = p;
+                    }
+                }
+            }
+            var insideUrl = "http://localhost:" + server.getPort() + "/plan?date=2020-01-01&lat="
+                    + inside.getLatitude() + "&lng=" + inside.getLongitude() + "&seed=1";
+            var blocked = client.send(HttpRequest.newBuilder(URI.create(insideUrl)).build(), BodyHandlers.ofString());
+            assertEquals(400, blocked.statusCode());
+
+            // Plans that run out of time
+            server.setPlanTimeLimit(1);
+            var slow = client.send(HttpRequest.newBuilder(URI.create(url)).build(), BodyHandlers.ofString());
+            assertEquals(500, slow.statusCode());
+        } finally {
+            server.stop();
+            webserver.stop(0);
+        }
+
+    }
+
+    @Test
+    public void batchAppTest() throws IOException {
+
+        // The same map on two dates
+        var root = folder.newFolder("webserver").toPath();
+        var map = new MapGenerator(5, MapGenerator.Layout.SCATTERED, 10, 4).generate();
+        MapWriter.write(map, root, "2020", "01", "01");
+        MapWriter.write(new MapGenerator(5, MapGenerator.Layout.SCATTERED, 10, 4).generate(), root, "2020", "01",
+                "02");
+        var webserver = serve(root);
+        var port = Integer.toString(webserver.getAddress().getPort());
+        var lat = Double.toString(map.getStartingPosition().getCoordinate().getLatitude());
+        var lng = Double.toString(map.getStartingPosition().getCoordinate().getLongitude());
+
+        try {
+            // A jobs file, with a blank line, planning both dates at once
+            var jobs = folder.newFile("jobs.txt").toPath();
+            Files.write(jobs, List.of("1 1 2020 " + lat + " " + lng + " 1", "", "2 1 2020 " + lat + " " + lng + " 7"));
+            var fromJobs = folder.newFolder("jobs").toPath();
+            assertEquals(0, BatchApp.run(new String[] { "--jobs=" + jobs, port, "--threads=2",
+                    "--output=" + fromJobs }));
+
+            // Mistyped flags are rejected rather than running the defaults
+            try {
+                BatchApp.run(new String[] { "--jobs=" + jobs, port, "--path_cache" });
+                fail("Expected the unknown flag to be rejected");
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().startsWith("Unknown flag --path_cache"));
+            }
+
+            // A date listed twice would write the same files twice
+            var twice = folder.newFile("twice.txt").toPath();
+            Files.write(twice, List.of("1 1 2020 " + lat + " " + lng + " 1", "1 1 2020 " + lat + " " + lng + " 7"));
+            try {
+                BatchApp.run(new String[] { "--jobs=" + twice, port, "--output=" + fromJobs });
+                fail("Expected the repeated date to be rejected");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+
+            // A date range with one seed. The webserver doesn't have the last date.
+            var fromRange = folder.newFolder("range").toPath();
+            assertEquals(1, BatchApp.run(new String[] { "2020-01-01", "2020-01-03", lat, lng, "1", port,
+                    "--output=" + fromRange }));
+            assertFalse(Files.exists(fromRange.resolve("flightpath-03-01-2020.txt")));
+
+            // Each date writes its own files, and the same date and seed give the same
+            // flight either way
+            for (var output : List.of(fromJobs, fromRange)) {
+                for (var day : List.of("01", "02")) {
+                    var moves = Files.readAllLines(output.resolve("flightpath-" + day + "-01-2020.txt"));
+                    assertTrue(moves.size() > 0 && moves.size() <= Constants.MOVE_LIMIT);
+                    var readings = JsonParser.parseString(Files.readString(
+                            output.resolve("readings-" + day + "-01-2020.geojson"))).getAsJsonObject();
+                    assertEquals("FeatureCollection", readings.get("type").getAsString());
+                }
+            }
+            assertEquals(Files.readAllLines(fromJobs.resolve("flightpath-01-01-2020.txt")),
+                    Files.readAllLines(fromRange.resolve("flightpath-01-01-2020.txt")));
+
+            // Dates whose files can't be written fail
+            var missing = root.resolve("missing").toString();
+            assertEquals(2, BatchApp.run(new String[] { "2020-01-01", "2020-01-02", lat, lng, "1", port,
+                    "--output=" + missing }));
+        } finally {
+            webserver.stop(0);
+        }
+
+    }
+
+    /**
+     * Starts an HTTP server on a free port that serves the files under root, the
+     * way the webserver does
+     */
+    private static HttpServer serve(Path root) throws IOException {
+        var webserver = HttpServer.create(new InetSocketAddress(0), 0);
+        webserver.createContext("/", exchange -> {
+            var file = root.resolve(exchange.getRequestURI().getPath().substring(1));
+            if (Files.isRegularFile(file)) {
+                var bytes = Files.readAllBytes(file);
+                exchange.sendResponseHeaders(200, bytes.length);
+                exchange.getResponseBody().write(bytes);
+            } else {
+                exchange.sendResponseHeaders(404, -1);
+            }
+            exchange.close();
+        });
+        webserver.start();
+        return webserver;
+    }
+
 }